@@ -1,5 +1,6 @@
 package com.xstream.clouddesktop;
 
+import com.xstream.clouddesktop.config.DesktopProperties;
 import com.xstream.clouddesktop.config.GuacamoleProperties;
 import com.xstream.clouddesktop.config.ProxmoxProperties;
 import org.springframework.boot.SpringApplication;
@@ -14,7 +15,7 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
  * - Apache Guacamole for remote desktop access
  */
 @SpringBootApplication
-@EnableConfigurationProperties({ProxmoxProperties.class, GuacamoleProperties.class})
+@EnableConfigurationProperties({ProxmoxProperties.class, GuacamoleProperties.class, DesktopProperties.class})
 public class CloudDesktopApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,53 @@
+package com.xstream.clouddesktop.client.guacamole;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/**
+ * Produces the {@code data} value understood by Guacamole's encrypted-JSON
+ * auth extension (guacamole-auth-json).
+ *
+ * The JSON is signed with HMAC-SHA256, the signature is prepended, and the
+ * result is encrypted with AES-128-CBC under the same key with an all-zero IV,
+ * then base64 encoded. The key is the 32 hex digit secret configured as
+ * json-secret-key on the Guacamole side.
+ */
+class EncryptedJsonAuth {
+
+    private static final byte[] ZERO_IV = new byte[16];
+
+    private final SecretKeySpec hmacKey;
+    private final SecretKeySpec aesKey;
+
+    EncryptedJsonAuth(String hexKey) {
+        if (hexKey == null || hexKey.length() != 32) {
+            throw new IllegalArgumentException("Guacamole JSON secret key must be 32 hex digits (128 bits)");
+        }
+        byte[] key = HexFormat.of().parseHex(hexKey);
+        this.hmacKey = new SecretKeySpec(key, "HmacSHA256");
+        this.aesKey = new SecretKeySpec(key, "AES");
+    }
+
+    String seal(byte[] json) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(hmacKey);
+            byte[] signature = mac.doFinal(json);
+
+            byte[] signed = new byte[signature.length + json.length];
+            System.arraycopy(signature, 0, signed, 0, signature.length);
+            System.arraycopy(json, 0, signed, signature.length, json.length);
+
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(ZERO_IV));
+            return Base64.getEncoder().encodeToString(cipher.doFinal(signed));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to seal Guacamole auth data", e);
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package com.xstream.clouddesktop.client.guacamole;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.xstream.clouddesktop.client.guacamole.dto.*;
 import com.xstream.clouddesktop.client.guacamole.exception.*;
+import com.xstream.clouddesktop.client.support.CallType;
+import com.xstream.clouddesktop.client.support.SingleFlight;
+import com.xstream.clouddesktop.client.support.UpstreamGuard;
 import com.xstream.clouddesktop.config.GuacamoleProperties;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Profile;
@@ -14,9 +20,13 @@ import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Function;
 
 @Slf4j
 @Component
@@ -25,21 +35,38 @@ public class GuacamoleClient {
 
     private final RestTemplate restTemplate;
     private final GuacamoleProperties properties;
+    private final UpstreamGuard guard;
+    private final SingleFlight readCoalescer = new SingleFlight("guacamole");
+    private final GuacamoleConnectionMirror connectionMirror = new GuacamoleConnectionMirror();
 
-    private String cachedAuthToken;
-    private Instant tokenExpiry;
+    private final GuacamoleTokenManager tokens;
+    private volatile EncryptedJsonAuth encryptedJsonAuth;
+
+    private static final ObjectMapper JSON = new ObjectMapper();
 
     // Token validity buffer (refresh if within 5 minutes of expiry) - assuming 1
     // hour default validity
-    private static final long TOKEN_VALIDITY_SECONDS = 3600;
-    private static final long TOKEN_BUFFER_SECONDS = 300;
+    private static final Duration TOKEN_VALIDITY = Duration.ofHours(1);
+    private static final Duration TOKEN_BUFFER = Duration.ofMinutes(5);
 
     public GuacamoleClient(@Qualifier("guacamoleRestTemplate") RestTemplate restTemplate,
-            GuacamoleProperties properties) {
+            GuacamoleProperties properties, @Qualifier("guacamoleUpstreamGuard") UpstreamGuard guard) {
         this.restTemplate = restTemplate;
         this.properties = properties;
+        this.guard = guard;
+        this.tokens = new GuacamoleTokenManager(() -> authenticate().getAuthToken(), TOKEN_VALIDITY, TOKEN_BUFFER,
+                Clock.systemUTC());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        tokens.shutdown();
     }
 
+    /**
+     * Logs in with the configured admin credentials. The returned token is not
+     * cached; regular calls go through the shared token manager.
+     */
     public AuthResponse authenticate() {
         String url = String.format("%s/api/tokens", properties.getUrl());
 
@@ -53,16 +80,15 @@ public class GuacamoleClient {
         HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(map, headers);
 
         try {
-            ResponseEntity<AuthResponse> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.POST,
-                    request,
-                    AuthResponse.class);
+            ResponseEntity<AuthResponse> response = guard.call("authenticate", CallType.IDEMPOTENT,
+                    () -> restTemplate.exchange(
+                            url,
+                            HttpMethod.POST,
+                            request,
+                            AuthResponse.class));
 
             AuthResponse authResponse = response.getBody();
             if (authResponse != null) {
-                this.cachedAuthToken = authResponse.getAuthToken();
-                this.tokenExpiry = Instant.now().plusSeconds(TOKEN_VALIDITY_SECONDS);
                 return authResponse;
             } else {
                 throw new GuacamoleAuthException("Authentication response was empty");
@@ -73,26 +99,19 @@ public class GuacamoleClient {
         }
     }
 
-    private String getAuthToken() {
-        if (cachedAuthToken == null || tokenExpiry == null
-                || Instant.now().plusSeconds(TOKEN_BUFFER_SECONDS).isAfter(tokenExpiry)) {
-            authenticate();
-        }
-        return cachedAuthToken;
-    }
-
     public Map<String, ConnectionResponse> listConnections() {
-        String token = getAuthToken();
-        String url = String.format("%s/api/session/data/%s/connections?token=%s",
-                properties.getUrl(), properties.getDataSource(), token);
+        return readCoalescer.execute("connections", this::fetchConnections);
+    }
 
+    private Map<String, ConnectionResponse> fetchConnections() {
         try {
-            ResponseEntity<Map<String, ConnectionResponse>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    new ParameterizedTypeReference<>() {
-                    });
+            ResponseEntity<Map<String, ConnectionResponse>> response = tokens.withToken(token -> guard.call(
+                    "listConnections", CallType.IDEMPOTENT, () -> restTemplate.exchange(
+                            connectionsUrl(token),
+                            HttpMethod.GET,
+                            null,
+                            new ParameterizedTypeReference<Map<String, ConnectionResponse>>() {
+                            })));
             return Optional.ofNullable(response.getBody()).orElse(Collections.emptyMap());
         } catch (Exception e) {
             log.error("Error listing connections", e);
@@ -101,16 +120,17 @@ public class GuacamoleClient {
     }
 
     public ConnectionResponse getConnection(String connectionId) {
-        String token = getAuthToken();
-        String url = String.format("%s/api/session/data/%s/connections/%s?token=%s",
-                properties.getUrl(), properties.getDataSource(), connectionId, token);
+        return readCoalescer.execute("connection/" + connectionId, () -> fetchConnection(connectionId));
+    }
 
+    private ConnectionResponse fetchConnection(String connectionId) {
         try {
-            ResponseEntity<ConnectionResponse> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    ConnectionResponse.class);
+            ResponseEntity<ConnectionResponse> response = tokens.withToken(token -> guard.call(
+                    "getConnection", CallType.IDEMPOTENT, () -> restTemplate.exchange(
+                            connectionUrl(connectionId, token),
+                            HttpMethod.GET,
+                            null,
+                            ConnectionResponse.class)));
             return response.getBody();
         } catch (HttpClientErrorException.NotFound e) {
             throw new ConnectionNotFoundException(connectionId, properties.getDataSource());
@@ -122,10 +142,61 @@ public class GuacamoleClient {
 
     public ConnectionResponse createConnection(String name, String protocol, String hostname, Integer port,
             Map<String, String> extraParams) {
-        String token = getAuthToken();
-        String url = String.format("%s/api/session/data/%s/connections?token=%s",
-                properties.getUrl(), properties.getDataSource(), token);
+        CreateConnectionRequest request = connectionRequest(name, protocol, hostname, port, extraParams);
+
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+
+            // A rejected token means the create never happened, so the single retry is safe
+            ResponseEntity<ConnectionResponse> response = tokens.withToken(token -> guard.call(
+                    "createConnection", CallType.NON_IDEMPOTENT, () -> restTemplate.exchange(
+                            connectionsUrl(token),
+                            HttpMethod.POST,
+                            new HttpEntity<>(request, headers),
+                            ConnectionResponse.class)));
+            ConnectionResponse created = response.getBody();
+            if (created != null) {
+                connectionMirror.put(mirrored(created.getIdentifier(), request));
+            }
+            return created;
+        } catch (Exception e) {
+            log.error("Error creating connection {}", name, e);
+            throw new GuacamoleException("Failed to create connection", e);
+        }
+    }
+
+    /**
+     * Replaces the definition of an existing connection in place. Guacamole's
+     * PUT is a full replacement, so all parameters must be sent again, not just
+     * the changed ones. The identifier, and therefore the client URL, is kept.
+     */
+    public void updateConnection(String connectionId, String name, String protocol, String hostname, Integer port,
+            Map<String, String> extraParams) {
+        CreateConnectionRequest request = connectionRequest(name, protocol, hostname, port, extraParams);
+
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
 
+            tokens.withToken(token -> guard.call("updateConnection", CallType.IDEMPOTENT,
+                    () -> restTemplate.exchange(
+                            connectionUrl(connectionId, token),
+                            HttpMethod.PUT,
+                            new HttpEntity<>(request, headers),
+                            Void.class)));
+            connectionMirror.put(mirrored(connectionId, request));
+        } catch (HttpClientErrorException.NotFound e) {
+            connectionMirror.remove(connectionId);
+            throw new ConnectionNotFoundException(connectionId, properties.getDataSource());
+        } catch (Exception e) {
+            log.error("Error updating connection {}", connectionId, e);
+            throw new GuacamoleException("Failed to update connection", e);
+        }
+    }
+
+    static CreateConnectionRequest connectionRequest(String name, String protocol, String hostname, Integer port,
+            Map<String, String> extraParams) {
         Map<String, String> parameters = new HashMap<>();
         parameters.put("hostname", hostname);
         parameters.put("port", String.valueOf(port));
@@ -133,82 +204,219 @@ public class GuacamoleClient {
             parameters.putAll(extraParams);
         }
 
-        CreateConnectionRequest request = CreateConnectionRequest.builder()
+        return CreateConnectionRequest.builder()
                 .parentIdentifier("ROOT")
                 .name(name)
                 .protocol(protocol)
                 .parameters(parameters)
                 .attributes(Collections.singletonMap("max-connections", "1"))
                 .build();
+    }
 
+    /**
+     * The mirror entry for a connection we just wrote with {@code request}.
+     */
+    static ConnectionResponse mirrored(String connectionId, CreateConnectionRequest request) {
+        ConnectionResponse connection = new ConnectionResponse();
+        connection.setIdentifier(connectionId);
+        connection.setParentIdentifier(request.getParentIdentifier());
+        connection.setName(request.getName());
+        connection.setProtocol(request.getProtocol());
+        connection.setParameters(request.getParameters());
+        connection.setAttributes(request.getAttributes());
+        return connection;
+    }
+
+    /**
+     * Applies many connection additions/removals in one request. Guacamole
+     * applies the patch atomically: either every operation succeeds, or
+     * {@link GuacamolePatchException} is thrown and none took effect.
+     *
+     * @return one outcome per operation, in order; added connections carry
+     *         their new identifier
+     */
+    public PatchResponse patchConnections(List<PatchOperation> operations) {
+        PatchResponse response = patch("patchConnections", operations, this::connectionsUrl);
+        List<PatchResponse.Outcome> outcomes = response.getPatches();
+        for (int i = 0; i < operations.size() && i < outcomes.size(); i++) {
+            PatchOperation operation = operations.get(i);
+            String connectionId = outcomes.get(i).getIdentifier();
+            if ("add".equals(operation.getOp()) && connectionId != null) {
+                connectionMirror.put(mirrored(connectionId, (CreateConnectionRequest) operation.getValue()));
+            } else if ("remove".equals(operation.getOp())) {
+                connectionMirror.remove(operation.getPath().substring(1));
+            }
+        }
+        return response;
+    }
+
+    private PatchResponse patch(String endpoint, List<PatchOperation> operations,
+            Function<String, String> url) {
         try {
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
 
-            ResponseEntity<ConnectionResponse> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.POST,
-                    new HttpEntity<>(request, headers),
-                    ConnectionResponse.class);
-            return response.getBody();
+            // Not idempotent: a retried add would create duplicates
+            ResponseEntity<PatchResponse> response = tokens.withToken(token -> guard.call(
+                    endpoint, CallType.NON_IDEMPOTENT, () -> restTemplate.exchange(
+                            url.apply(token),
+                            HttpMethod.PATCH,
+                            new HttpEntity<>(operations, headers),
+                            PatchResponse.class)));
+            return Optional.ofNullable(response.getBody()).orElseGet(PatchResponse::new);
+        } catch (HttpClientErrorException.BadRequest e) {
+            PatchResponse rejected = null;
+            try {
+                rejected = e.getResponseBodyAs(PatchResponse.class);
+            } catch (RuntimeException ignored) {
+                // Not a patch error body; report the rejection without per-operation detail
+            }
+            log.warn("Guacamole rejected {} of {} operations: {}", endpoint, operations.size(), e.getStatusCode());
+            throw new GuacamolePatchException("Guacamole rejected the patch", rejected, e);
         } catch (Exception e) {
-            log.error("Error creating connection {}", name, e);
-            throw new GuacamoleException("Failed to create connection", e);
+            log.error("Error applying {} with {} operations", endpoint, operations.size(), e);
+            throw new GuacamoleException("Failed to apply patch", e);
         }
     }
 
     public ConnectionResponse createSpiceConnection(String name, String hostname, Integer port, String password) {
-        Map<String, String> params = new HashMap<>();
-        if (password != null && !password.isEmpty()) {
-            params.put("password", password);
-        }
-        params.put("enable-audio", "true");
-        params.put("resize-method", "reconnect");
-
-        return createConnection(name, "spice", hostname, port, params);
+        return createConnection(name, "spice", hostname, port, defaultParameters("spice", null, password));
     }
 
     public ConnectionResponse createVncConnection(String name, String hostname, Integer port, String password) {
-        Map<String, String> params = new HashMap<>();
-        if (password != null && !password.isEmpty()) {
-            params.put("password", password);
-        }
-        params.put("color-depth", "24");
-        params.put("cursor", "remote");
-        params.put("read-only", "false");
-
-        return createConnection(name, "vnc", hostname, port, params);
+        return createConnection(name, "vnc", hostname, port, defaultParameters("vnc", null, password));
     }
 
     public ConnectionResponse createRdpConnection(String name, String hostname, Integer port, String username,
             String password) {
-        Map<String, String> params = new HashMap<>();
-        params.put("username", username);
-        params.put("password", password);
-        params.put("security", "any");
-        params.put("ignore-cert", "true");
-        params.put("enable-wallpaper", "true");
-        params.put("enable-font-smoothing", "true");
+        return createConnection(name, "rdp", hostname, port, defaultParameters("rdp", username, password));
+    }
 
-        return createConnection(name, "rdp", hostname, port, params);
+    /**
+     * Protocol-specific parameters used for every desktop connection, apart
+     * from hostname and port.
+     */
+    public static Map<String, String> defaultParameters(String protocol, String username, String password) {
+        Map<String, String> params = new HashMap<>();
+        switch (protocol.toLowerCase()) {
+            case "spice" -> {
+                if (password != null && !password.isEmpty()) {
+                    params.put("password", password);
+                }
+                params.put("enable-audio", "true");
+                params.put("resize-method", "reconnect");
+            }
+            case "vnc" -> {
+                if (password != null && !password.isEmpty()) {
+                    params.put("password", password);
+                }
+                params.put("color-depth", "24");
+                params.put("cursor", "remote");
+                params.put("read-only", "false");
+            }
+            default -> {
+                params.put("username", username);
+                params.put("password", password);
+                params.put("security", "any");
+                params.put("ignore-cert", "true");
+                params.put("enable-wallpaper", "true");
+                params.put("enable-font-smoothing", "true");
+            }
+        }
+        return params;
     }
 
     public void deleteConnection(String connectionId) {
-        String token = getAuthToken();
-        String url = String.format("%s/api/session/data/%s/connections/%s?token=%s",
-                properties.getUrl(), properties.getDataSource(), connectionId, token);
-
         try {
-            restTemplate.delete(url);
+            tokens.withToken(token -> {
+                guard.run("deleteConnection", CallType.IDEMPOTENT,
+                        () -> restTemplate.delete(connectionUrl(connectionId, token)));
+                return null;
+            });
+            connectionMirror.remove(connectionId);
         } catch (HttpClientErrorException.NotFound e) {
             // Ignore if already deleted
             log.warn("Connection {} not found during deletion", connectionId);
+            connectionMirror.remove(connectionId);
         } catch (Exception e) {
             log.error("Error deleting connection {}", connectionId, e);
             throw new GuacamoleException("Failed to delete connection", e);
         }
     }
 
+    public Map<String, ActiveConnection> listActiveConnections() {
+        try {
+            ResponseEntity<Map<String, ActiveConnection>> response = tokens.withToken(token -> guard.call(
+                    "listActiveConnections", CallType.IDEMPOTENT, () -> restTemplate.exchange(
+                            String.format("%s/api/session/data/%s/activeConnections?token=%s",
+                                    properties.getUrl(), properties.getDataSource(), token),
+                            HttpMethod.GET,
+                            null,
+                            new ParameterizedTypeReference<Map<String, ActiveConnection>>() {
+                            })));
+            return Optional.ofNullable(response.getBody()).orElse(Collections.emptyMap());
+        } catch (Exception e) {
+            log.error("Error listing active connections", e);
+            throw new GuacamoleException("Failed to list active connections", e);
+        }
+    }
+
+    /**
+     * Connection history, newest session first. Guacamole caps the number of
+     * entries returned, so poll often enough not to miss sessions.
+     */
+    public List<ConnectionHistoryEntry> listConnectionHistory() {
+        try {
+            ResponseEntity<List<ConnectionHistoryEntry>> response = tokens.withToken(token -> guard.call(
+                    "listConnectionHistory", CallType.IDEMPOTENT, () -> restTemplate.exchange(
+                            String.format("%s/api/session/data/%s/history/connections?order=-startDate&token=%s",
+                                    properties.getUrl(), properties.getDataSource(), token),
+                            HttpMethod.GET,
+                            null,
+                            new ParameterizedTypeReference<List<ConnectionHistoryEntry>>() {
+                            })));
+            return Optional.ofNullable(response.getBody()).orElse(Collections.emptyList());
+        } catch (Exception e) {
+            log.error("Error listing connection history", e);
+            throw new GuacamoleException("Failed to list connection history", e);
+        }
+    }
+
+    /**
+     * The list endpoint omits connection parameters (hostname, port, ...);
+     * they have to be read per connection.
+     */
+    public Map<String, String> getConnectionParameters(String connectionId) {
+        try {
+            ResponseEntity<Map<String, String>> response = tokens.withToken(token -> guard.call(
+                    "getConnectionParameters", CallType.IDEMPOTENT, () -> restTemplate.exchange(
+                            String.format("%s/api/session/data/%s/connections/%s/parameters?token=%s",
+                                    properties.getUrl(), properties.getDataSource(), connectionId, token),
+                            HttpMethod.GET,
+                            null,
+                            new ParameterizedTypeReference<Map<String, String>>() {
+                            })));
+            return response.getBody();
+        } catch (HttpClientErrorException.NotFound e) {
+            throw new ConnectionNotFoundException(connectionId, properties.getDataSource());
+        } catch (Exception e) {
+            log.error("Error getting parameters of connection {}", connectionId, e);
+            throw new GuacamoleException("Failed to get connection parameters", e);
+        }
+    }
+
+    /**
+     * Reconciles the connection mirror with Guacamole. Called periodically by
+     * {@link GuacamoleMirrorRefresher}; every guacamole.mirror.full-resync-interval
+     * the pass also reloads the parameters of unchanged connections.
+     */
+    public void refreshConnectionMirror() {
+        Instant lastFullResync = connectionMirror.getLastFullResync();
+        boolean fullResync = lastFullResync == null
+                || !lastFullResync.plus(properties.getMirror().getFullResyncInterval()).isAfter(Instant.now());
+        connectionMirror.refresh(this::listConnections, this::getConnectionParameters, fullResync);
+    }
+
     public String generateClientUrl(String connectionId) {
         // Format: connectionId + "\0" + "c" + "\0" + dataSource
         String rawString = connectionId + "\0" + "c" + "\0" + properties.getDataSource();
@@ -223,11 +431,94 @@ public class GuacamoleClient {
         return String.format("%s/#/client/%s", baseUrl, encodedId);
     }
 
+    /**
+     * Builds a connect URL for the encrypted-JSON auth extension. The
+     * connection is described entirely in the URL, so nothing is stored in
+     * Guacamole and no API call is made. The URL expires after
+     * guacamole.json-token-ttl, so mint it when the user connects.
+     */
+    public String generateEncryptedJsonUrl(String username, String connectionName, String protocol,
+            Map<String, String> parameters) {
+        Map<String, Object> connection = new LinkedHashMap<>();
+        connection.put("protocol", protocol);
+        connection.put("parameters", parameters);
+
+        Map<String, Object> descriptor = new LinkedHashMap<>();
+        descriptor.put("username", username);
+        descriptor.put("expires", Instant.now().plus(properties.getJsonTokenTtl()).toEpochMilli());
+        descriptor.put("connections", Collections.singletonMap(connectionName, connection));
+
+        String data;
+        try {
+            data = encryptedJsonAuth().seal(JSON.writeValueAsBytes(descriptor));
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            throw new GuacamoleException("Failed to build encrypted-JSON connect URL", e);
+        }
+
+        // The extension registers its connections under the "json" data source, keyed by name
+        String rawString = connectionName + "\0" + "c" + "\0" + "json";
+        String encodedId = Base64.getEncoder().encodeToString(rawString.getBytes(StandardCharsets.UTF_8));
+
+        String baseUrl = properties.getUrl();
+        if (baseUrl.endsWith("/")) {
+            baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+        }
+
+        return String.format("%s/#/client/%s?data=%s", baseUrl, encodedId,
+                URLEncoder.encode(data, StandardCharsets.UTF_8));
+    }
+
+    private EncryptedJsonAuth encryptedJsonAuth() {
+        EncryptedJsonAuth auth = encryptedJsonAuth;
+        if (auth == null) {
+            auth = new EncryptedJsonAuth(properties.getJsonSecretKey());
+            encryptedJsonAuth = auth;
+        }
+        return auth;
+    }
+
+    /**
+     * Coalescer shared by the connection read endpoints.
+     */
+    public SingleFlight getReadCoalescer() {
+        return readCoalescer;
+    }
+
+    public UpstreamGuard getGuard() {
+        return guard;
+    }
+
+    /**
+     * Indexed local copy of the connections, for lookups without a round trip.
+     */
+    public GuacamoleConnectionMirror getConnectionMirror() {
+        return connectionMirror;
+    }
+
+    /**
+     * Verifies Guacamole with the shared admin token instead of logging in on
+     * every probe. Only logs in when there is no live token yet.
+     */
     public void checkGuacamoleHealth() {
         try {
-            authenticate();
-        } catch (GuacamoleAuthException e) {
+            tokens.withToken(token -> guard.call("self", CallType.IDEMPOTENT, () -> restTemplate.exchange(
+                    String.format("%s/api/session/data/%s/self?token=%s",
+                            properties.getUrl(), properties.getDataSource(), token),
+                    HttpMethod.GET,
+                    null,
+                    Map.class)));
+        } catch (Exception e) {
             throw new GuacamoleException("Guacamole health check failed", e);
         }
     }
+
+    private String connectionsUrl(String token) {
+        return String.format("%s/api/session/data/%s/connections?token=%s",
+                properties.getUrl(), properties.getDataSource(), token);
+    }
+
+    private String connectionUrl(String connectionId, String token) {
+        return String.format("%s/api/session/data/%s/connections/%s?token=%s",
+                properties.getUrl(), properties.getDataSource(), connectionId, token);
+    }
 }
@@ -0,0 +1,245 @@
+package com.xstream.clouddesktop.client.guacamole;
+
+import com.xstream.clouddesktop.client.guacamole.dto.ConnectionResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * In-memory copy of Guacamole's connections, indexed by identifier, name and
+ * hostname.
+ *
+ * Lookups never call Guacamole. The mirror is kept current by the client's own
+ * writes and by a periodic {@link #refresh} that only fetches parameters of
+ * connections that are new or changed since the last pass. The listing does
+ * not carry parameters, so a hostname edited outside this service only shows
+ * up in an occasional full resync, which reloads the parameters of every
+ * connection. Entries are treated as read-only.
+ *
+ * Guacamole only enforces unique names within a connection group; if two
+ * connections share a name the name index points at the most recently seen.
+ */
+@Slf4j
+public class GuacamoleConnectionMirror {
+
+    private final Map<String, ConnectionResponse> byId = new ConcurrentHashMap<>();
+    private final Map<String, String> idByName = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> idsByHostname = new ConcurrentHashMap<>();
+    // When each connection was last written by us, so a refresh never undoes a write newer than its listing
+    private final Map<String, Long> writtenAt = new ConcurrentHashMap<>();
+    private volatile Instant lastRefresh;
+    private volatile Instant lastFullResync;
+
+    public Optional<ConnectionResponse> findById(String connectionId) {
+        return Optional.ofNullable(byId.get(connectionId));
+    }
+
+    public Optional<ConnectionResponse> findByName(String name) {
+        return Optional.ofNullable(idByName.get(name)).map(byId::get);
+    }
+
+    public List<ConnectionResponse> findByHostname(String hostname) {
+        Set<String> ids = idsByHostname.getOrDefault(hostname, Set.of());
+        List<ConnectionResponse> connections = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            ConnectionResponse connection = byId.get(id);
+            if (connection != null) {
+                connections.add(connection);
+            }
+        }
+        return connections;
+    }
+
+    public boolean containsName(String name) {
+        return idByName.containsKey(name);
+    }
+
+    /**
+     * @return mirrored connections whose identifier is not in
+     *         {@code referencedIds}, e.g. leftovers no desktop points at
+     */
+    public List<ConnectionResponse> findUnreferenced(Collection<String> referencedIds) {
+        Set<String> referenced = Set.copyOf(referencedIds);
+        return byId.values().stream()
+                .filter(connection -> !referenced.contains(connection.getIdentifier()))
+                .toList();
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public Instant getLastRefresh() {
+        return lastRefresh;
+    }
+
+    /**
+     * @return when parameters of all connections were last reloaded, or null
+     *         if never
+     */
+    public Instant getLastFullResync() {
+        return lastFullResync;
+    }
+
+    /**
+     * Records a connection we created or changed. Connections without
+     * parameters (as returned by the list endpoint) keep their known ones.
+     */
+    public synchronized void put(ConnectionResponse connection) {
+        writtenAt.put(connection.getIdentifier(), System.nanoTime());
+        index(connection);
+    }
+
+    public synchronized void remove(String connectionId) {
+        writtenAt.put(connectionId, System.nanoTime());
+        unindex(byId.remove(connectionId));
+    }
+
+    private synchronized void index(ConnectionResponse connection) {
+        ConnectionResponse previous = byId.get(connection.getIdentifier());
+        if (connection.getParameters() == null && previous != null) {
+            connection.setParameters(previous.getParameters());
+        }
+        unindex(previous);
+        byId.put(connection.getIdentifier(), connection);
+        idByName.put(connection.getName(), connection.getIdentifier());
+        String hostname = hostname(connection);
+        if (hostname != null) {
+            idsByHostname.computeIfAbsent(hostname, h -> ConcurrentHashMap.newKeySet()).add(connection.getIdentifier());
+        }
+    }
+
+    /**
+     * Brings the mirror in line with a full listing. Only connections that
+     * are new, or whose name or protocol changed, have their parameters
+     * loaded; everything else keeps the parameters already mirrored.
+     *
+     * Connections we wrote after the listing was requested are left alone;
+     * the listing may predate the write.
+     *
+     * @param lister           lists connections by identifier, as the list
+     *                         endpoint does (without parameters)
+     * @param parameterLoader  loads the parameters of one connection; may
+     *                         return null if they cannot be read
+     */
+    public void refresh(Supplier<Map<String, ConnectionResponse>> lister,
+            Function<String, Map<String, String>> parameterLoader) {
+        refresh(lister, parameterLoader, false);
+    }
+
+    /**
+     * @param fullResync reload the parameters of every listed connection,
+     *                   not only of new or changed ones
+     */
+    public void refresh(Supplier<Map<String, ConnectionResponse>> lister,
+            Function<String, Map<String, String>> parameterLoader, boolean fullResync) {
+        long startedAt = System.nanoTime();
+        Map<String, ConnectionResponse> listing = lister.get();
+        int added = 0;
+        int changed = 0;
+        int removed = 0;
+
+        for (ConnectionResponse listed : listing.values()) {
+            if (writtenSince(listed.getIdentifier(), startedAt)) {
+                continue;
+            }
+            ConnectionResponse known = byId.get(listed.getIdentifier());
+            boolean listingChanged = known == null || !Objects.equals(known.getName(), listed.getName())
+                    || !Objects.equals(known.getProtocol(), listed.getProtocol());
+            if (!listingChanged && !fullResync) {
+                continue;
+            }
+            ConnectionResponse copy = copyOf(listed);
+            try {
+                copy.setParameters(parameterLoader.apply(listed.getIdentifier()));
+            } catch (RuntimeException e) {
+                log.warn("Could not load parameters of Guacamole connection {}: {}", listed.getIdentifier(),
+                        e.getMessage());
+            }
+            if (!listingChanged && (copy.getParameters() == null
+                    || Objects.equals(known.getParameters(), copy.getParameters()))) {
+                continue;
+            }
+            synchronized (this) {
+                if (writtenSince(listed.getIdentifier(), startedAt)) {
+                    continue;
+                }
+                index(copy);
+            }
+            if (known == null) {
+                added++;
+            } else {
+                changed++;
+            }
+        }
+
+        synchronized (this) {
+            for (String id : List.copyOf(byId.keySet())) {
+                if (!listing.containsKey(id) && !writtenSince(id, startedAt)) {
+                    unindex(byId.remove(id));
+                    removed++;
+                }
+            }
+            writtenAt.values().removeIf(stamp -> stamp - startedAt < 0);
+        }
+
+        lastRefresh = Instant.now();
+        if (fullResync) {
+            lastFullResync = lastRefresh;
+        }
+        if (added + changed + removed > 0) {
+            log.info("Guacamole mirror refreshed: {} added, {} changed, {} removed, {} total", added, changed,
+                    removed, byId.size());
+        }
+    }
+
+    private boolean writtenSince(String connectionId, long since) {
+        Long stamp = writtenAt.get(connectionId);
+        return stamp != null && stamp - since >= 0;
+    }
+
+    private void unindex(ConnectionResponse connection) {
+        if (connection == null) {
+            return;
+        }
+        idByName.remove(connection.getName(), connection.getIdentifier());
+        String hostname = hostname(connection);
+        if (hostname != null) {
+            Set<String> ids = idsByHostname.get(hostname);
+            if (ids != null) {
+                ids.remove(connection.getIdentifier());
+                if (ids.isEmpty()) {
+                    idsByHostname.remove(hostname);
+                }
+            }
+        }
+    }
+
+    private static String hostname(ConnectionResponse connection) {
+        Map<String, String> parameters = connection.getParameters();
+        String hostname = parameters != null ? parameters.get("hostname") : null;
+        return hostname == null || hostname.isEmpty() ? null : hostname;
+    }
+
+    private static ConnectionResponse copyOf(ConnectionResponse listed) {
+        ConnectionResponse copy = new ConnectionResponse();
+        copy.setIdentifier(listed.getIdentifier());
+        copy.setParentIdentifier(listed.getParentIdentifier());
+        copy.setName(listed.getName());
+        copy.setProtocol(listed.getProtocol());
+        copy.setAttributes(listed.getAttributes() != null ? new HashMap<>(listed.getAttributes()) : null);
+        copy.setActiveConnections(listed.getActiveConnections());
+        return copy;
+    }
+}
@@ -0,0 +1,28 @@
+package com.xstream.clouddesktop.client.guacamole;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Periodically reconciles the connection mirror with Guacamole, picking up
+ * changes made outside this service (admin UI, other instances).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GuacamoleMirrorRefresher {
+
+    private final GuacamoleClient guacamoleClient;
+
+    @Scheduled(fixedDelayString = "${guacamole.mirror.refresh-interval:PT30S}")
+    public void refresh() {
+        try {
+            guacamoleClient.refreshConnectionMirror();
+        } catch (Exception e) {
+            // Keep serving the last known state; the next pass retries
+            log.warn("Guacamole mirror refresh failed: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.xstream.clouddesktop.client.guacamole;
+
+import com.xstream.clouddesktop.client.guacamole.dto.PatchOperation;
+import com.xstream.clouddesktop.client.guacamole.dto.PatchResponse;
+import com.xstream.clouddesktop.client.guacamole.exception.GuacamoleException;
+import com.xstream.clouddesktop.client.guacamole.exception.GuacamolePatchException;
+import com.xstream.clouddesktop.config.GuacamoleProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups connection creations into Guacamole JSON Patch requests, so a burst
+ * of provisions shares a few requests instead of sending one POST each.
+ *
+ * Additions are queued and sent as one PATCH, either as soon as
+ * guacamole.batch.max-size of them are queued or after
+ * guacamole.batch.flush-interval, whichever comes first. Each addition gets its own future, completed with
+ * the new connection's identifier or with the error Guacamole reported for
+ * it.
+ *
+ * Guacamole applies a patch all-or-nothing. When a batch is rejected because
+ * of specific operations, those fail and the rest are resubmitted once as a
+ * new batch.
+ */
+@Slf4j
+@Component
+public class GuacamoleMutationBatcher {
+
+    private final GuacamoleClient guacamoleClient;
+    private final int maxSize;
+    private final long flushIntervalMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object lock = new Object();
+    private List<Pending> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    public GuacamoleMutationBatcher(GuacamoleClient guacamoleClient, GuacamoleProperties properties) {
+        this.guacamoleClient = guacamoleClient;
+        this.maxSize = Math.max(1, properties.getBatch().getMaxSize());
+        this.flushIntervalMillis = properties.getBatch().getFlushInterval().toMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "guacamole-batch-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return future completed with the new connection's identifier
+     */
+    public CompletableFuture<String> addConnection(String name, String protocol, String hostname, Integer port,
+            Map<String, String> extraParams) {
+        return enqueue(PatchOperation.add("/",
+                GuacamoleClient.connectionRequest(name, protocol, hostname, port, extraParams)));
+    }
+
+    /**
+     * Sends everything queued so far on the calling thread.
+     */
+    public void flush() {
+        List<Pending> batch;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+        }
+        apply(batch, true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    private CompletableFuture<String> enqueue(PatchOperation operation) {
+        Pending queued = new Pending(operation, new CompletableFuture<>());
+        boolean full;
+        synchronized (lock) {
+            pending.add(queued);
+            full = pending.size() >= maxSize;
+            if (!full && scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flushQuietly, flushIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) {
+            flush();
+        }
+        return queued.result();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // Failures are reported through the per-operation futures
+            log.error("Unexpected error flushing Guacamole batch", e);
+        }
+    }
+
+    private void apply(List<Pending> batch, boolean resubmitRemainder) {
+        List<PatchOperation> operations = batch.stream().map(Pending::operation).toList();
+        try {
+            List<PatchResponse.Outcome> outcomes = guacamoleClient.patchConnections(operations).getPatches();
+            for (int i = 0; i < batch.size(); i++) {
+                String identifier = i < outcomes.size() ? outcomes.get(i).getIdentifier() : null;
+                batch.get(i).result().complete(identifier);
+            }
+        } catch (GuacamolePatchException e) {
+            List<Pending> remainder = failRejected(batch, e);
+            if (remainder.isEmpty()) {
+                return;
+            }
+            if (resubmitRemainder && remainder.size() < batch.size()) {
+                log.info("Resubmitting {} of {} Guacamole operations after partial rejection", remainder.size(),
+                        batch.size());
+                apply(remainder, false);
+            } else {
+                remainder.forEach(queued -> queued.result().completeExceptionally(e));
+            }
+        } catch (RuntimeException e) {
+            batch.forEach(queued -> queued.result().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Fails the operations Guacamole blamed for the rejection.
+     *
+     * @return the operations that were rolled back through no fault of their own
+     */
+    private static List<Pending> failRejected(List<Pending> batch, GuacamolePatchException e) {
+        List<PatchResponse.Outcome> outcomes = e.getResponse() != null
+                ? e.getResponse().getPatches()
+                : List.of();
+        List<Pending> remainder = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            PatchResponse.Error error = i < outcomes.size() ? outcomes.get(i).getError() : null;
+            if (error != null) {
+                batch.get(i).result().completeExceptionally(new GuacamoleException(
+                        "Guacamole rejected " + batch.get(i).operation().getOp() + " "
+                                + batch.get(i).operation().getPath() + ": " + error.getMessage()));
+            } else {
+                remainder.add(batch.get(i));
+            }
+        }
+        return remainder;
+    }
+
+    private record Pending(PatchOperation operation, CompletableFuture<String> result) {
+    }
+}
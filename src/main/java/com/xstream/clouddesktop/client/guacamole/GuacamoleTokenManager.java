@@ -0,0 +1,170 @@
+package com.xstream.clouddesktop.client.guacamole;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Holds the Guacamole admin token shared by all callers.
+ *
+ * Only one login runs at a time: callers that find the token expired queue on
+ * the refresh lock and pick up the token the first of them obtained. While the
+ * token is in use it is renewed in the background shortly before it expires,
+ * so request threads normally never wait on a login. A token no caller asked
+ * for since it was obtained is left to expire instead, and the next caller
+ * after the idle period logs in on demand.
+ */
+@Slf4j
+class GuacamoleTokenManager {
+
+    private final Supplier<String> login;
+    private final Duration validity;
+    private final Duration refreshBefore;
+    private final Clock clock;
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    private volatile Token current;
+    private volatile boolean used;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> scheduledRefresh;
+    private boolean closed;
+
+    GuacamoleTokenManager(Supplier<String> login, Duration validity, Duration refreshBefore, Clock clock) {
+        this.login = login;
+        this.validity = validity;
+        this.refreshBefore = refreshBefore;
+        this.clock = clock;
+    }
+
+    /**
+     * @return a token that is not about to expire, logging in if needed
+     */
+    String getToken() {
+        Token token = current;
+        if (token == null || !token.isUsable(clock.instant(), refreshBefore)) {
+            token = refresh(token);
+        }
+        if (!used) {
+            used = true;
+        }
+        return token.value();
+    }
+
+    /**
+     * Runs {@code call} with the current token. If Guacamole rejects the token
+     * (it was revoked, or the server restarted), logs in again and retries
+     * once.
+     */
+    <T> T withToken(Function<String, T> call) {
+        String token = getToken();
+        try {
+            return call.apply(token);
+        } catch (HttpClientErrorException.Unauthorized | HttpClientErrorException.Forbidden e) {
+            log.info("Guacamole rejected the cached token ({}), logging in again", e.getStatusCode());
+            invalidate(token);
+            return call.apply(getToken());
+        }
+    }
+
+    /**
+     * Drops {@code token} if it is still the current one. A token that was
+     * already replaced by a concurrent refresh is left alone.
+     */
+    void invalidate(String token) {
+        refreshLock.lock();
+        try {
+            if (current != null && current.value().equals(token)) {
+                current = null;
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Logs in unless another thread already replaced {@code seen} with a
+     * usable token while this one was waiting for the lock.
+     */
+    private Token refresh(Token seen) {
+        refreshLock.lock();
+        try {
+            Token token = current;
+            if (token != null && token != seen && token.isUsable(clock.instant(), refreshBefore)) {
+                return token;
+            }
+            token = new Token(login.get(), clock.instant().plus(validity));
+            current = token;
+            used = false;
+            scheduleRefresh();
+            return token;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void scheduleRefresh() {
+        if (closed) {
+            return;
+        }
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "guacamole-token-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        long delayMillis = Math.max(0, validity.minus(refreshBefore).toMillis());
+        scheduledRefresh = scheduler.schedule(this::refreshInBackground, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshInBackground() {
+        Token seen = current;
+        if (seen == null) {
+            return; // Invalidated; the next caller logs in on demand
+        }
+        if (!used) {
+            log.debug("Guacamole token unused since the last login, letting it expire");
+            return;
+        }
+        try {
+            refresh(seen);
+            log.debug("Refreshed Guacamole token ahead of expiry");
+        } catch (RuntimeException e) {
+            // The old token may still be valid for a while; callers fall back to an on-demand login
+            log.warn("Background Guacamole token refresh failed: {}", e.getMessage());
+        }
+    }
+
+    void shutdown() {
+        refreshLock.lock();
+        try {
+            closed = true;
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private record Token(String value, Instant expiresAt) {
+
+        boolean isUsable(Instant now, Duration refreshBefore) {
+            return now.plus(refreshBefore).isBefore(expiresAt);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.xstream.clouddesktop.client.guacamole;
 
 import com.xstream.clouddesktop.client.guacamole.dto.*;
 import com.xstream.clouddesktop.client.guacamole.exception.*;
+import com.xstream.clouddesktop.client.support.UpstreamGuard;
 import com.xstream.clouddesktop.config.GuacamoleProperties;
 import com.xstream.clouddesktop.config.MockProperties;
 import lombok.extern.slf4j.Slf4j;
@@ -29,7 +30,7 @@ public class MockGuacamoleClient extends GuacamoleClient {
     private final GuacamoleProperties guacamoleProperties;
 
     public MockGuacamoleClient(GuacamoleProperties properties, MockProperties mockProperties) {
-        super(null, properties); // No RestTemplate needed for mock
+        super(null, properties, UpstreamGuard.unguarded("guacamole")); // No RestTemplate needed for mock
         this.guacamoleProperties = properties;
         this.mockProperties = mockProperties;
         log.info("MockGuacamoleClient initialized - Running in DEMO MODE");
@@ -88,11 +89,79 @@ public class MockGuacamoleClient extends GuacamoleClient {
         response.setAttributes(Collections.singletonMap("max-connections", "1"));
 
         connections.put(connectionId, response);
+        getConnectionMirror().put(response);
         log.info("Mock: Connection {} created successfully", connectionId);
 
         return response;
     }
 
+    @Override
+    public void updateConnection(String connectionId, String name, String protocol, String hostname, Integer port,
+            Map<String, String> extraParams) {
+        log.info("Mock: Updating connection {} to {} {}:{}", connectionId, protocol, hostname, port);
+        ConnectionResponse connection = connections.get(connectionId);
+        if (connection == null) {
+            throw new ConnectionNotFoundException(connectionId, guacamoleProperties.getDataSource());
+        }
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("hostname", hostname);
+        parameters.put("port", String.valueOf(port));
+        if (extraParams != null) {
+            parameters.putAll(extraParams);
+        }
+
+        connection.setName(name);
+        connection.setProtocol(protocol);
+        connection.setParameters(parameters);
+        getConnectionMirror().put(connection);
+    }
+
+    @Override
+    public PatchResponse patchConnections(List<PatchOperation> operations) {
+        log.info("Mock: Applying connection patch with {} operations", operations.size());
+        PatchResponse response = new PatchResponse();
+        for (PatchOperation operation : operations) {
+            PatchResponse.Outcome outcome = new PatchResponse.Outcome();
+            outcome.setOp(operation.getOp());
+            outcome.setPath(operation.getPath());
+            if ("add".equals(operation.getOp())) {
+                CreateConnectionRequest request = (CreateConnectionRequest) operation.getValue();
+                ConnectionResponse connection = new ConnectionResponse();
+                connection.setIdentifier(String.valueOf(connectionIdCounter.getAndIncrement()));
+                connection.setName(request.getName());
+                connection.setProtocol(request.getProtocol());
+                connection.setParentIdentifier(request.getParentIdentifier());
+                connection.setParameters(request.getParameters());
+                connection.setAttributes(request.getAttributes());
+                connections.put(connection.getIdentifier(), connection);
+                getConnectionMirror().put(connection);
+                outcome.setIdentifier(connection.getIdentifier());
+            } else {
+                outcome.setIdentifier(operation.getPath().substring(1));
+                connections.remove(outcome.getIdentifier());
+                getConnectionMirror().remove(outcome.getIdentifier());
+            }
+            response.getPatches().add(outcome);
+        }
+        return response;
+    }
+
+    @Override
+    public Map<String, ActiveConnection> listActiveConnections() {
+        return Collections.emptyMap(); // Nobody actually connects in demo mode
+    }
+
+    @Override
+    public List<ConnectionHistoryEntry> listConnectionHistory() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Map<String, String> getConnectionParameters(String connectionId) {
+        return getConnection(connectionId).getParameters();
+    }
+
     @Override
     public ConnectionResponse createSpiceConnection(String name, String hostname, Integer port, String password) {
         log.info("Mock: Creating SPICE connection '{}'", name);
@@ -139,6 +208,7 @@ public class MockGuacamoleClient extends GuacamoleClient {
     public void deleteConnection(String connectionId) {
         log.info("Mock: Deleting connection {}", connectionId);
         ConnectionResponse removed = connections.remove(connectionId);
+        getConnectionMirror().remove(connectionId);
         if (removed != null) {
             log.info("Mock: Connection {} deleted successfully", connectionId);
         } else {
@@ -0,0 +1,18 @@
+package com.xstream.clouddesktop.client.guacamole.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+/**
+ * A session that is currently open, from /activeConnections. Dates are epoch
+ * milliseconds.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ActiveConnection {
+    private String identifier;
+    private String connectionIdentifier;
+    private Long startDate;
+    private String remoteHost;
+    private String username;
+}
@@ -0,0 +1,20 @@
+package com.xstream.clouddesktop.client.guacamole.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+/**
+ * One session from /history/connections. Dates are epoch milliseconds;
+ * endDate is null while the session is still open.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ConnectionHistoryEntry {
+    private String connectionIdentifier;
+    private String connectionName;
+    private Long startDate;
+    private Long endDate;
+    private String remoteHost;
+    private String username;
+    private boolean active;
+}
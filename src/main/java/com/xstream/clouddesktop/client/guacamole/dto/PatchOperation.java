@@ -0,0 +1,24 @@
+package com.xstream.clouddesktop.client.guacamole.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One entry of a Guacamole JSON Patch request. A connection is added with
+ * path "/" and the connection as value.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PatchOperation {
+    private String op;
+    private String path;
+    private Object value;
+
+    public static PatchOperation add(String path, Object value) {
+        return new PatchOperation("add", path, value);
+    }
+}
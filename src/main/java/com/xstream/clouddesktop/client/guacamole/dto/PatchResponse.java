@@ -0,0 +1,34 @@
+package com.xstream.clouddesktop.client.guacamole.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a Guacamole PATCH, one outcome per submitted operation in
+ * submission order. On a rejected patch Guacamole returns the same shape
+ * with an error on each offending operation.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PatchResponse {
+    private List<Outcome> patches = new ArrayList<>();
+
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Outcome {
+        private String op;
+        private String path;
+        private String identifier;
+        private Error error;
+    }
+
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Error {
+        private String message;
+        private String type;
+    }
+}
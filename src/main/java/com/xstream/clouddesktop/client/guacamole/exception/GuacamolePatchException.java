@@ -0,0 +1,19 @@
+package com.xstream.clouddesktop.client.guacamole.exception;
+
+import com.xstream.clouddesktop.client.guacamole.dto.PatchResponse;
+import lombok.Getter;
+
+/**
+ * A PATCH that Guacamole rejected as a whole. Guacamole applies patches
+ * atomically, so none of the operations took effect; {@link #getResponse()}
+ * tells which ones caused the rejection, if the server said so.
+ */
+@Getter
+public class GuacamolePatchException extends GuacamoleException {
+    private final PatchResponse response;
+
+    public GuacamolePatchException(String message, PatchResponse response, Throwable cause) {
+        super(message, cause);
+        this.response = response;
+    }
+}
@@ -4,6 +4,7 @@ import com.xstream.clouddesktop.client.proxmox.dto.*;
 import com.xstream.clouddesktop.client.proxmox.exception.*;
 import com.xstream.clouddesktop.client.proxmox.mock.MockTask;
 import com.xstream.clouddesktop.client.proxmox.mock.MockVm;
+import com.xstream.clouddesktop.client.support.UpstreamGuard;
 import com.xstream.clouddesktop.config.MockProperties;
 import com.xstream.clouddesktop.config.ProxmoxProperties;
 import lombok.extern.slf4j.Slf4j;
@@ -34,7 +35,7 @@ public class MockProxmoxClient extends ProxmoxClient {
     private final Random random = new Random();
 
     public MockProxmoxClient(ProxmoxProperties properties, MockProperties mockProperties) {
-        super(null, properties); // No RestTemplate needed for mock
+        super(null, properties, UpstreamGuard.unguarded("proxmox")); // No RestTemplate needed for mock
         this.mockProperties = mockProperties;
         log.info("MockProxmoxClient initialized - Running in DEMO MODE");
     }
@@ -55,6 +56,11 @@ public class MockProxmoxClient extends ProxmoxClient {
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public int countVMs() {
+        return vms.size();
+    }
+
     @Override
     public VmStatus getVmStatus(Integer vmId) {
         log.debug("Mock: Getting status for VM {}", vmId);
@@ -261,11 +267,8 @@ public class MockProxmoxClient extends ProxmoxClient {
             throw new ProxmoxException("Task not found: " + upid);
         }
 
-        // Check if task should be completed by now
-        if (Instant.now().isAfter(mockTask.getCompletionTime()) && "running".equals(mockTask.getStatus())) {
-            mockTask.setStatus("stopped");
-            mockTask.setExitStatus("OK");
-        }
+        // Completion is set by the scheduled completion thread once the task's effect (e.g. the cloned VM)
+        // exists; completing by the clock alone let callers see a finished clone before the VM was there
 
         TaskStatus status = new TaskStatus();
         status.setStatus(mockTask.getStatus());
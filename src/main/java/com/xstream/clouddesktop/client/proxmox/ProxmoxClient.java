@@ -2,7 +2,12 @@ package com.xstream.clouddesktop.client.proxmox;
 
 import com.xstream.clouddesktop.client.proxmox.dto.*;
 import com.xstream.clouddesktop.client.proxmox.exception.*;
+import com.xstream.clouddesktop.client.support.CallType;
+import com.xstream.clouddesktop.client.support.SingleFlight;
+import com.xstream.clouddesktop.client.support.UpstreamGuard;
 import com.xstream.clouddesktop.config.ProxmoxProperties;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Profile;
@@ -12,8 +17,11 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.URI;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
@@ -28,24 +36,44 @@ public class ProxmoxClient {
 
     private final RestTemplate restTemplate;
     private final ProxmoxProperties properties;
+    private final UpstreamGuard guard;
+    private final SingleFlight readCoalescer = new SingleFlight("proxmox");
 
-    public ProxmoxClient(@Qualifier("proxmoxRestTemplate") RestTemplate restTemplate, ProxmoxProperties properties) {
+    public ProxmoxClient(@Qualifier("proxmoxRestTemplate") RestTemplate restTemplate, ProxmoxProperties properties,
+            @Qualifier("proxmoxUpstreamGuard") UpstreamGuard guard) {
         this.restTemplate = restTemplate;
         this.properties = properties;
+        this.guard = guard;
     }
 
     public List<VmInfo> listVMs() {
-        String url = String.format("%s/api2/json/nodes/%s/qemu", properties.getUrl(), properties.getNode());
+        return readCoalescer.execute("qemu", () -> streamVMs(response -> VmListParser.parse(response.getBody(),
+                VmListParser.ALL)));
+    }
+
+    /**
+     * Number of VMs on the node. Skips over every entry without reading its
+     * fields.
+     */
+    public int countVMs() {
+        return readCoalescer.execute("qemu/count", () -> streamVMs(response -> VmListParser.count(
+                response.getBody())));
+    }
+
+    /**
+     * The qemu listing can hold thousands of VMs and templates, so it is
+     * streamed through {@link VmListParser} rather than bound to
+     * {@code ProxmoxResponse<List<VmInfo>>} in one go.
+     */
+    private <T> T streamVMs(ResponseExtractor<T> extractor) {
+        URI uri = URI.create(String.format("%s/api2/json/nodes/%s/qemu", properties.getUrl(), properties.getNode()));
         try {
-            ResponseEntity<ProxmoxResponse<List<VmInfo>>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    new ParameterizedTypeReference<>() {
-                    });
-            return Optional.ofNullable(response.getBody())
-                    .map(ProxmoxResponse::getData)
-                    .orElse(Collections.emptyList());
+            return guard.call("listVMs", CallType.IDEMPOTENT,
+                    () -> restTemplate.execute(
+                            uri,
+                            HttpMethod.GET,
+                            request -> request.getHeaders().setAccept(List.of(MediaType.APPLICATION_JSON)),
+                            extractor));
         } catch (Exception e) {
             log.error("Error listing VMs", e);
             throw new ProxmoxException("Failed to list VMs", e);
@@ -53,15 +81,20 @@ public class ProxmoxClient {
     }
 
     public VmStatus getVmStatus(Integer vmId) {
+        return readCoalescer.execute("status/" + vmId, () -> fetchVmStatus(vmId));
+    }
+
+    private VmStatus fetchVmStatus(Integer vmId) {
         String url = String.format("%s/api2/json/nodes/%s/qemu/%d/status/current", properties.getUrl(),
                 properties.getNode(), vmId);
         try {
-            ResponseEntity<ProxmoxResponse<VmStatus>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    new ParameterizedTypeReference<>() {
-                    });
+            ResponseEntity<ProxmoxResponse<VmStatus>> response = guard.call("getVmStatus", CallType.IDEMPOTENT,
+                    () -> restTemplate.exchange(
+                            url,
+                            HttpMethod.GET,
+                            null,
+                            new ParameterizedTypeReference<>() {
+                            }));
             return Optional.ofNullable(response.getBody())
                     .map(ProxmoxResponse::getData)
                     .orElseThrow(() -> new VmNotFoundException(vmId));
@@ -74,15 +107,20 @@ public class ProxmoxClient {
     }
 
     public VmConfig getVmConfig(Integer vmId) {
+        return readCoalescer.execute("config/" + vmId, () -> fetchVmConfig(vmId));
+    }
+
+    private VmConfig fetchVmConfig(Integer vmId) {
         String url = String.format("%s/api2/json/nodes/%s/qemu/%d/config", properties.getUrl(), properties.getNode(),
                 vmId);
         try {
-            ResponseEntity<ProxmoxResponse<VmConfig>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    new ParameterizedTypeReference<>() {
-                    });
+            ResponseEntity<ProxmoxResponse<VmConfig>> response = guard.call("getVmConfig", CallType.IDEMPOTENT,
+                    () -> restTemplate.exchange(
+                            url,
+                            HttpMethod.GET,
+                            null,
+                            new ParameterizedTypeReference<>() {
+                            }));
             return Optional.ofNullable(response.getBody())
                     .map(ProxmoxResponse::getData)
                     .orElseThrow(() -> new VmNotFoundException(vmId));
@@ -95,14 +133,28 @@ public class ProxmoxClient {
     }
 
     public List<VmNetworkInterface> getVmNetworkInterfaces(Integer vmId) {
+        return readCoalescer.execute("interfaces/" + vmId, () -> fetchVmNetworkInterfaces(vmId));
+    }
+
+    private List<VmNetworkInterface> fetchVmNetworkInterfaces(Integer vmId) {
         String url = String.format("%s/api2/json/nodes/%s/qemu/%d/agent/network-get-interfaces", properties.getUrl(),
                 properties.getNode(), vmId);
         try {
-            ResponseEntity<ProxmoxResponse<Map<String, List<VmNetworkInterface>>>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    new ParameterizedTypeReference<>() {
+            // The agent's 500 is converted inside the guarded call so the circuit breaker,
+            // which ignores GuestAgentNotAvailableException, does not count it as a failure
+            ResponseEntity<ProxmoxResponse<Map<String, List<VmNetworkInterface>>>> response = guard
+                    .call("getVmNetworkInterfaces", CallType.IDEMPOTENT, () -> {
+                        try {
+                            return restTemplate.exchange(
+                                    url,
+                                    HttpMethod.GET,
+                                    null,
+                                    new ParameterizedTypeReference<>() {
+                                    });
+                        } catch (HttpServerErrorException.InternalServerError e) {
+                            // Often means guest agent is not running
+                            throw new GuestAgentNotAvailableException(vmId);
+                        }
                     });
 
             if (response.getBody() != null && response.getBody().getData() != null) {
@@ -110,10 +162,9 @@ public class ProxmoxClient {
             }
             return Collections.emptyList();
 
-        } catch (org.springframework.web.client.HttpServerErrorException.InternalServerError e) {
-            // Often means guest agent is not running
+        } catch (GuestAgentNotAvailableException e) {
             log.warn("Guest agent not available for VM {}", vmId);
-            throw new GuestAgentNotAvailableException(vmId);
+            throw e;
         } catch (Exception e) {
             log.error("Error getting network interfaces for VM {}", vmId, e);
             throw new ProxmoxException("Failed to get VM network interfaces", e);
@@ -135,12 +186,13 @@ public class ProxmoxClient {
         HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(map, headers);
 
         try {
-            ResponseEntity<ProxmoxResponse<String>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.POST,
-                    request,
-                    new ParameterizedTypeReference<>() {
-                    });
+            ResponseEntity<ProxmoxResponse<String>> response = guard.call("cloneVm", CallType.NON_IDEMPOTENT,
+                    () -> restTemplate.exchange(
+                            url,
+                            HttpMethod.POST,
+                            request,
+                            new ParameterizedTypeReference<>() {
+                            }));
             return Optional.ofNullable(response.getBody())
                     .map(ProxmoxResponse::getData)
                     .orElseThrow(() -> new ProxmoxException("Failed to get task UPID from clone response"));
@@ -165,12 +217,13 @@ public class ProxmoxClient {
     public String deleteVm(Integer vmId) {
         String url = String.format("%s/api2/json/nodes/%s/qemu/%d", properties.getUrl(), properties.getNode(), vmId);
         try {
-            ResponseEntity<ProxmoxResponse<String>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.DELETE,
-                    null,
-                    new ParameterizedTypeReference<>() {
-                    });
+            ResponseEntity<ProxmoxResponse<String>> response = guard.call("deleteVm", CallType.NON_IDEMPOTENT,
+                    () -> restTemplate.exchange(
+                            url,
+                            HttpMethod.DELETE,
+                            null,
+                            new ParameterizedTypeReference<>() {
+                            }));
             return Optional.ofNullable(response.getBody())
                     .map(ProxmoxResponse::getData)
                     .orElse(null); // Delete might not return a task ID immediately if synchronous, but usually
@@ -191,12 +244,13 @@ public class ProxmoxClient {
         HttpEntity<String> request = new HttpEntity<>("", headers);
 
         try {
-            ResponseEntity<ProxmoxResponse<String>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.POST,
-                    request,
-                    new ParameterizedTypeReference<>() {
-                    });
+            ResponseEntity<ProxmoxResponse<String>> response = guard.call(action, CallType.NON_IDEMPOTENT,
+                    () -> restTemplate.exchange(
+                            url,
+                            HttpMethod.POST,
+                            request,
+                            new ParameterizedTypeReference<>() {
+                            }));
             return Optional.ofNullable(response.getBody())
                     .map(ProxmoxResponse::getData)
                     .orElse(null);
@@ -207,15 +261,20 @@ public class ProxmoxClient {
     }
 
     public TaskStatus getTaskStatus(String upid) {
+        return readCoalescer.execute("task/" + upid, () -> fetchTaskStatus(upid));
+    }
+
+    private TaskStatus fetchTaskStatus(String upid) {
         String url = String.format("%s/api2/json/nodes/%s/tasks/%s/status", properties.getUrl(), properties.getNode(),
                 upid);
         try {
-            ResponseEntity<ProxmoxResponse<TaskStatus>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    new ParameterizedTypeReference<>() {
-                    });
+            ResponseEntity<ProxmoxResponse<TaskStatus>> response = guard.call("getTaskStatus", CallType.TASK_POLL,
+                    () -> restTemplate.exchange(
+                            url,
+                            HttpMethod.GET,
+                            null,
+                            new ParameterizedTypeReference<>() {
+                            }));
             return Optional.ofNullable(response.getBody())
                     .map(ProxmoxResponse::getData)
                     .orElseThrow(() -> new ProxmoxException("Failed to get task status"));
@@ -225,18 +284,34 @@ public class ProxmoxClient {
         }
     }
 
+    /**
+     * Polls the task until it stops. A single poll turned away by the
+     * bulkhead or the open circuit breaker is skipped rather than failing
+     * the task; two in a row are not.
+     */
     public TaskStatus waitForTask(String upid, Duration timeout) {
         long startTime = System.currentTimeMillis();
         long timeoutMillis = timeout.toMillis();
+        boolean lastPollRejected = false;
 
         while (System.currentTimeMillis() - startTime < timeoutMillis) {
-            TaskStatus status = getTaskStatus(upid);
-            if ("stopped".equals(status.getStatus())) {
-                if ("OK".equals(status.getExitstatus())) {
-                    return status;
-                } else {
-                    throw new ProxmoxException("Task failed with exit status: " + status.getExitstatus());
+            try {
+                TaskStatus status = getTaskStatus(upid);
+                lastPollRejected = false;
+                if ("stopped".equals(status.getStatus())) {
+                    if ("OK".equals(status.getExitstatus())) {
+                        return status;
+                    } else {
+                        throw new ProxmoxException("Task failed with exit status: " + status.getExitstatus());
+                    }
                 }
+            } catch (ProxmoxException e) {
+                if (lastPollRejected || !isRejectedLocally(e)) {
+                    throw e;
+                }
+                log.warn("Status poll for task {} was not sent ({}), polling again", upid,
+                        e.getCause().getMessage());
+                lastPollRejected = true;
             }
             try {
                 Thread.sleep(2000); // Poll every 2 seconds
@@ -248,16 +323,25 @@ public class ProxmoxClient {
         throw new ProxmoxTaskTimeoutException("Timed out waiting for task " + upid);
     }
 
+    /**
+     * Whether the call was turned away by the bulkhead or circuit breaker
+     * without reaching Proxmox.
+     */
+    private static boolean isRejectedLocally(ProxmoxException e) {
+        return e.getCause() instanceof BulkheadFullException || e.getCause() instanceof CallNotPermittedException;
+    }
+
     public Integer getNextAvailableVmId() {
         String url = String.format("%s/api2/json/cluster/nextid", properties.getUrl());
         log.debug("Requesting next available VM ID from: {}", url);
         try {
-            ResponseEntity<ProxmoxResponse<String>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    new ParameterizedTypeReference<>() {
-                    });
+            ResponseEntity<ProxmoxResponse<String>> response = guard.call("nextId", CallType.IDEMPOTENT,
+                    () -> restTemplate.exchange(
+                            url,
+                            HttpMethod.GET,
+                            null,
+                            new ParameterizedTypeReference<>() {
+                            }));
             return Optional.ofNullable(response.getBody())
                     .map(ProxmoxResponse::getData)
                     .map(Integer::parseInt)
@@ -310,10 +394,22 @@ public class ProxmoxClient {
         throw new ProxmoxTaskTimeoutException("Timed out waiting for IP address for VM " + vmId);
     }
 
+    /**
+     * Coalescer shared by the idempotent GET endpoints. Mutating calls and
+     * {@link #getNextAvailableVmId()} are never coalesced.
+     */
+    public SingleFlight getReadCoalescer() {
+        return readCoalescer;
+    }
+
+    public UpstreamGuard getGuard() {
+        return guard;
+    }
+
     public void checkProxmoxHealth() {
         try {
             // A simple call to check connectivity and authentication
-            listVMs();
+            countVMs();
         } catch (ProxmoxException e) {
             throw new ProxmoxException("Proxmox health check failed", e);
         }
@@ -5,7 +5,9 @@ import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
 import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactoryBuilder;
+import org.apache.hc.core5.http.io.SocketConfig;
 import org.apache.hc.core5.ssl.SSLContextBuilder;
+import org.apache.hc.core5.util.Timeout;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
@@ -43,6 +45,11 @@ public class ProxmoxClientConfig {
                                                                 .setSslContext(sslContext)
                                                                 .setHostnameVerifier((hostname, session) -> true)
                                                                 .build())
+                                                // Without a read timeout a hung pveproxy pins the calling
+                                                // thread forever
+                                                .setDefaultSocketConfig(SocketConfig.custom()
+                                                                .setSoTimeout(Timeout.ofSeconds(30))
+                                                                .build())
                                                 .build())
                                 .build();
 
@@ -0,0 +1,192 @@
+package com.xstream.clouddesktop.client.proxmox;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.xstream.clouddesktop.client.proxmox.dto.VmInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Streaming parser for the {@code /nodes/{node}/qemu} listing.
+ *
+ * Reads the response token by token instead of binding the whole document, so
+ * only the fields {@link VmInfo} declares are ever materialized. Other fields
+ * and nested values are skipped without being parsed into objects.
+ *
+ * A name filter is applied as soon as an entry's name is read. Until then the
+ * entry's numbers are held in a scratch buffer reused across entries, and once
+ * the filter rejects it the rest of the entry is skipped, so a rejected entry
+ * allocates little beyond its name.
+ */
+public class VmListParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Accepts every entry. Nameless VMs are kept.
+     */
+    public static final Predicate<String> ALL = name -> true;
+
+    private VmListParser() {
+    }
+
+    public static List<VmInfo> parse(InputStream body, Predicate<String> nameFilter) throws IOException {
+        List<VmInfo> vms = new ArrayList<>();
+        try (JsonParser parser = openData(body)) {
+            if (parser == null) {
+                return vms;
+            }
+            Entry entry = new Entry();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                VmInfo vm = readVm(parser, nameFilter, entry);
+                if (vm != null) {
+                    vms.add(vm);
+                }
+            }
+            skipRest(parser);
+        }
+        return vms;
+    }
+
+    /**
+     * Counts the entries in the listing without reading any of their fields.
+     */
+    public static int count(InputStream body) throws IOException {
+        int total = 0;
+        try (JsonParser parser = openData(body)) {
+            if (parser == null) {
+                return 0;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                total++;
+                parser.skipChildren();
+            }
+            skipRest(parser);
+        }
+        return total;
+    }
+
+    /**
+     * @return a parser positioned on the START_ARRAY of the data field, or
+     *         null (with the parser closed) if the listing has none
+     */
+    private static JsonParser openData(InputStream body) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(body);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object from Proxmox, got " + parser.currentToken());
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("data".equals(field) && value == JsonToken.START_ARRAY) {
+                    return parser;
+                }
+                parser.skipChildren();
+            }
+            parser.close();
+            return null;
+        } catch (IOException | RuntimeException e) {
+            parser.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Walks the fields after the data array, so a truncated or malformed
+     * response still fails.
+     */
+    private static void skipRest(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+
+    /**
+     * Reads one VM object, leaving the parser on its END_OBJECT.
+     *
+     * @return the VM, or null if the filter rejected it
+     */
+    private static VmInfo readVm(JsonParser parser, Predicate<String> nameFilter, Entry entry) throws IOException {
+        entry.reset();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            // getValueAs* accept numbers sent as strings, as some PVE versions do
+            switch (field) {
+                case "vmid" -> entry.vmid = parser.getValueAsLong();
+                case "name" -> {
+                    entry.name = parser.getValueAsString();
+                    if (!nameFilter.test(entry.name)) {
+                        skipRest(parser);
+                        return null;
+                    }
+                    entry.named = true;
+                }
+                case "status" -> entry.status = parser.getValueAsString();
+                case "cpus" -> entry.cpus = parser.getValueAsLong();
+                case "maxmem" -> entry.maxmem = parser.getValueAsLong();
+                case "maxdisk" -> entry.maxdisk = parser.getValueAsLong();
+                case "uptime" -> entry.uptime = parser.getValueAsLong();
+                case "netin" -> entry.netin = parser.getValueAsLong();
+                case "netout" -> entry.netout = parser.getValueAsLong();
+                default -> parser.skipChildren();
+            }
+        }
+        if (!entry.named && !nameFilter.test(null)) {
+            return null;
+        }
+        return entry.toVmInfo();
+    }
+
+    /**
+     * The fields of the entry being read, as primitives so nothing is boxed
+     * before the entry is accepted.
+     */
+    private static final class Entry {
+
+        private static final long ABSENT = Long.MIN_VALUE;
+
+        private long vmid;
+        private long cpus;
+        private long maxmem;
+        private long maxdisk;
+        private long uptime;
+        private long netin;
+        private long netout;
+        private String name;
+        private String status;
+        private boolean named;
+
+        void reset() {
+            vmid = cpus = maxmem = maxdisk = uptime = netin = netout = ABSENT;
+            name = null;
+            status = null;
+            named = false;
+        }
+
+        VmInfo toVmInfo() {
+            VmInfo vm = new VmInfo();
+            vm.setVmid(vmid == ABSENT ? null : (int) vmid);
+            vm.setName(name);
+            vm.setStatus(status);
+            vm.setCpus(cpus == ABSENT ? null : (int) cpus);
+            vm.setMaxmem(boxed(maxmem));
+            vm.setMaxdisk(boxed(maxdisk));
+            vm.setUptime(boxed(uptime));
+            vm.setNetin(boxed(netin));
+            vm.setNetout(boxed(netout));
+            return vm;
+        }
+
+        private static Long boxed(long value) {
+            return value == ABSENT ? null : value;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.xstream.clouddesktop.client.support;
+
+/**
+ * How safe an upstream call is to repeat. Every guarded call declares one so
+ * the retry policy never replays a request that could have side effects twice.
+ */
+public enum CallType {
+    IDEMPOTENT, // GETs and requests whose repetition is harmless (token mint, delete of a connection)
+    TASK_POLL, // Polling a Proxmox task; a lost poll would otherwise abort a whole provision
+    NON_IDEMPOTENT // Clone, start/stop, create: only retried if the request never left this host
+}
@@ -0,0 +1,77 @@
+package com.xstream.clouddesktop.client.support;
+
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Capped exponential backoff with full jitter, bounded by an overall deadline.
+ */
+@Getter
+@Builder
+public class RetryPolicy {
+
+    @Builder.Default
+    private final int maxAttempts = 3;
+
+    @Builder.Default
+    private final Duration initialBackoff = Duration.ofMillis(200);
+
+    @Builder.Default
+    private final Duration maxBackoff = Duration.ofSeconds(2);
+
+    /**
+     * Total time budget across all attempts and backoffs. A retry whose backoff
+     * would overrun it is not attempted.
+     */
+    @Builder.Default
+    private final Duration deadline = Duration.ofSeconds(10);
+
+    public static RetryPolicy noRetry() {
+        return RetryPolicy.builder().maxAttempts(1).build();
+    }
+
+    /**
+     * Delay before the given retry (1 = first retry): a uniformly random value
+     * between zero and the capped exponential step, so that callers failing
+     * together do not retry together.
+     */
+    public long backoffMillis(int retry) {
+        long step = initialBackoff.toMillis() << Math.min(retry - 1, 20);
+        long cap = Math.min(step, maxBackoff.toMillis());
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    public boolean isRetryable(CallType callType, Throwable error) {
+        if (callType == CallType.NON_IDEMPOTENT) {
+            // The request may already have been applied unless we never connected
+            return hasCause(error, ConnectException.class);
+        }
+        if (error instanceof ResourceAccessException) {
+            return true;
+        }
+        if (error instanceof HttpServerErrorException serverError) {
+            // Not 500: Proxmox answers 500 when the guest agent is down, which is not transient
+            HttpStatus status = HttpStatus.resolve(serverError.getStatusCode().value());
+            return status == HttpStatus.BAD_GATEWAY
+                    || status == HttpStatus.SERVICE_UNAVAILABLE
+                    || status == HttpStatus.GATEWAY_TIMEOUT;
+        }
+        return false;
+    }
+
+    private static boolean hasCause(Throwable error, Class<? extends Throwable> type) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (type.isInstance(t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,89 @@
+package com.xstream.clouddesktop.client.support;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical upstream reads.
+ *
+ * The first caller for a key performs the call; callers arriving while it is in
+ * flight wait for and share its result (or exception). Nothing is cached once
+ * the call completes, so only use this for idempotent reads whose results are
+ * treated as read-only by callers.
+ */
+public class SingleFlight {
+
+    private final String name;
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executedCalls = new AtomicLong();
+    private final AtomicLong collapsedCalls = new AtomicLong();
+
+    public SingleFlight(String name) {
+        this.name = name;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> call) {
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            collapsedCalls.incrementAndGet();
+            return (T) await(existing);
+        }
+
+        executedCalls.incrementAndGet();
+        try {
+            T result = call.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private Object await(CompletableFuture<Object> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            // Rethrow the leader's exception so followers see exactly what it saw
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Number of calls that actually reached the upstream.
+     */
+    public long getExecutedCalls() {
+        return executedCalls.get();
+    }
+
+    /**
+     * Number of calls that were served by joining another caller's in-flight
+     * request.
+     */
+    public long getCollapsedCalls() {
+        return collapsedCalls.get();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,124 @@
+package com.xstream.clouddesktop.client.support;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Guards every HTTP call to one upstream with retries, a circuit breaker and a
+ * bulkhead.
+ *
+ * The bulkhead caps how many request threads can be parked on the upstream at
+ * once; the circuit breaker fails calls fast while the upstream is erroring or
+ * slow. Both are configured under resilience4j.* in application.yml and are
+ * visible through the circuitbreakers/bulkheads actuator endpoints. Retries
+ * wrap both, so each attempt is admitted (or rejected) by the breaker
+ * individually and an open circuit is never retried.
+ */
+@Slf4j
+public class UpstreamGuard {
+
+    private final String name;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+    private final Map<CallType, RetryPolicy> retryPolicies;
+    private final MeterRegistry meterRegistry;
+
+    public UpstreamGuard(String name, CircuitBreaker circuitBreaker, Bulkhead bulkhead,
+            Map<CallType, RetryPolicy> retryPolicies, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.retryPolicies = retryPolicies;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * A guard that lets every call straight through, exactly once. Used by the
+     * mock clients and unit tests.
+     */
+    public static UpstreamGuard unguarded(String name) {
+        return new UpstreamGuard(name, null, null, Collections.emptyMap(), null);
+    }
+
+    /**
+     * @param endpoint short, low-cardinality name of the upstream operation,
+     *                 used as the metrics tag
+     */
+    public <T> T call(String endpoint, CallType callType, Supplier<T> call) {
+        Supplier<T> guarded = call;
+        if (bulkhead != null) {
+            guarded = Bulkhead.decorateSupplier(bulkhead, guarded);
+        }
+        if (circuitBreaker != null) {
+            guarded = CircuitBreaker.decorateSupplier(circuitBreaker, guarded);
+        }
+
+        RetryPolicy policy = retryPolicies.getOrDefault(callType, RetryPolicy.noRetry());
+        long deadline = System.nanoTime() + policy.getDeadline().toNanos();
+        int attempt = 1;
+        while (true) {
+            try {
+                return guarded.get();
+            } catch (RuntimeException e) {
+                if (attempt >= policy.getMaxAttempts() || !policy.isRetryable(callType, e)) {
+                    if (attempt > 1) {
+                        countRetry("upstream.retry.exhausted", endpoint);
+                    }
+                    throw e;
+                }
+                long backoffMillis = policy.backoffMillis(attempt);
+                if (System.nanoTime() + backoffMillis * 1_000_000 > deadline) {
+                    countRetry("upstream.retry.exhausted", endpoint);
+                    throw e;
+                }
+
+                log.warn("{} {} failed (attempt {}/{}), retrying in {}ms: {}", name, endpoint, attempt,
+                        policy.getMaxAttempts(), backoffMillis, e.getMessage());
+                countRetry("upstream.retry.attempts", endpoint);
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                attempt++;
+            }
+        }
+    }
+
+    public void run(String endpoint, CallType callType, Runnable call) {
+        call(endpoint, callType, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    private void countRetry(String metric, String endpoint) {
+        if (meterRegistry != null) {
+            meterRegistry.counter(metric, "upstream", name, "endpoint", endpoint).increment();
+        }
+    }
+
+    /**
+     * Whether calls are currently being rejected without reaching the upstream.
+     */
+    public boolean isOpen() {
+        return circuitBreaker != null
+                && (circuitBreaker.getState() == CircuitBreaker.State.OPEN
+                        || circuitBreaker.getState() == CircuitBreaker.State.FORCED_OPEN);
+    }
+
+    public String getState() {
+        return circuitBreaker != null ? circuitBreaker.getState().name() : "DISABLED";
+    }
+
+    public String getName() {
+        return name;
+    }
+}
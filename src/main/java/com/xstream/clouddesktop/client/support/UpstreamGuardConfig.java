@@ -0,0 +1,63 @@
+package com.xstream.clouddesktop.client.support;
+
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * One guard per upstream so a slow Proxmox cannot drain the capacity reserved
+ * for Guacamole (and vice versa).
+ */
+@Configuration
+public class UpstreamGuardConfig {
+
+    @Bean(name = "proxmoxUpstreamGuard")
+    public UpstreamGuard proxmoxUpstreamGuard(CircuitBreakerRegistry circuitBreakerRegistry,
+            BulkheadRegistry bulkheadRegistry, MeterRegistry meterRegistry) {
+        return new UpstreamGuard("proxmox",
+                circuitBreakerRegistry.circuitBreaker("proxmox"),
+                bulkheadRegistry.bulkhead("proxmox"),
+                retryPolicies(),
+                meterRegistry);
+    }
+
+    @Bean(name = "guacamoleUpstreamGuard")
+    public UpstreamGuard guacamoleUpstreamGuard(CircuitBreakerRegistry circuitBreakerRegistry,
+            BulkheadRegistry bulkheadRegistry, MeterRegistry meterRegistry) {
+        return new UpstreamGuard("guacamole",
+                circuitBreakerRegistry.circuitBreaker("guacamole"),
+                bulkheadRegistry.bulkhead("guacamole"),
+                retryPolicies(),
+                meterRegistry);
+    }
+
+    private static Map<CallType, RetryPolicy> retryPolicies() {
+        Map<CallType, RetryPolicy> policies = new EnumMap<>(CallType.class);
+        policies.put(CallType.IDEMPOTENT, RetryPolicy.builder()
+                .maxAttempts(3)
+                .initialBackoff(Duration.ofMillis(200))
+                .maxBackoff(Duration.ofSeconds(2))
+                .deadline(Duration.ofSeconds(10))
+                .build());
+        // A failed poll fails the whole provision, so task polls get a longer budget
+        policies.put(CallType.TASK_POLL, RetryPolicy.builder()
+                .maxAttempts(5)
+                .initialBackoff(Duration.ofMillis(500))
+                .maxBackoff(Duration.ofSeconds(5))
+                .deadline(Duration.ofSeconds(30))
+                .build());
+        policies.put(CallType.NON_IDEMPOTENT, RetryPolicy.builder()
+                .maxAttempts(2)
+                .initialBackoff(Duration.ofMillis(500))
+                .maxBackoff(Duration.ofSeconds(1))
+                .deadline(Duration.ofSeconds(5))
+                .build());
+        return policies;
+    }
+}
@@ -0,0 +1,43 @@
+package com.xstream.clouddesktop.client.support;
+
+import com.xstream.clouddesktop.client.guacamole.GuacamoleClient;
+import com.xstream.clouddesktop.client.proxmox.ProxmoxClient;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes upstream client counters (exposed via /actuator/metrics).
+ */
+@Component
+@RequiredArgsConstructor
+public class UpstreamMetrics implements MeterBinder {
+
+    private final ProxmoxClient proxmoxClient;
+    private final GuacamoleClient guacamoleClient;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindSingleFlight(registry, proxmoxClient.getReadCoalescer());
+        bindSingleFlight(registry, guacamoleClient.getReadCoalescer());
+    }
+
+    private void bindSingleFlight(MeterRegistry registry, SingleFlight singleFlight) {
+        FunctionCounter.builder("upstream.singleflight.calls", singleFlight, SingleFlight::getExecutedCalls)
+                .description("Reads that reached the upstream")
+                .tag("upstream", singleFlight.getName())
+                .tag("outcome", "executed")
+                .register(registry);
+        FunctionCounter.builder("upstream.singleflight.calls", singleFlight, SingleFlight::getCollapsedCalls)
+                .description("Reads served by joining an identical in-flight request")
+                .tag("upstream", singleFlight.getName())
+                .tag("outcome", "collapsed")
+                .register(registry);
+        Gauge.builder("upstream.singleflight.inflight", singleFlight, SingleFlight::getInFlightCount)
+                .tag("upstream", singleFlight.getName())
+                .register(registry);
+    }
+}
@@ -0,0 +1,234 @@
+package com.xstream.clouddesktop.config;
+
+import com.xstream.clouddesktop.model.DesktopPlan;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Configuration properties for desktop lifecycle management.
+ *
+ * These properties are loaded from application.yml under the 'desktop'
+ * prefix.
+ */
+@Data
+@ConfigurationProperties(prefix = "desktop")
+public class DesktopProperties {
+
+    /**
+     * Sweeping of desktops stuck in a transitional status
+     */
+    private Reconciler reconciler = new Reconciler();
+
+    /**
+     * Buffered writing of the desktop_events log
+     */
+    private Events events = new Events();
+
+    /**
+     * Moving of finished desktops to desktops_archive
+     */
+    private Archiver archiver = new Archiver();
+
+    /**
+     * In-memory cache of desktop reads
+     */
+    private Cache cache = new Cache();
+
+    /**
+     * Coordination of instances sharing the database
+     */
+    private Leases leases = new Leases();
+
+    /**
+     * Server-Sent Events streams of desktop status changes
+     */
+    private Streams streams = new Streams();
+
+    /**
+     * Status requests that wait for a desktop to reach a status
+     */
+    private Waits waits = new Waits();
+
+    /**
+     * Token-bucket limits on the lifecycle endpoints
+     */
+    private RateLimits rateLimits = new RateLimits();
+
+    @Data
+    public static class Reconciler {
+        /**
+         * Delay between sweeps. Read by @Scheduled, so use ISO-8601 (e.g.
+         * PT1M) in configuration.
+         */
+        private Duration interval = Duration.ofMinutes(1);
+
+        /**
+         * How long a desktop may sit in a transitional status (PROVISIONING,
+         * STOPPING, ...) before it is marked FAILED. Must exceed the longest
+         * single provisioning step.
+         */
+        private Duration stuckAfter = Duration.ofMinutes(15);
+    }
+
+    @Data
+    public static class Archiver {
+        /**
+         * Delay between runs. Read by @Scheduled, so use ISO-8601 (e.g.
+         * PT1H) in configuration.
+         */
+        private Duration interval = Duration.ofHours(1);
+
+        /**
+         * How long a DELETED desktop stays in the desktops table
+         */
+        private Duration deletedAfter = Duration.ofDays(1);
+
+        /**
+         * How long a FAILED desktop without a VM stays in the desktops table;
+         * it can be deleted by its user until then. FAILED desktops that
+         * still hold a VM are never archived
+         */
+        private Duration failedAfter = Duration.ofDays(7);
+
+        /**
+         * Desktops moved per transaction
+         */
+        private int batchSize = 500;
+    }
+
+    @Data
+    public static class Cache {
+        /**
+         * Desktops held per key (id, user); the least recently used go first
+         */
+        private long maximumSize = 10_000;
+
+        /**
+         * How long a cached desktop is served. Status changes evict it
+         * immediately; this bounds staleness of the columns written in bulk,
+         * such as session activity.
+         */
+        private Duration ttl = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Leases {
+        /**
+         * Name this instance holds leases under; defaults to the host name
+         * plus a random suffix. Must differ between instances.
+         */
+        private String instanceId;
+
+        /**
+         * How long a lease outlives its holder's last heartbeat
+         */
+        private Duration ttl = Duration.ofSeconds(30);
+
+        /**
+         * How often held leases are renewed; well below the TTL. Read by
+         * @Scheduled, so use ISO-8601 (e.g. PT10S) in configuration.
+         */
+        private Duration heartbeatInterval = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class Streams {
+        /**
+         * How often an idle stream gets a heartbeat comment; below the idle
+         * timeout of any proxy in front of the service
+         */
+        private Duration heartbeatInterval = Duration.ofSeconds(15);
+
+        /**
+         * How long a stream stays open; clients reconnect after it
+         */
+        private Duration timeout = Duration.ofMinutes(30);
+    }
+
+    @Data
+    public static class Waits {
+        /**
+         * How long a request waits when it names no timeout
+         */
+        private Duration defaultTimeout = Duration.ofSeconds(30);
+
+        /**
+         * Longest timeout a request may ask for
+         */
+        private Duration maxTimeout = Duration.ofMinutes(2);
+    }
+
+    @Data
+    public static class RateLimits {
+        /**
+         * Whether lifecycle requests are limited at all
+         */
+        private boolean enabled = true;
+
+        /**
+         * Limit of each user, by the plan of the desktop the request is
+         * about. Plans without an entry are not limited.
+         */
+        private Map<DesktopPlan, Limit> plans = new EnumMap<>(Map.of(
+                DesktopPlan.BASIC, new Limit(10, Duration.ofSeconds(6)),
+                DesktopPlan.STANDARD, new Limit(20, Duration.ofSeconds(3)),
+                DesktopPlan.PREMIUM, new Limit(40, Duration.ofMillis(1500))));
+
+        /**
+         * Limit shared by all users of a tenant (X-Tenant-ID header);
+         * unset to not limit tenants
+         */
+        private Limit tenant = new Limit(200, Duration.ofMillis(300));
+
+        /**
+         * How long an unused bucket is kept; it would be full again by then
+         * if this exceeds capacity times the refill interval
+         */
+        private Duration idleAfter = Duration.ofMinutes(10);
+
+        /**
+         * Users and tenants tracked at once; the least recently used go first
+         */
+        private long maximumBuckets = 100_000;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Limit {
+        /**
+         * Requests allowed in a burst
+         */
+        private int capacity;
+
+        /**
+         * How often one more request is allowed, up to the capacity
+         */
+        private Duration refillInterval;
+    }
+
+    @Data
+    public static class Events {
+        /**
+         * Events held in memory while waiting to be written; further events
+         * are dropped
+         */
+        private int bufferCapacity = 10_000;
+
+        /**
+         * Events per JDBC batch; a full batch is written immediately
+         */
+        private int batchSize = 500;
+
+        /**
+         * How often buffered events are written
+         */
+        private Duration flushInterval = Duration.ofSeconds(1);
+    }
+}
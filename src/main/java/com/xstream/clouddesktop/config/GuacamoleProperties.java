@@ -5,6 +5,8 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.validation.annotation.Validated;
 
+import java.time.Duration;
+
 /**
  * Configuration properties for Apache Guacamole integration.
  * 
@@ -45,4 +47,80 @@ public class GuacamoleProperties {
      */
     private String defaultProtocol = "SPICE";
 
+    /**
+     * How desktops are exposed through Guacamole: API (a stored connection per
+     * user, managed through the REST API) or ENCRYPTED_JSON (no stored
+     * connection; every connect URL carries a signed, encrypted, short-lived
+     * connection descriptor for the guacamole-auth-json extension)
+     */
+    private ConnectionMode connectionMode = ConnectionMode.API;
+
+    /**
+     * Shared secret of the guacamole-auth-json extension (32 hex digits).
+     * Required for ENCRYPTED_JSON mode.
+     */
+    private String jsonSecretKey;
+
+    /**
+     * Validity of an encrypted-JSON connect URL
+     */
+    private Duration jsonTokenTtl = Duration.ofMinutes(5);
+
+    /**
+     * Batching of connection creations into PATCH requests
+     */
+    private Batch batch = new Batch();
+
+    /**
+     * Local mirror of the connection list
+     */
+    private Mirror mirror = new Mirror();
+
+    /**
+     * Polling of session activity (active connections and history)
+     */
+    private Activity activity = new Activity();
+
+    public enum ConnectionMode {
+        API,
+        ENCRYPTED_JSON
+    }
+
+    @Data
+    public static class Batch {
+        /**
+         * Operations per PATCH; a full batch is sent immediately
+         */
+        private int maxSize = 50;
+
+        /**
+         * How long a partial batch waits for more operations before it is sent
+         */
+        private Duration flushInterval = Duration.ofMillis(250);
+    }
+
+    @Data
+    public static class Mirror {
+        /**
+         * Delay between reconciliations with Guacamole. Read by @Scheduled, so
+         * use ISO-8601 (e.g. PT30S) in configuration.
+         */
+        private Duration refreshInterval = Duration.ofSeconds(30);
+
+        /**
+         * How often a refresh reloads the parameters of all connections,
+         * picking up hostnames changed outside this service. Costs one
+         * request per connection.
+         */
+        private Duration fullResyncInterval = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class Activity {
+        /**
+         * Delay between activity polls. Read by @Scheduled, so use ISO-8601
+         * (e.g. PT1M) in configuration.
+         */
+        private Duration pollInterval = Duration.ofMinutes(1);
+    }
 }
@@ -0,0 +1,16 @@
+package com.xstream.clouddesktop.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables {@code @Scheduled} background jobs (mirror refreshes, sweepers).
+ * scheduling.enabled=false turns them all off, e.g. for benchmarks that
+ * must not see the jobs move or sweep their seeded rows.
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "scheduling.enabled", matchIfMissing = true)
+public class SchedulingConfig {
+}
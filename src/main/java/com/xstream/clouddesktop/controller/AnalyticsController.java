@@ -0,0 +1,49 @@
+package com.xstream.clouddesktop.controller;
+
+import com.xstream.clouddesktop.dto.response.ApiResponse;
+import com.xstream.clouddesktop.dto.response.StageLatencyResponse;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.repository.DesktopEventRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Lifecycle analytics over the desktop_events log.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/v1/analytics")
+@RequiredArgsConstructor
+public class AnalyticsController {
+
+    private final DesktopEventRepository eventRepository;
+
+    /**
+     * How long desktops spent in each lifecycle stage, per plan.
+     *
+     * @param window how far back to look, as an ISO-8601 duration
+     * @param plan   restrict to one plan
+     * @param stage  restrict to one stage (the status that was left)
+     */
+    @GetMapping("/stage-latencies")
+    public ApiResponse<List<StageLatencyResponse>> getStageLatencies(
+            @RequestParam(defaultValue = "P7D") Duration window,
+            @RequestParam(required = false) DesktopPlan plan,
+            @RequestParam(required = false) DesktopStatus stage) {
+        log.info("Received request for stage latencies over {} (plan: {}, stage: {})", window, plan, stage);
+        List<StageLatencyResponse> latencies = eventRepository
+                .findStageLatencies(Instant.now().minus(window), plan, stage).stream()
+                .map(StageLatencyResponse::from)
+                .toList();
+        return ApiResponse.success(latencies);
+    }
+}
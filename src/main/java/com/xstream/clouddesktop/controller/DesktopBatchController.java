@@ -0,0 +1,44 @@
+package com.xstream.clouddesktop.controller;
+
+import com.xstream.clouddesktop.dto.request.BatchGetDesktopsRequest;
+import com.xstream.clouddesktop.dto.response.ApiResponse;
+import com.xstream.clouddesktop.dto.response.BatchGetDesktopsResponse;
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.service.DesktopService;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Custom methods on the desktop collection, named {@code desktops:<method>}.
+ * They live here because {@link DesktopController}'s base path would put a
+ * slash before the colon.
+ */
+@RestController
+@RequestMapping("/api/v1")
+@RequiredArgsConstructor
+@Slf4j
+public class DesktopBatchController {
+
+    private final DesktopService desktopService;
+
+    /**
+     * Reads many desktops in one call. Ids that do not exist come back as
+     * entries with error DESKTOP_NOT_FOUND instead of failing the call.
+     */
+    @PostMapping("/desktops:batchGet")
+    public ApiResponse<BatchGetDesktopsResponse> batchGetDesktops(@Valid @RequestBody BatchGetDesktopsRequest request) {
+        log.info("Received request to get {} desktops", request.getIds().size());
+        Set<Long> ids = new LinkedHashSet<>(request.getIds());
+        Map<Long, Desktop> desktops = desktopService.getDesktops(ids);
+        return ApiResponse.success(BatchGetDesktopsResponse.of(ids, desktops));
+    }
+}
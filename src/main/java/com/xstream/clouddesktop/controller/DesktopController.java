@@ -1,22 +1,55 @@
 package com.xstream.clouddesktop.controller;
 
+import com.xstream.clouddesktop.config.DesktopProperties;
 import com.xstream.clouddesktop.dto.request.CreateDesktopRequest;
 import com.xstream.clouddesktop.dto.request.StartDesktopRequest;
 import com.xstream.clouddesktop.dto.request.StopDesktopRequest;
 import com.xstream.clouddesktop.dto.response.*;
 import com.xstream.clouddesktop.model.Desktop;
 import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopRevision;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.model.DesktopStatusView;
+import com.xstream.clouddesktop.repository.DesktopFilter;
+import com.xstream.clouddesktop.service.DesktopPage;
+import com.xstream.clouddesktop.service.DesktopRateLimiter;
 import com.xstream.clouddesktop.service.DesktopService;
+import com.xstream.clouddesktop.service.exception.InvalidParameterException;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
+/**
+ * Desktop lifecycle API.
+ *
+ * Reads carry an ETag with Cache-Control: no-cache, so pollers can
+ * revalidate with If-None-Match and get 304 without a body when nothing
+ * changed.
+ *
+ * Create, start, stop and delete are rate limited per user and, given an
+ * X-Tenant-ID header, per tenant; over the limit they get 429 with
+ * Retry-After.
+ */
 @RestController
 @RequestMapping("/api/v1/desktops")
 @RequiredArgsConstructor
@@ -24,13 +57,21 @@ import java.util.Optional;
 @Slf4j
 public class DesktopController {
 
+    static final String TENANT_HEADER = "X-Tenant-ID";
+
     private final DesktopService desktopService;
+    private final DesktopStatusStreams statusStreams;
+    private final DesktopStatusWaits statusWaits;
+    private final DesktopProperties desktopProperties;
+    private final DesktopRateLimiter rateLimiter;
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
-    public ApiResponse<DesktopResponse> createDesktop(@Valid @RequestBody CreateDesktopRequest request) {
+    public ApiResponse<DesktopResponse> createDesktop(@Valid @RequestBody CreateDesktopRequest request,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenantId) {
         log.info("Received request to create desktop for user: {}", request.getUserId());
         DesktopPlan plan = Optional.ofNullable(request.getPlan()).map(DesktopPlan::valueOf).orElse(DesktopPlan.BASIC);
+        rateLimiter.acquire(request.getUserId(), plan, tenantId);
         String name = Optional.ofNullable(request.getName()).orElse("Desktop-" + request.getUserId());
 
         Desktop desktop = desktopService.createDesktop(request.getUserId(), name, plan);
@@ -38,20 +79,54 @@ public class DesktopController {
         return ApiResponse.success(DesktopResponse.fromEntity(desktop), "Desktop creation initiated successfully.");
     }
 
+    /**
+     * Lists desktops page by page in creation order, newest first by default.
+     * Follow nextCursor of each page to get the next one.
+     *
+     * @param status comma-separated statuses, any of which matches
+     */
     @GetMapping
-    public ApiResponse<DesktopListResponse> listDesktops(
+    public ResponseEntity<ApiResponse<DesktopListResponse>> listDesktops(
             @RequestParam(required = false) String userId,
-            @RequestParam(required = false) String status) {
-        log.info("Received request to list desktops with filter userId: {} and status: {}", userId, status);
-        List<Desktop> desktops = desktopService.findDesktops(userId, status);
-        return ApiResponse.success(DesktopListResponse.fromEntities(desktops));
+            @RequestParam(required = false) List<String> status,
+            @RequestParam(required = false) String plan,
+            @RequestParam(required = false) String node,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") @Min(1) @Max(500) int limit,
+            @RequestParam(defaultValue = "desc") String order) {
+        log.info("Received request to list desktops with filter userId: {}, status: {}, plan: {}, node: {}", userId,
+                status, plan, node);
+        Set<DesktopStatus> statuses = EnumSet.noneOf(DesktopStatus.class);
+        if (status != null) {
+            status.forEach(value -> statuses.add(parse(DesktopStatus.class, "status", value)));
+        }
+        DesktopFilter filter = new DesktopFilter(statuses,
+                plan != null ? parse(DesktopPlan.class, "plan", plan) : null, node, userId);
+        if (!"asc".equalsIgnoreCase(order) && !"desc".equalsIgnoreCase(order)) {
+            throw new InvalidParameterException("order", order);
+        }
+        DesktopPage page = desktopService.findDesktops(filter, cursor, "asc".equalsIgnoreCase(order), limit);
+        return withETag(etag(page), ApiResponse.success(DesktopListResponse.fromPage(page)));
     }
 
+    /**
+     * A matching If-None-Match is answered from the desktop's revision
+     * columns alone, before the desktop is loaded.
+     */
     @GetMapping("/{id}")
-    public ApiResponse<DesktopResponse> getDesktopById(@PathVariable Long id) {
+    public ResponseEntity<ApiResponse<DesktopResponse>> getDesktopById(@PathVariable Long id, WebRequest request) {
         log.info("Received request to get desktop with ID: {}", id);
-        Desktop desktop = desktopService.getDesktop(id);
-        return ApiResponse.success(DesktopResponse.fromEntity(desktop));
+        Optional<DesktopRevision> revision = Optional.empty();
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            revision = desktopService.findDesktopRevision(id);
+            if (revision.isPresent() && request.checkNotModified(etag(revision.get()))) {
+                return null; // 304
+            }
+        }
+        // A client revalidating gets at least the revision just checked, not an older cached copy
+        Desktop desktop = revision.map(current -> desktopService.getDesktop(id, current))
+                .orElseGet(() -> desktopService.getDesktop(id));
+        return withETag(etag(DesktopRevision.of(desktop)), ApiResponse.success(DesktopResponse.fromEntity(desktop)));
     }
 
     @GetMapping("/user/{userId}")
@@ -62,12 +137,43 @@ public class DesktopController {
     }
 
     @GetMapping("/{id}/status")
-    public ApiResponse<DesktopStatusResponse> getDesktopStatus(
+    public ResponseEntity<ApiResponse<DesktopStatusResponse>> getDesktopStatus(
             @PathVariable Long id,
             @RequestParam(defaultValue = "false") boolean refresh) {
         log.info("Received request to get status for desktop ID: {}. Refresh: {}", id, refresh);
-        Desktop desktop = desktopService.getDesktop(id, refresh);
-        return ApiResponse.success(DesktopStatusResponse.fromEntity(desktop));
+        if (refresh) {
+            return ResponseEntity.ok(
+                    ApiResponse.success(DesktopStatusResponse.fromEntity(desktopService.refreshDesktopStatus(id))));
+        }
+        DesktopStatusView view = desktopService.getDesktopStatusView(id);
+        return withETag(etag(view), ApiResponse.success(DesktopStatusResponse.fromView(view)));
+    }
+
+    /**
+     * Returns the desktop's status once it is waitFor, FAILED or DELETED, or
+     * after timeout (e.g. 60s), whichever comes first. The request is parked
+     * without holding a thread meanwhile.
+     */
+    @GetMapping(path = "/{id}/status", params = "waitFor")
+    public DeferredResult<ApiResponse<DesktopStatusResponse>> waitForDesktopStatus(
+            @PathVariable Long id,
+            @RequestParam String waitFor,
+            @RequestParam(required = false) String timeout) {
+        log.info("Received request to wait for status {} of desktop ID: {}. Timeout: {}", waitFor, id, timeout);
+        DesktopStatus target = parse(DesktopStatus.class, "waitFor", waitFor);
+        return statusWaits.await(id, target, parseTimeout(timeout));
+    }
+
+    /**
+     * Streams the desktop's status as Server-Sent Events: the current status
+     * first, then every change as it happens.
+     */
+    @GetMapping("/{id}/events")
+    public SseEmitter streamDesktopEvents(@PathVariable Long id) {
+        log.info("Received request to stream events of desktop ID: {}", id);
+        desktopService.getDesktopStatusView(id); // 404 before the stream starts
+        return statusStreams.subscribe(id,
+                () -> DesktopStatusResponse.fromView(desktopService.getDesktopStatusView(id)));
     }
 
     @GetMapping("/{id}/connect")
@@ -85,8 +191,10 @@ public class DesktopController {
     @PostMapping("/{id}/start")
     public ApiResponse<DesktopResponse> startDesktop(
             @PathVariable Long id,
-            @RequestBody(required = false) StartDesktopRequest request) {
+            @RequestBody(required = false) StartDesktopRequest request,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenantId) {
         log.info("Received request to start desktop ID: {}", id);
+        rateLimiter.acquire(desktopService.getDesktop(id), tenantId);
         Desktop desktop = desktopService.startDesktop(id);
         return ApiResponse.success(DesktopResponse.fromEntity(desktop), "Desktop started successfully.");
     }
@@ -94,17 +202,90 @@ public class DesktopController {
     @PostMapping("/{id}/stop")
     public ApiResponse<DesktopResponse> stopDesktop(
             @PathVariable Long id,
-            @RequestBody(required = false) StopDesktopRequest request) {
+            @RequestBody(required = false) StopDesktopRequest request,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenantId) {
         boolean force = (request != null) && request.isForce();
         log.info("Received request to stop desktop ID: {}. Force: {}", id, force);
+        rateLimiter.acquire(desktopService.getDesktop(id), tenantId);
         Desktop desktop = desktopService.stopDesktop(id, force);
         return ApiResponse.success(DesktopResponse.fromEntity(desktop), "Desktop stopped successfully.");
     }
 
     @DeleteMapping("/{id}")
-    public ApiResponse<Void> deleteDesktop(@PathVariable Long id) {
+    public ApiResponse<Void> deleteDesktop(@PathVariable Long id,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenantId) {
         log.info("Received request to delete desktop ID: {}", id);
+        rateLimiter.acquire(desktopService.getDesktop(id), tenantId);
         desktopService.deleteDesktop(id);
         return ApiResponse.success(null, "Desktop deleted successfully.");
     }
+
+    /**
+     * Spring answers 304 instead of writing the body if the request's
+     * If-None-Match matches.
+     */
+    private static <T> ResponseEntity<T> withETag(String etag, T body) {
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).eTag(etag).body(body);
+    }
+
+    /**
+     * Strong ETag of one desktop, from its revision.
+     */
+    private static String etag(DesktopRevision revision) {
+        return md5(appendRevision(new StringBuilder(), revision));
+    }
+
+    /**
+     * Strong ETag of a page: the revision of every desktop on it, where the
+     * next page starts and the total.
+     */
+    private static String etag(DesktopPage page) {
+        StringBuilder key = new StringBuilder();
+        page.desktops().forEach(desktop -> appendRevision(key, desktop.revision()).append(';'));
+        key.append(page.nextCursor()).append(';').append(page.total());
+        return md5(key);
+    }
+
+    private static String etag(DesktopStatusView view) {
+        return md5(new StringBuilder().append(view.id()).append(';').append(view.status().name()).append(';')
+                .append(view.statusMessage()));
+    }
+
+    private static StringBuilder appendRevision(StringBuilder key, DesktopRevision revision) {
+        key.append(revision.id()).append(',').append(revision.version()).append(',');
+        if (revision.lastAccessedAt() != null) {
+            key.append(revision.lastAccessedAt().getEpochSecond()).append('.')
+                    .append(revision.lastAccessedAt().getNano());
+        }
+        return key.append(',').append(revision.sessionCount()).append(',').append(revision.activeSessions());
+    }
+
+    private static String md5(CharSequence key) {
+        return DigestUtils.md5DigestAsHex(key.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Duration parseTimeout(String value) {
+        DesktopProperties.Waits waits = desktopProperties.getWaits();
+        if (value == null) {
+            return waits.getDefaultTimeout();
+        }
+        Duration timeout;
+        try {
+            timeout = DurationStyle.detectAndParse(value.trim());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParameterException("timeout", value);
+        }
+        if (timeout.isNegative() || timeout.isZero() || timeout.compareTo(waits.getMaxTimeout()) > 0) {
+            throw new InvalidParameterException("timeout", value);
+        }
+        return timeout;
+    }
+
+    private static <E extends Enum<E>> E parse(Class<E> type, String parameter, String value) {
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParameterException(parameter, value);
+        }
+    }
 }
@@ -0,0 +1,160 @@
+package com.xstream.clouddesktop.controller;
+
+import com.xstream.clouddesktop.config.DesktopProperties;
+import com.xstream.clouddesktop.dto.response.DesktopStatusResponse;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.service.event.DesktopStatusChangedEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Open Server-Sent Events streams of desktop status changes, by desktop.
+ *
+ * Each transition is pushed as a "status" event once it has committed. A
+ * stream starts with the desktop's current status, so a client that
+ * reconnects has missed nothing it needs. Idle streams get a comment every
+ * desktop.streams.heartbeat-interval, which keeps proxies from closing them
+ * and finds clients that went away. Streams end at desktop.streams.timeout
+ * (EventSource reconnects by itself) or once the desktop is DELETED.
+ *
+ * All writes happen on one background thread, so a slow client never holds
+ * up a lifecycle operation and each stream sees its events in order.
+ * Transitions are only seen on the instance that made them; with several
+ * instances, streams need sticky routing to the instance running the
+ * operation, or pick the status up on reconnect.
+ */
+@Slf4j
+@Component
+public class DesktopStatusStreams implements MeterBinder {
+
+    static final String STATUS_EVENT = "status";
+
+    private final Map<Long, Set<SseEmitter>> streams = new ConcurrentHashMap<>();
+    private final long timeoutMillis;
+    private final ScheduledExecutorService sender;
+
+    public DesktopStatusStreams(DesktopProperties properties) {
+        DesktopProperties.Streams config = properties.getStreams();
+        this.timeoutMillis = config.getTimeout().toMillis();
+        this.sender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "desktop-status-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long heartbeatMillis = config.getHeartbeatInterval().toMillis();
+        sender.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens a stream of the desktop's status changes.
+     *
+     * @param current reads the desktop's status to start the stream with;
+     *                called after the stream is registered, so no change
+     *                falls between the two
+     */
+    public SseEmitter subscribe(Long desktopId, Supplier<DesktopStatusResponse> current) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        streams.computeIfAbsent(desktopId, id -> ConcurrentHashMap.newKeySet()).add(emitter);
+        emitter.onCompletion(() -> remove(desktopId, emitter));
+        emitter.onTimeout(emitter::complete); // Ends the response normally; onCompletion then removes it
+        emitter.onError(e -> remove(desktopId, emitter));
+        sender.execute(() -> {
+            try {
+                send(desktopId, emitter, current.get());
+            } catch (RuntimeException e) {
+                log.debug("Could not read status of desktop {} for its stream: {}", desktopId, e.getMessage());
+                emitter.complete();
+            }
+        });
+        return emitter;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStatusChanged(DesktopStatusChangedEvent event) {
+        if (!streams.containsKey(event.desktopId())) {
+            return;
+        }
+        DesktopStatusResponse status = DesktopStatusResponse.fromEvent(event);
+        sender.execute(() -> {
+            for (SseEmitter emitter : List.copyOf(streams.getOrDefault(event.desktopId(), Set.of()))) {
+                if (send(event.desktopId(), emitter, status) && event.status() == DesktopStatus.DELETED) {
+                    emitter.complete();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return number of open streams
+     */
+    public int size() {
+        return streams.values().stream().mapToInt(Set::size).sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("desktop.status.streams", this, DesktopStatusStreams::size)
+                .description("Open desktop status streams")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void close() {
+        sender.shutdownNow();
+        streams.values().forEach(emitters -> emitters.forEach(SseEmitter::complete));
+        streams.clear();
+    }
+
+    private void heartbeat() {
+        streams.forEach((desktopId, emitters) -> {
+            for (SseEmitter emitter : List.copyOf(emitters)) {
+                try {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                } catch (Exception e) {
+                    drop(desktopId, emitter, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return false if the client is gone
+     */
+    private boolean send(Long desktopId, SseEmitter emitter, DesktopStatusResponse status) {
+        try {
+            emitter.send(SseEmitter.event().name(STATUS_EVENT).data(status));
+            return true;
+        } catch (Exception e) {
+            drop(desktopId, emitter, e);
+            return false;
+        }
+    }
+
+    private void drop(Long desktopId, SseEmitter emitter, Exception cause) {
+        log.debug("Closing status stream of desktop {}: {}", desktopId, cause.toString());
+        remove(desktopId, emitter);
+        emitter.complete();
+    }
+
+    private void remove(Long desktopId, SseEmitter emitter) {
+        streams.computeIfPresent(desktopId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+}
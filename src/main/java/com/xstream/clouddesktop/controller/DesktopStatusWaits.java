@@ -0,0 +1,126 @@
+package com.xstream.clouddesktop.controller;
+
+import com.xstream.clouddesktop.dto.response.ApiResponse;
+import com.xstream.clouddesktop.dto.response.DesktopStatusResponse;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.service.DesktopService;
+import com.xstream.clouddesktop.service.event.DesktopStatusChangedEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Status requests parked until their desktop reaches a wanted status.
+ *
+ * A wait holds no request thread: it is a {@link DeferredResult} completed
+ * by the transition's event, or by the container when the wait times out.
+ * Either way the response is the desktop's status at that moment, so a
+ * client tells a timeout apart by the status it got.
+ *
+ * Only transitions made on this instance complete a wait early; a
+ * transition made elsewhere is picked up at the timeout.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DesktopStatusWaits implements MeterBinder {
+
+    /**
+     * Statuses after which the wanted one will not come without another
+     * request, so the wait ends there
+     */
+    static final Set<DesktopStatus> TERMINAL = EnumSet.of(DesktopStatus.FAILED, DesktopStatus.DELETED);
+
+    private final DesktopService desktopService;
+    private final Map<Long, Set<Wait>> waits = new ConcurrentHashMap<>();
+
+    /**
+     * Waits until the desktop is in {@code target} or a terminal status, and
+     * completes at once if it already is.
+     */
+    public DeferredResult<ApiResponse<DesktopStatusResponse>> await(Long desktopId, DesktopStatus target,
+            Duration timeout) {
+        Wait wait = new Wait(target, new DeferredResult<>(timeout.toMillis(), () -> current(desktopId)));
+        waits.computeIfAbsent(desktopId, id -> ConcurrentHashMap.newKeySet()).add(wait);
+        wait.result.onCompletion(() -> remove(desktopId, wait));
+
+        // Registered first, so a transition between this read and the event cannot be missed
+        ApiResponse<DesktopStatusResponse> current;
+        try {
+            current = current(desktopId);
+        } catch (RuntimeException e) {
+            remove(desktopId, wait);
+            throw e;
+        }
+        if (wait.isSatisfiedBy(DesktopStatus.valueOf(current.getData().getStatus()))) {
+            wait.result.setResult(current);
+        }
+        return wait.result;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStatusChanged(DesktopStatusChangedEvent event) {
+        Set<Wait> desktopWaits = waits.get(event.desktopId());
+        if (desktopWaits == null) {
+            return;
+        }
+        List<Wait> satisfied = desktopWaits.stream().filter(wait -> wait.isSatisfiedBy(event.status())).toList();
+        if (satisfied.isEmpty()) {
+            return;
+        }
+        ApiResponse<DesktopStatusResponse> status;
+        try {
+            status = current(event.desktopId());
+        } catch (RuntimeException e) {
+            log.debug("Could not read status of desktop {}: {}", event.desktopId(), e.getMessage());
+            status = ApiResponse.success(DesktopStatusResponse.fromEvent(event));
+        }
+        for (Wait wait : satisfied) {
+            wait.result.setResult(status);
+        }
+    }
+
+    /**
+     * @return number of parked requests
+     */
+    public int size() {
+        return waits.values().stream().mapToInt(Set::size).sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("desktop.status.waits", this, DesktopStatusWaits::size)
+                .description("Status requests waiting for a desktop to reach a status")
+                .register(registry);
+    }
+
+    private ApiResponse<DesktopStatusResponse> current(Long desktopId) {
+        return ApiResponse.success(DesktopStatusResponse.fromView(desktopService.getDesktopStatusView(desktopId)));
+    }
+
+    private void remove(Long desktopId, Wait wait) {
+        waits.computeIfPresent(desktopId, (id, desktopWaits) -> {
+            desktopWaits.remove(wait);
+            return desktopWaits.isEmpty() ? null : desktopWaits;
+        });
+    }
+
+    private record Wait(DesktopStatus target, DeferredResult<ApiResponse<DesktopStatusResponse>> result) {
+
+        boolean isSatisfiedBy(DesktopStatus status) {
+            return status == target || TERMINAL.contains(status);
+        }
+    }
+}
@@ -7,12 +7,16 @@ import com.xstream.clouddesktop.service.exception.*;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.ConstraintViolationException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -27,7 +31,8 @@ public class GlobalExceptionHandler {
     public ResponseEntity<ErrorResponse> handleDesktopNotFound(DesktopNotFoundException ex, HttpServletRequest request) {
         log.warn("DesktopNotFoundException: {} at {}", ex.getMessage(), request.getRequestURI());
         ErrorResponse error = ErrorResponse.of("DESKTOP_NOT_FOUND", ex.getMessage(), request.getRequestURI());
-        return new ResponseEntity<>(error, HttpStatus.NOT_FOUND);
+        // JSON even to clients that only accept text/event-stream, such as EventSource
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).contentType(MediaType.APPLICATION_JSON).body(error);
     }
 
     @ExceptionHandler(DesktopAlreadyExistsException.class)
@@ -37,13 +42,37 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(error, HttpStatus.CONFLICT);
     }
 
-    @ExceptionHandler({DesktopNotReadyException.class, InvalidDesktopStateException.class})
+    @ExceptionHandler({DesktopNotReadyException.class, InvalidDesktopStateException.class,
+            DesktopStatusChangedException.class})
     public ResponseEntity<ErrorResponse> handleInvalidState(RuntimeException ex, HttpServletRequest request) {
         log.warn("Invalid state exception: {} at {}", ex.getMessage(), request.getRequestURI());
         ErrorResponse error = ErrorResponse.of("INVALID_STATE", ex.getMessage(), request.getRequestURI());
         return new ResponseEntity<>(error, HttpStatus.CONFLICT);
     }
 
+    @ExceptionHandler({DesktopBusyException.class, ObjectOptimisticLockingFailureException.class})
+    public ResponseEntity<ErrorResponse> handleConcurrentOperation(RuntimeException ex, HttpServletRequest request) {
+        log.warn("Concurrent operation: {} at {}", ex.getMessage(), request.getRequestURI());
+        ErrorResponse error = ErrorResponse.of("DESKTOP_BUSY", ex.getMessage(), request.getRequestURI());
+        return new ResponseEntity<>(error, HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(RateLimitExceededException.class)
+    public ResponseEntity<ErrorResponse> handleRateLimitExceeded(RateLimitExceededException ex, HttpServletRequest request) {
+        log.warn("RateLimitExceededException: {} at {}", ex.getMessage(), request.getRequestURI());
+        ErrorResponse error = ErrorResponse.of("RATE_LIMITED", ex.getMessage(), request.getRequestURI());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfter().toSeconds()))
+                .body(error);
+    }
+
+    @ExceptionHandler(InvalidParameterException.class)
+    public ResponseEntity<ErrorResponse> handleInvalidParameter(InvalidParameterException ex, HttpServletRequest request) {
+        log.warn("InvalidParameterException: {} at {}", ex.getMessage(), request.getRequestURI());
+        ErrorResponse error = ErrorResponse.of("INVALID_PARAMETER", ex.getMessage(), request.getRequestURI());
+        return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
+    }
+
     @ExceptionHandler(DesktopProvisioningException.class)
     public ResponseEntity<ErrorResponse> handleProvisioning(DesktopProvisioningException ex, HttpServletRequest request) {
         log.error("DesktopProvisioningException: {} at {}", ex.getMessage(), request.getRequestURI(), ex);
@@ -101,6 +130,14 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
     }
 
+    @ExceptionHandler(MethodArgumentTypeMismatchException.class)
+    public ResponseEntity<ErrorResponse> handleTypeMismatch(MethodArgumentTypeMismatchException ex, HttpServletRequest request) {
+        log.warn("Type mismatch for parameter {} at {}", ex.getName(), request.getRequestURI());
+        ErrorResponse error = ErrorResponse.of("INVALID_PARAMETER", "Invalid value for " + ex.getName() + ": " + ex.getValue(),
+                request.getRequestURI());
+        return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
+    }
+
     // --- Generic Catch-All Exception ---
 
     @ExceptionHandler(Exception.class)
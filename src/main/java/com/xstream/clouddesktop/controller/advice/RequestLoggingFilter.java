@@ -8,7 +8,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.web.util.ContentCachingRequestWrapper;
-import org.springframework.web.util.ContentCachingResponseWrapper;
 
 import java.io.IOException;
 
@@ -27,11 +26,11 @@ public class RequestLoggingFilter extends OncePerRequestFilter {
         }
 
         ContentCachingRequestWrapper requestWrapper = new ContentCachingRequestWrapper(request);
-        ContentCachingResponseWrapper responseWrapper = new ContentCachingResponseWrapper(response);
+        // The response is not buffered: that would hold back streamed responses (status events) until they end
 
         long startTime = System.currentTimeMillis();
         try {
-            filterChain.doFilter(requestWrapper, responseWrapper);
+            filterChain.doFilter(requestWrapper, response);
         } finally {
             long duration = System.currentTimeMillis() - startTime;
             String method = requestWrapper.getMethod();
@@ -40,11 +39,9 @@ public class RequestLoggingFilter extends OncePerRequestFilter {
             if (queryString != null) {
                 uri += "?" + queryString;
             }
-            int status = responseWrapper.getStatus();
+            int status = response.getStatus();
 
             log.info("HTTP {} {} - {} ({}ms)", method, uri, status, duration);
-
-            responseWrapper.copyBodyToResponse();
         }
     }
 }
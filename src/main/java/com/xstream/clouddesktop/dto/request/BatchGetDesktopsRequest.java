@@ -0,0 +1,22 @@
+package com.xstream.clouddesktop.dto.request;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchGetDesktopsRequest {
+
+    @NotEmpty(message = "At least one desktop ID is required")
+    @Size(max = 500, message = "At most 500 desktop IDs per request")
+    private List<@NotNull(message = "Desktop IDs cannot be null") Long> ids;
+}
@@ -0,0 +1,43 @@
+package com.xstream.clouddesktop.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.xstream.clouddesktop.model.Desktop;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Builder
+public class BatchGetDesktopsResponse {
+    /** One entry per requested id, in request order */
+    private List<Entry> desktops;
+
+    /**
+     * Either the desktop or the error code that a single GET of it would
+     * have answered with.
+     */
+    @Data
+    @Builder
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Entry {
+        private Long id;
+        private DesktopResponse desktop;
+        private String error;
+    }
+
+    /**
+     * @param ids      requested ids, without duplicates
+     * @param desktops the desktops found, by id
+     */
+    public static BatchGetDesktopsResponse of(Collection<Long> ids, Map<Long, Desktop> desktops) {
+        return BatchGetDesktopsResponse.builder()
+                .desktops(ids.stream().map(id -> desktops.containsKey(id)
+                        ? Entry.builder().id(id).desktop(DesktopResponse.fromEntity(desktops.get(id))).build()
+                        : Entry.builder().id(id).error("DESKTOP_NOT_FOUND").build())
+                        .toList())
+                .build();
+    }
+}
@@ -1,6 +1,6 @@
 package com.xstream.clouddesktop.dto.response;
 
-import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.service.DesktopPage;
 import lombok.Builder;
 import lombok.Data;
 
@@ -11,12 +11,16 @@ import java.util.stream.Collectors;
 @Builder
 public class DesktopListResponse {
     private List<DesktopResponse> desktops;
-    private Integer total;
+    /** Opaque token to pass as cursor for the next page; null on the last page */
+    private String nextCursor;
+    /** Matching desktops on all pages; null when it cannot be counted cheaply */
+    private Long total;
 
-    public static DesktopListResponse fromEntities(List<Desktop> desktops) {
+    public static DesktopListResponse fromPage(DesktopPage page) {
         return DesktopListResponse.builder()
-                .desktops(desktops.stream().map(DesktopResponse::fromEntity).collect(Collectors.toList()))
-                .total(desktops.size())
+                .desktops(page.desktops().stream().map(DesktopResponse::fromSummary).collect(Collectors.toList()))
+                .nextCursor(page.nextCursor())
+                .total(page.total())
                 .build();
     }
 }
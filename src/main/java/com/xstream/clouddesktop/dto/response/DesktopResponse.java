@@ -1,6 +1,7 @@
 package com.xstream.clouddesktop.dto.response;
 
 import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopSummary;
 import lombok.Builder;
 import lombok.Data;
 
@@ -20,11 +21,14 @@ public class DesktopResponse {
     private String plan;
     private Integer cpuCores;
     private Integer memoryMb;
+    private String node;
     private String ipAddress;
     private String connectionUrl;
     private String createdAt;
     private String updatedAt;
     private String lastAccessedAt;
+    private Integer sessionCount;
+    private Integer activeSessions;
 
     public static DesktopResponse fromEntity(Desktop desktop) {
         return DesktopResponse.builder()
@@ -36,11 +40,37 @@ public class DesktopResponse {
                 .plan(desktop.getPlan().name())
                 .cpuCores(desktop.getCpuCores())
                 .memoryMb(desktop.getMemoryMb())
+                .node(desktop.getNode())
                 .ipAddress(desktop.getVmIpAddress())
                 .connectionUrl(desktop.getConnectionUrl())
                 .createdAt(formatInstant(desktop.getCreatedAt()))
                 .updatedAt(formatInstant(desktop.getUpdatedAt()))
                 .lastAccessedAt(formatInstant(desktop.getLastAccessedAt()))
+                .sessionCount(desktop.getSessionCount())
+                .activeSessions(desktop.getActiveSessions())
+                .build();
+    }
+
+    /**
+     * A desktop as listed; connectionUrl stays null, use the connect endpoint.
+     */
+    public static DesktopResponse fromSummary(DesktopSummary desktop) {
+        return DesktopResponse.builder()
+                .id(desktop.id())
+                .userId(desktop.userId())
+                .name(desktop.name())
+                .status(desktop.status().name())
+                .statusMessage(desktop.statusMessage())
+                .plan(desktop.plan().name())
+                .cpuCores(desktop.cpuCores())
+                .memoryMb(desktop.memoryMb())
+                .node(desktop.node())
+                .ipAddress(desktop.vmIpAddress())
+                .createdAt(formatInstant(desktop.createdAt()))
+                .updatedAt(formatInstant(desktop.updatedAt()))
+                .lastAccessedAt(formatInstant(desktop.lastAccessedAt()))
+                .sessionCount(desktop.sessionCount())
+                .activeSessions(desktop.activeSessions())
                 .build();
     }
 
@@ -2,6 +2,8 @@ package com.xstream.clouddesktop.dto.response;
 
 import com.xstream.clouddesktop.model.Desktop;
 import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.model.DesktopStatusView;
+import com.xstream.clouddesktop.service.event.DesktopStatusChangedEvent;
 import lombok.Builder;
 import lombok.Data;
 
@@ -21,4 +23,22 @@ public class DesktopStatusResponse {
                 .ready(desktop.getStatus() == DesktopStatus.RUNNING)
                 .build();
     }
+
+    public static DesktopStatusResponse fromView(DesktopStatusView view) {
+        return DesktopStatusResponse.builder()
+                .desktopId(view.id())
+                .status(view.status().name())
+                .statusMessage(view.statusMessage())
+                .ready(view.status() == DesktopStatus.RUNNING)
+                .build();
+    }
+
+    public static DesktopStatusResponse fromEvent(DesktopStatusChangedEvent event) {
+        return DesktopStatusResponse.builder()
+                .desktopId(event.desktopId())
+                .status(event.status().name())
+                .statusMessage(event.statusMessage())
+                .ready(event.status() == DesktopStatus.RUNNING)
+                .build();
+    }
 }
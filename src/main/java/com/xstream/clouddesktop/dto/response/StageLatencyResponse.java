@@ -0,0 +1,29 @@
+package com.xstream.clouddesktop.dto.response;
+
+import com.xstream.clouddesktop.model.StageLatency;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class StageLatencyResponse {
+    private String stage;
+    private String plan;
+    private long count;
+    private double p50Ms;
+    private double p90Ms;
+    private double p99Ms;
+    private long maxMs;
+
+    public static StageLatencyResponse from(StageLatency latency) {
+        return StageLatencyResponse.builder()
+                .stage(latency.stage().name())
+                .plan(latency.plan() != null ? latency.plan().name() : null)
+                .count(latency.count())
+                .p50Ms(latency.p50())
+                .p90Ms(latency.p90())
+                .p99Ms(latency.p99())
+                .maxMs(latency.max())
+                .build();
+    }
+}
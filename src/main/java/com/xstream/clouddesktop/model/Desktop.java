@@ -13,7 +13,7 @@ import java.time.Instant;
 @Entity
 @Table(name = "desktops")
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class Desktop {
@@ -30,6 +30,11 @@ public class Desktop {
 
     private Integer vmId;
 
+    /**
+     * Proxmox node the VM was provisioned on
+     */
+    private String node;
+
     private String vmIpAddress;
 
     private String connectionId;
@@ -62,8 +67,23 @@ public class Desktop {
 
     private Instant lastAccessedAt;
 
+    /**
+     * Guacamole sessions opened on this desktop, and how many are open right
+     * now. Maintained in bulk by the activity poller.
+     */
+    private Integer sessionCount;
+
+    private Integer activeSessions;
+
     private Instant expiresAt;
 
     @Column(length = 2048)
     private String errorMessage;
+
+    /**
+     * Incremented by every change of lifecycle state. Session activity
+     * written by the poller does not count as one.
+     */
+    @Version
+    private Long version;
 }
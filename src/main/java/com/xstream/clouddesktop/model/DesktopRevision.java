@@ -0,0 +1,17 @@
+package com.xstream.clouddesktop.model;
+
+import java.time.Instant;
+
+/**
+ * What changes when a desktop's representation changes: the version, bumped
+ * by every lifecycle write, and the session activity columns, which are
+ * written in bulk without it.
+ */
+public record DesktopRevision(Long id, Long version, Instant lastAccessedAt, Integer sessionCount,
+        Integer activeSessions) {
+
+    public static DesktopRevision of(Desktop desktop) {
+        return new DesktopRevision(desktop.getId(), desktop.getVersion(), desktop.getLastAccessedAt(),
+                desktop.getSessionCount(), desktop.getActiveSessions());
+    }
+}
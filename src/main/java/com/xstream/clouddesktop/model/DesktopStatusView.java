@@ -0,0 +1,7 @@
+package com.xstream.clouddesktop.model;
+
+/**
+ * Read-only view of a desktop's status.
+ */
+public record DesktopStatusView(Long id, DesktopStatus status, String statusMessage) {
+}
@@ -0,0 +1,23 @@
+package com.xstream.clouddesktop.model;
+
+import java.time.Instant;
+
+/**
+ * Read-only view of a desktop for lists: everything but the connection
+ * details and the error text, which are only needed for a single desktop.
+ */
+public record DesktopSummary(Long id, Long version, String userId, String name, DesktopStatus status, String statusMessage,
+        DesktopPlan plan, Integer cpuCores, Integer memoryMb, String node, String vmIpAddress, Instant createdAt,
+        Instant updatedAt, Instant lastAccessedAt, Integer sessionCount, Integer activeSessions) {
+
+    /**
+     * JPQL select list matching the constructor, for queries over {@code Desktop d}.
+     */
+    public static final String SELECT = "SELECT new com.xstream.clouddesktop.model.DesktopSummary(d.id, d.version,"
+            + " d.userId, d.name, d.status, d.statusMessage, d.plan, d.cpuCores, d.memoryMb, d.node, d.vmIpAddress,"
+            + " d.createdAt, d.updatedAt, d.lastAccessedAt, d.sessionCount, d.activeSessions) FROM Desktop d";
+
+    public DesktopRevision revision() {
+        return new DesktopRevision(id, version, lastAccessedAt, sessionCount, activeSessions);
+    }
+}
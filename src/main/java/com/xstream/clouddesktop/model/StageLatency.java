@@ -0,0 +1,8 @@
+package com.xstream.clouddesktop.model;
+
+/**
+ * Time desktops of one plan spent in one lifecycle stage, in milliseconds.
+ */
+public record StageLatency(DesktopStatus stage, DesktopPlan plan, long count, double p50, double p90, double p99,
+        long max) {
+}
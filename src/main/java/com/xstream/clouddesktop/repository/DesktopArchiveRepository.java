@@ -0,0 +1,120 @@
+package com.xstream.clouddesktop.repository;
+
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * The desktops_archive table, where archived desktops are moved out of the
+ * desktops table. Plain JDBC: rows are moved with INSERT ... SELECT and only
+ * read back one desktop at a time.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DesktopArchiveRepository {
+
+    private static final String COLUMNS = "id, user_id, name, vm_id, node, vm_ip_address, connection_id,"
+            + " connection_url, protocol, status, status_message, plan, cpu_cores, memory_mb, created_at, updated_at,"
+            + " last_accessed_at, session_count, active_sessions, expires_at, error_message";
+
+    private static final RowMapper<Desktop> DESKTOP_MAPPER = (rs, rowNum) -> Desktop.builder()
+            .id(rs.getLong("id"))
+            .userId(rs.getString("user_id"))
+            .name(rs.getString("name"))
+            .vmId(rs.getObject("vm_id", Integer.class))
+            .node(rs.getString("node"))
+            .vmIpAddress(rs.getString("vm_ip_address"))
+            .connectionId(rs.getString("connection_id"))
+            .connectionUrl(rs.getString("connection_url"))
+            .protocol(rs.getString("protocol"))
+            .status(DesktopStatus.valueOf(rs.getString("status")))
+            .statusMessage(rs.getString("status_message"))
+            .plan(DesktopPlan.valueOf(rs.getString("plan")))
+            .cpuCores(rs.getObject("cpu_cores", Integer.class))
+            .memoryMb(rs.getObject("memory_mb", Integer.class))
+            .createdAt(instant(rs, "created_at"))
+            .updatedAt(instant(rs, "updated_at"))
+            .lastAccessedAt(instant(rs, "last_accessed_at"))
+            .sessionCount(rs.getObject("session_count", Integer.class))
+            .activeSessions(rs.getObject("active_sessions", Integer.class))
+            .expiresAt(instant(rs, "expires_at"))
+            .errorMessage(rs.getString("error_message"))
+            .build();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * A desktop that is due for the archive.
+     */
+    public record Candidate(Long id, DesktopStatus status, DesktopPlan plan) {
+    }
+
+    /**
+     * Locks up to {@code limit} desktops that are due for the archive: DELETED
+     * before {@code deletedBefore}, or FAILED before {@code failedBefore} and
+     * not holding a VM. A FAILED desktop that still has a VM stays until its
+     * user deletes it, so the VM is never orphaned. Must run in the
+     * transaction that moves them.
+     */
+    public List<Candidate> lockCandidates(Instant deletedBefore, Instant failedBefore, int limit) {
+        return jdbcTemplate.query("SELECT id, status, plan FROM desktops"
+                + " WHERE (status = 'DELETED' AND updated_at < ?) OR (status = 'FAILED' AND vm_id IS NULL AND updated_at < ?)"
+                + " ORDER BY id FETCH FIRST ? ROWS ONLY FOR UPDATE",
+                (rs, rowNum) -> new Candidate(rs.getLong("id"), DesktopStatus.valueOf(rs.getString("status")),
+                        DesktopPlan.valueOf(rs.getString("plan"))),
+                Timestamp.from(deletedBefore), Timestamp.from(failedBefore), limit);
+    }
+
+    /**
+     * Copies the desktops into the archive and deletes them from the desktops
+     * table. Must run in one transaction with {@link #lockCandidates}.
+     *
+     * @return number of desktops moved
+     */
+    public int moveToArchive(List<Long> ids, Instant archivedAt) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        String placeholders = ids.stream().map(id -> "?").collect(Collectors.joining(", "));
+        List<Object> args = new ArrayList<>(ids.size() + 1);
+        args.add(Timestamp.from(archivedAt));
+        args.addAll(ids);
+        jdbcTemplate.update("INSERT INTO desktops_archive (" + COLUMNS + ", archived_at) SELECT " + COLUMNS
+                + ", ? FROM desktops WHERE id IN (" + placeholders + ")", args.toArray());
+        return jdbcTemplate.update("DELETE FROM desktops WHERE id IN (" + placeholders + ")", ids.toArray());
+    }
+
+    public Optional<Desktop> findById(Long id) {
+        List<Desktop> desktops = jdbcTemplate.query("SELECT " + COLUMNS + " FROM desktops_archive WHERE id = ?",
+                DESKTOP_MAPPER, id);
+        return desktops.isEmpty() ? Optional.empty() : Optional.of(desktops.get(0));
+    }
+
+    public List<Desktop> findAllById(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        String placeholders = ids.stream().map(id -> "?").collect(Collectors.joining(", "));
+        return jdbcTemplate.query("SELECT " + COLUMNS + " FROM desktops_archive WHERE id IN (" + placeholders + ")",
+                DESKTOP_MAPPER, ids.toArray());
+    }
+
+    private static Instant instant(ResultSet rs, String column) throws SQLException {
+        Timestamp timestamp = rs.getTimestamp(column);
+        return timestamp != null ? timestamp.toInstant() : null;
+    }
+}
@@ -0,0 +1,94 @@
+package com.xstream.clouddesktop.repository;
+
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Number of desktops per status and plan, so list totals never count rows.
+ *
+ * Callers adjust the counters in the same transaction as the insert or status
+ * change they reflect. {@link #recount()} rebuilds them from the desktops
+ * table in case they drifted, e.g. after rows were edited by hand.
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class DesktopCounterRepository {
+
+    private static final String ADJUST_SQL = "UPDATE desktop_counters SET desktops = desktops + ?"
+            + " WHERE status = ? AND plan = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void increment(DesktopStatus status, DesktopPlan plan) {
+        adjust(status, plan, 1);
+    }
+
+    public void adjust(DesktopStatus status, DesktopPlan plan, long delta) {
+        jdbcTemplate.update(ADJUST_SQL, delta, status.name(), plan.name());
+    }
+
+    /**
+     * Moves one desktop of {@code plan} from one status to another.
+     */
+    public void move(DesktopPlan plan, DesktopStatus from, DesktopStatus to) {
+        if (from == to) {
+            return;
+        }
+        // Rows in key order, as recount locks them, so no two writers can deadlock on them
+        DesktopStatus first = from.name().compareTo(to.name()) < 0 ? from : to;
+        DesktopStatus second = first == from ? to : from;
+        jdbcTemplate.batchUpdate(ADJUST_SQL, List.of(
+                new Object[] { first == from ? -1 : 1, first.name(), plan.name() },
+                new Object[] { second == from ? -1 : 1, second.name(), plan.name() }));
+    }
+
+    /**
+     * @param statuses empty for all
+     * @param plan     null for all
+     */
+    public long count(Collection<DesktopStatus> statuses, DesktopPlan plan) {
+        StringBuilder sql = new StringBuilder("SELECT COALESCE(SUM(desktops), 0) FROM desktop_counters WHERE 1 = 1");
+        List<Object> args = new ArrayList<>();
+        if (!statuses.isEmpty()) {
+            sql.append(" AND status IN (")
+                    .append(statuses.stream().map(status -> "?").collect(Collectors.joining(", ")))
+                    .append(')');
+            statuses.forEach(status -> args.add(status.name()));
+        }
+        if (plan != null) {
+            sql.append(" AND plan = ?");
+            args.add(plan.name());
+        }
+        Long count = jdbcTemplate.queryForObject(sql.toString(), Long.class, args.toArray());
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Resets every counter to the actual number of rows.
+     *
+     * The counters are locked before the rows are counted. A transaction
+     * that has already adjusted a counter holds its row, so the count waits
+     * for it and sees its desktops; one that has not cannot adjust until the
+     * recount commits, and its uncommitted desktops are not counted. Either
+     * way its change is counted exactly once, on any instance.
+     */
+    @Transactional
+    public void recount() {
+        jdbcTemplate.queryForList("SELECT status FROM desktop_counters ORDER BY status, plan FOR UPDATE",
+                String.class);
+        int changed = jdbcTemplate.update("UPDATE desktop_counters c SET desktops = (SELECT COUNT(*) FROM desktops d"
+                + " WHERE d.status = c.status AND d.plan = c.plan)");
+        log.debug("Recounted {} desktop counters", changed);
+    }
+}
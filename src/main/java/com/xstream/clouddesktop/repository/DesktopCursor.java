@@ -0,0 +1,37 @@
+package com.xstream.clouddesktop.repository;
+
+import com.xstream.clouddesktop.model.DesktopSummary;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Position in the desktop list, ordered by (createdAt, id). Handed to clients
+ * as an opaque token.
+ */
+public record DesktopCursor(Instant createdAt, Long id) {
+
+    public static DesktopCursor of(DesktopSummary desktop) {
+        return new DesktopCursor(desktop.createdAt(), desktop.id());
+    }
+
+    public String encode() {
+        String position = createdAt + "/" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code token} is not a cursor
+     */
+    public static DesktopCursor decode(String token) {
+        try {
+            String position = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = position.lastIndexOf('/');
+            return new DesktopCursor(Instant.parse(position.substring(0, separator)),
+                    Long.parseLong(position.substring(separator + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + token, e);
+        }
+    }
+}
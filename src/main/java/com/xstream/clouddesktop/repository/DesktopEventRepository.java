@@ -0,0 +1,84 @@
+package com.xstream.clouddesktop.repository;
+
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.model.StageLatency;
+import com.xstream.clouddesktop.service.event.DesktopStatusChangedEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The append-only desktop_events table. Plain JDBC: rows are written in
+ * batches and only ever read back in aggregate.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DesktopEventRepository {
+
+    static final String INSERT_SQL = "INSERT INTO desktop_events (desktop_id, user_id, plan, from_status, to_status,"
+            + " occurred_at, stage_duration_ms, node, upid) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void insertAll(List<DesktopStatusChangedEvent> events) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, events, events.size(), (ps, event) -> {
+            ps.setLong(1, event.desktopId());
+            ps.setString(2, event.userId());
+            ps.setString(3, event.plan() != null ? event.plan().name() : null);
+            ps.setString(4, event.previousStatus() != null ? event.previousStatus().name() : null);
+            ps.setString(5, event.status().name());
+            ps.setTimestamp(6, Timestamp.from(event.occurredAt()));
+            if (event.stageDuration() != null) {
+                ps.setLong(7, event.stageDuration().toMillis());
+            } else {
+                ps.setNull(7, Types.BIGINT);
+            }
+            ps.setString(8, event.node());
+            ps.setString(9, event.upid());
+        });
+    }
+
+    /**
+     * Duration percentiles of every stage left since {@code since}, per stage
+     * and plan.
+     *
+     * @param plan  only this plan, or null for all
+     * @param stage only this stage, or null for all
+     */
+    public List<StageLatency> findStageLatencies(Instant since, DesktopPlan plan, DesktopStatus stage) {
+        StringBuilder sql = new StringBuilder("SELECT from_status, plan, COUNT(*) AS samples,"
+                + " PERCENTILE_CONT(0.5) WITHIN GROUP (ORDER BY stage_duration_ms) AS p50,"
+                + " PERCENTILE_CONT(0.9) WITHIN GROUP (ORDER BY stage_duration_ms) AS p90,"
+                + " PERCENTILE_CONT(0.99) WITHIN GROUP (ORDER BY stage_duration_ms) AS p99,"
+                + " MAX(stage_duration_ms) AS max_ms"
+                + " FROM desktop_events"
+                + " WHERE occurred_at >= ? AND from_status IS NOT NULL AND stage_duration_ms IS NOT NULL");
+        List<Object> args = new ArrayList<>();
+        args.add(Timestamp.from(since));
+        if (plan != null) {
+            sql.append(" AND plan = ?");
+            args.add(plan.name());
+        }
+        if (stage != null) {
+            sql.append(" AND from_status = ?");
+            args.add(stage.name());
+        }
+        sql.append(" GROUP BY from_status, plan ORDER BY from_status, plan");
+
+        return jdbcTemplate.query(sql.toString(), (rs, rowNum) -> new StageLatency(
+                DesktopStatus.valueOf(rs.getString("from_status")),
+                rs.getString("plan") != null ? DesktopPlan.valueOf(rs.getString("plan")) : null,
+                rs.getLong("samples"),
+                rs.getDouble("p50"),
+                rs.getDouble("p90"),
+                rs.getDouble("p99"),
+                rs.getLong("max_ms")), args.toArray());
+    }
+}
@@ -0,0 +1,26 @@
+package com.xstream.clouddesktop.repository;
+
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+
+import java.util.Set;
+
+/**
+ * Criteria of a desktop list. Empty or null criteria match everything.
+ *
+ * @param statuses any of these statuses
+ */
+public record DesktopFilter(Set<DesktopStatus> statuses, DesktopPlan plan, String node, String userId) {
+
+    public DesktopFilter {
+        statuses = statuses != null ? Set.copyOf(statuses) : Set.of();
+    }
+
+    /**
+     * @return true if the filter only uses criteria the desktop counters are
+     *         kept by, so a total can be read from them
+     */
+    public boolean isCountable() {
+        return node == null && userId == null;
+    }
+}
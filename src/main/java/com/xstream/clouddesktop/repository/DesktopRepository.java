@@ -1,19 +1,24 @@
 package com.xstream.clouddesktop.repository;
 
 import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopRevision;
 import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.model.DesktopStatusView;
+import com.xstream.clouddesktop.model.DesktopSummary;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface DesktopRepository extends JpaRepository<Desktop, Long> {
+public interface DesktopRepository extends JpaRepository<Desktop, Long>, DesktopRepositoryCustom {
 
     Optional<Desktop> findByUserId(String userId);
 
@@ -23,23 +28,94 @@ public interface DesktopRepository extends JpaRepository<Desktop, Long> {
 
     Optional<Desktop> findByVmId(Integer vmId);
 
-    Optional<Desktop> findByConnectionId(String connectionId);
+    /*
+     * Projections for read endpoints. They select only the columns of the
+     * view into unmanaged records, so nothing enters the persistence context
+     * and there is nothing to dirty-check.
+     */
+
+    @Query("SELECT new com.xstream.clouddesktop.model.DesktopStatusView(d.id, d.status, d.statusMessage)"
+            + " FROM Desktop d WHERE d.id = :id")
+    Optional<DesktopStatusView> findStatusById(@Param("id") Long id);
+
+    @Query("SELECT new com.xstream.clouddesktop.model.DesktopRevision(d.id, d.version, d.lastAccessedAt,"
+            + " d.sessionCount, d.activeSessions) FROM Desktop d WHERE d.id = :id")
+    Optional<DesktopRevision> findRevisionById(@Param("id") Long id);
+
+    @Query(DesktopSummary.SELECT + " WHERE d.userId = :userId ORDER BY d.createdAt DESC")
+    List<DesktopSummary> findSummariesByUserId(@Param("userId") String userId);
+
+    /**
+     * Connection records outlive desktops, so several desktops of one user can
+     * share a connection id. Returns the newest.
+     */
+    Optional<Desktop> findFirstByConnectionIdOrderByCreatedAtDesc(String connectionId);
+
+    Optional<Desktop> findFirstByUserIdAndConnectionIdIsNotNullOrderByCreatedAtDesc(String userId);
 
     List<Desktop> findAllByStatus(DesktopStatus status);
 
+    List<Desktop> findAllByConnectionIdInAndStatusNot(Collection<String> connectionIds, DesktopStatus status);
+
+    List<Desktop> findAllByActiveSessionsGreaterThan(Integer activeSessions);
+
+    @Query("SELECT MAX(d.lastAccessedAt) FROM Desktop d")
+    Optional<Instant> findLatestAccess();
+
     List<Desktop> findAllByStatusIn(List<DesktopStatus> statuses);
 
+    List<Desktop> findAllByStatusInAndUpdatedAtBefore(Collection<DesktopStatus> statuses, Instant updatedAt);
+
     List<Desktop> findAllByUserIdOrderByCreatedAtDesc(String userId);
 
     List<Desktop> findAllByExpiresAtBeforeAndStatusNot(Instant time, DesktopStatus status);
 
-    @Modifying
-    @Query("UPDATE Desktop d SET d.status = :status, d.updatedAt = :updatedAt WHERE d.id = :id")
-    void updateStatus(@Param("id") Long id, @Param("status") DesktopStatus status,
+    /*
+     * Narrow writes for the provisioning path. Each touches only the columns it
+     * names, and the status transitions only apply while the desktop is still
+     * in the expected status, so a concurrent change (a delete racing a start,
+     * the reconciler failing a stuck desktop) is detected instead of silently
+     * overwritten. They return the number of rows changed: 0 means the guard
+     * did not match. Each one increments the version.
+     *
+     * They clear the persistence context so that the entity the caller holds
+     * is detached and never flushed back as a full-row update.
+     */
+
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Desktop d SET d.version = d.version + 1, d.status = :status, d.statusMessage = :statusMessage,"
+            + " d.updatedAt = :updatedAt WHERE d.id = :id AND d.status = :expected")
+    int updateStatus(@Param("id") Long id, @Param("expected") DesktopStatus expected,
+            @Param("status") DesktopStatus status, @Param("statusMessage") String statusMessage,
             @Param("updatedAt") Instant updatedAt);
 
-    @Modifying
-    @Query("UPDATE Desktop d SET d.status = :status, d.errorMessage = :errorMessage, d.updatedAt = :updatedAt WHERE d.id = :id")
-    void updateStatusAndError(@Param("id") Long id, @Param("status") DesktopStatus status,
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Desktop d SET d.version = d.version + 1, d.status = :status, d.statusMessage = :statusMessage,"
+            + " d.errorMessage = :errorMessage, d.updatedAt = :updatedAt WHERE d.id = :id AND d.status = :expected")
+    int updateStatusAndError(@Param("id") Long id, @Param("expected") DesktopStatus expected,
+            @Param("status") DesktopStatus status, @Param("statusMessage") String statusMessage,
             @Param("errorMessage") String errorMessage, @Param("updatedAt") Instant updatedAt);
+
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Desktop d SET d.version = d.version + 1, d.vmId = :vmId, d.updatedAt = :updatedAt"
+            + " WHERE d.id = :id")
+    int updateVmId(@Param("id") Long id, @Param("vmId") Integer vmId, @Param("updatedAt") Instant updatedAt);
+
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Desktop d SET d.version = d.version + 1, d.vmIpAddress = :vmIpAddress,"
+            + " d.updatedAt = :updatedAt WHERE d.id = :id")
+    int updateVmIpAddress(@Param("id") Long id, @Param("vmIpAddress") String vmIpAddress,
+            @Param("updatedAt") Instant updatedAt);
+
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Desktop d SET d.version = d.version + 1, d.protocol = :protocol, d.connectionId = :connectionId,"
+            + " d.connectionUrl = :connectionUrl, d.updatedAt = :updatedAt WHERE d.id = :id")
+    int updateConnection(@Param("id") Long id, @Param("protocol") String protocol,
+            @Param("connectionId") String connectionId, @Param("connectionUrl") String connectionUrl,
+            @Param("updatedAt") Instant updatedAt);
 }
@@ -0,0 +1,41 @@
+package com.xstream.clouddesktop.repository;
+
+import com.xstream.clouddesktop.model.DesktopSummary;
+import com.xstream.clouddesktop.model.DesktopStatus;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Queries built at runtime, and bulk operations that go straight to JDBC.
+ */
+public interface DesktopRepositoryCustom {
+
+    /**
+     * One page of the desktop list in (createdAt, id) order, read with a
+     * keyset condition rather than an offset so that deep pages cost the same
+     * as the first.
+     *
+     * @param after     position of the last desktop of the previous page, or
+     *                  null for the first page
+     * @param ascending oldest first instead of newest first
+     */
+    List<DesktopSummary> findPage(DesktopFilter filter, DesktopCursor after, boolean ascending, int limit);
+
+    /**
+     * Moves many desktops to {@code status} in one JDBC batch. Each row only
+     * changes if it is still in the status it had when the caller read it.
+     *
+     * @param errorMessage stored on every changed desktop; null keeps the
+     *                     existing one
+     * @return ids of the desktops that were actually changed
+     */
+    List<Long> transitionAll(Collection<StatusTransition> transitions, DesktopStatus status, String statusMessage,
+            String errorMessage);
+
+    /**
+     * @param expected the status the desktop must still be in
+     */
+    record StatusTransition(Long id, DesktopStatus expected) {
+    }
+}
@@ -0,0 +1,101 @@
+package com.xstream.clouddesktop.repository;
+
+import com.xstream.clouddesktop.model.DesktopSummary;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+@RequiredArgsConstructor
+class DesktopRepositoryImpl implements DesktopRepositoryCustom {
+
+    static final String TRANSITION_SQL = "UPDATE desktops SET version = version + 1, status = ?, status_message = ?,"
+            + " error_message = COALESCE(?, error_message), updated_at = ? WHERE id = ? AND status = ?";
+
+    private static final int BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManager entityManager;
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<DesktopSummary> findPage(DesktopFilter filter, DesktopCursor after, boolean ascending, int limit) {
+        StringBuilder jpql = new StringBuilder(DesktopSummary.SELECT).append(" WHERE 1 = 1");
+        if (!filter.statuses().isEmpty()) {
+            jpql.append(" AND d.status IN :statuses");
+        }
+        if (filter.plan() != null) {
+            jpql.append(" AND d.plan = :plan");
+        }
+        if (filter.node() != null) {
+            jpql.append(" AND d.node = :node");
+        }
+        if (filter.userId() != null) {
+            jpql.append(" AND d.userId = :userId");
+        }
+        String direction = ascending ? "ASC" : "DESC";
+        if (after != null) {
+            String beyond = ascending ? ">" : "<";
+            jpql.append(" AND (d.createdAt ").append(beyond).append(" :createdAt")
+                    .append(" OR (d.createdAt = :createdAt AND d.id ").append(beyond).append(" :id))");
+        }
+        jpql.append(" ORDER BY d.createdAt ").append(direction).append(", d.id ").append(direction);
+
+        TypedQuery<DesktopSummary> query = entityManager.createQuery(jpql.toString(), DesktopSummary.class);
+        if (!filter.statuses().isEmpty()) {
+            query.setParameter("statuses", filter.statuses());
+        }
+        if (filter.plan() != null) {
+            query.setParameter("plan", filter.plan());
+        }
+        if (filter.node() != null) {
+            query.setParameter("node", filter.node());
+        }
+        if (filter.userId() != null) {
+            query.setParameter("userId", filter.userId());
+        }
+        if (after != null) {
+            query.setParameter("createdAt", after.createdAt());
+            query.setParameter("id", after.id());
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    @Override
+    public List<Long> transitionAll(Collection<StatusTransition> transitions, DesktopStatus status,
+            String statusMessage, String errorMessage) {
+        if (transitions.isEmpty()) {
+            return List.of();
+        }
+        Timestamp now = Timestamp.from(Instant.now());
+        List<StatusTransition> ordered = List.copyOf(transitions);
+        int[][] counts = jdbcTemplate.batchUpdate(TRANSITION_SQL, ordered, BATCH_SIZE, (ps, transition) -> {
+            ps.setString(1, status.name());
+            ps.setString(2, statusMessage);
+            ps.setString(3, errorMessage);
+            ps.setTimestamp(4, now);
+            ps.setLong(5, transition.id());
+            ps.setString(6, transition.expected().name());
+        });
+
+        List<Long> changed = new ArrayList<>();
+        int index = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                if (count > 0) {
+                    changed.add(ordered.get(index).id());
+                }
+                index++;
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,68 @@
+package com.xstream.clouddesktop.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The leases table. Every method is atomic on its own and is meant to run
+ * outside a transaction, so a lost race never rolls back unrelated work.
+ */
+@Repository
+@RequiredArgsConstructor
+public class LeaseRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Takes the lease if it is free, expired or already held by
+     * {@code owner}, and extends it to {@code now + ttl}.
+     *
+     * @return true if {@code owner} holds the lease now
+     */
+    public boolean tryAcquire(String name, String owner, Instant now, Duration ttl) {
+        int updated = jdbcTemplate.update("UPDATE leases SET owner = ?, acquired_at = CASE WHEN owner = ? THEN"
+                + " acquired_at ELSE ? END, expires_at = ? WHERE name = ? AND (owner = ? OR expires_at < ?)",
+                owner, owner, Timestamp.from(now), Timestamp.from(now.plus(ttl)), name, owner, Timestamp.from(now));
+        if (updated > 0) {
+            return true;
+        }
+        try {
+            return jdbcTemplate.update("INSERT INTO leases (name, owner, acquired_at, expires_at) SELECT ?, ?, ?, ?"
+                    + " WHERE NOT EXISTS (SELECT 1 FROM leases WHERE name = ?)",
+                    name, owner, Timestamp.from(now), Timestamp.from(now.plus(ttl)), name) > 0;
+        } catch (DuplicateKeyException e) {
+            return false; // Another instance inserted it first
+        }
+    }
+
+    /**
+     * Extends the lease, but only while {@code owner} still holds it.
+     *
+     * @return false if the lease was lost
+     */
+    public boolean renew(String name, String owner, Instant now, Duration ttl) {
+        return jdbcTemplate.update("UPDATE leases SET expires_at = ? WHERE name = ? AND owner = ? AND expires_at >= ?",
+                Timestamp.from(now.plus(ttl)), name, owner, Timestamp.from(now)) > 0;
+    }
+
+    public void release(String name, String owner) {
+        jdbcTemplate.update("DELETE FROM leases WHERE name = ? AND owner = ?", name, owner);
+    }
+
+    /**
+     * @return the current holder, or empty if the lease is free or expired
+     */
+    public Optional<String> findOwner(String name, Instant now) {
+        List<String> owners = jdbcTemplate.queryForList("SELECT owner FROM leases WHERE name = ? AND expires_at >= ?",
+                String.class, name, Timestamp.from(now));
+        return owners.stream().findFirst();
+    }
+}
@@ -0,0 +1,82 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.config.DesktopProperties;
+import com.xstream.clouddesktop.repository.DesktopArchiveRepository;
+import com.xstream.clouddesktop.repository.DesktopArchiveRepository.Candidate;
+import com.xstream.clouddesktop.repository.DesktopCounterRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the desktops table at the size of the live fleet by moving DELETED
+ * desktops, and desktops that stayed FAILED without ever getting a VM, to
+ * desktops_archive. A FAILED desktop that still holds a VM is kept until its
+ * user deletes it, since that delete is what destroys the VM.
+ *
+ * Each batch locks its rows, copies them and deletes them in one short
+ * transaction, together with the counter adjustments, so list totals and
+ * the table never disagree. Archived desktops remain readable by id through
+ * {@link DesktopService#getDesktop(Long)}.
+ *
+ * With several instances only the holder of the archiver lease archives.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DesktopArchiver {
+
+    static final String LEASE = "job:desktop-archiver";
+
+    private final DesktopArchiveRepository desktopArchive;
+    private final DesktopCounterRepository desktopCounters;
+    private final TransactionTemplate transactionTemplate;
+    private final DesktopProperties desktopProperties;
+    private final LeaseManager leaseManager;
+
+    @Scheduled(fixedDelayString = "${desktop.archiver.interval:PT1H}")
+    public void archive() {
+        try {
+            if (!leaseManager.tryAcquire(LEASE)) {
+                return;
+            }
+            int archived = 0;
+            int batch;
+            do {
+                batch = archiveBatch();
+                archived += batch;
+            } while (batch == desktopProperties.getArchiver().getBatchSize());
+            if (archived > 0) {
+                log.info("Archived {} desktops", archived);
+            }
+        } catch (Exception e) {
+            log.warn("Desktop archiving failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return number of desktops archived
+     */
+    int archiveBatch() {
+        DesktopProperties.Archiver archiver = desktopProperties.getArchiver();
+        Instant now = Instant.now();
+        Integer archived = transactionTemplate.execute(tx -> {
+            List<Candidate> candidates = desktopArchive.lockCandidates(now.minus(archiver.getDeletedAfter()),
+                    now.minus(archiver.getFailedAfter()), archiver.getBatchSize());
+            int moved = desktopArchive.moveToArchive(candidates.stream().map(Candidate::id).toList(), now);
+            candidates.stream()
+                    .collect(Collectors.groupingBy(Candidate::status,
+                            Collectors.groupingBy(Candidate::plan, Collectors.counting())))
+                    .forEach((status, byPlan) -> byPlan.forEach((plan, count) ->
+                            desktopCounters.adjust(status, plan, -count)));
+            return moved;
+        });
+        return archived != null ? archived : 0;
+    }
+}
@@ -0,0 +1,103 @@
+package com.xstream.clouddesktop.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.xstream.clouddesktop.config.DesktopProperties;
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.service.event.DesktopStatusChangedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Desktops as read by the GET endpoints, by id and by user, so that status
+ * polling is served from memory.
+ *
+ * Both caches are bounded by size and time. A desktop is evicted from both
+ * once a status change of it has committed; the next read loads it again.
+ * Callers get their own copy, so changing it never changes the cache.
+ *
+ * Hit, miss and eviction counts are published as the cache.* meters with
+ * cache=desktops.by-id and cache=desktops.by-user.
+ */
+@Component
+public class DesktopCache implements MeterBinder {
+
+    private final Cache<Long, Desktop> byId;
+    private final Cache<String, Desktop> byUserId;
+
+    public DesktopCache(DesktopProperties properties) {
+        DesktopProperties.Cache config = properties.getCache();
+        this.byId = Caffeine.newBuilder()
+                .maximumSize(config.getMaximumSize())
+                .expireAfterWrite(config.getTtl())
+                .recordStats()
+                .build();
+        this.byUserId = Caffeine.newBuilder()
+                .maximumSize(config.getMaximumSize())
+                .expireAfterWrite(config.getTtl())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param loader reads the desktop on a miss; misses are not cached
+     */
+    public Optional<Desktop> getById(Long desktopId, Function<Long, Optional<Desktop>> loader) {
+        return Optional.ofNullable(byId.get(desktopId, id -> loader.apply(id).orElse(null))).map(DesktopCache::copy);
+    }
+
+    /**
+     * @param loader reads the desktops missing from the cache, in one go;
+     *               ids it returns nothing for are not cached
+     * @return the desktops found, by id
+     */
+    public Map<Long, Desktop> getAllById(Collection<Long> desktopIds,
+            Function<Set<Long>, Map<Long, Desktop>> loader) {
+        Map<Long, Desktop> desktops = new HashMap<>();
+        byId.getAll(desktopIds, missing -> loader.apply(Set.copyOf(missing)))
+                .forEach((id, desktop) -> desktops.put(id, copy(desktop)));
+        return desktops;
+    }
+
+    /**
+     * @param loader reads the user's live desktop on a miss; misses are not
+     *               cached
+     */
+    public Optional<Desktop> getByUserId(String userId, Function<String, Optional<Desktop>> loader) {
+        return Optional.ofNullable(byUserId.get(userId, id -> loader.apply(id).orElse(null)))
+                .map(DesktopCache::copy);
+    }
+
+    public void evict(Long desktopId, String userId) {
+        byId.invalidate(desktopId);
+        if (userId != null) {
+            byUserId.invalidate(userId);
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStatusChanged(DesktopStatusChangedEvent event) {
+        evict(event.desktopId(), event.userId());
+    }
+
+    private static Desktop copy(Desktop desktop) {
+        return desktop.toBuilder().build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, byId, "desktops.by-id", Tags.empty());
+        CaffeineCacheMetrics.monitor(registry, byUserId, "desktops.by-user", Tags.empty());
+    }
+}
@@ -0,0 +1,192 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.client.guacamole.GuacamoleClient;
+import com.xstream.clouddesktop.client.guacamole.GuacamoleMutationBatcher;
+import com.xstream.clouddesktop.client.guacamole.dto.ConnectionResponse;
+import com.xstream.clouddesktop.client.guacamole.exception.ConnectionNotFoundException;
+import com.xstream.clouddesktop.client.guacamole.exception.GuacamoleException;
+import com.xstream.clouddesktop.config.GuacamoleProperties;
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.repository.DesktopRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Owns the Guacamole connection behind each desktop.
+ *
+ * Every user keeps one durable connection record. A new desktop reuses the
+ * record of the user's previous desktop and a restarted desktop whose IP
+ * changed is repointed, both with a single in-place update instead of a
+ * delete and a create. Deleting a desktop parks the record rather than
+ * removing it. New records go through the {@link GuacamoleMutationBatcher},
+ * so a burst of provisions shares a few PATCH requests.
+ *
+ * In ENCRYPTED_JSON mode there is no record at all: provisioning makes no
+ * Guacamole call and {@link #clientUrl(Desktop)} mints a signed connect URL
+ * from the desktop's current address each time the user connects.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DesktopConnectionManager {
+
+    /**
+     * Hostname of a parked connection. guacd refuses to connect to it, so a
+     * stale client URL cannot reach whatever VM later receives the old IP.
+     */
+    static final String PARKED_HOSTNAME = "";
+
+    private final GuacamoleClient guacamoleClient;
+    private final GuacamoleMutationBatcher mutationBatcher;
+    private final DesktopRepository desktopRepository;
+    private final GuacamoleProperties guacamoleProperties;
+
+    /**
+     * Points the user's connection at the desktop's current IP, creating it
+     * only if the user has none yet (neither on a previous desktop nor, by
+     * name, in the connection mirror), and stores protocol, connection id and
+     * client URL on the desktop. The caller saves the desktop.
+     */
+    public void attach(Desktop desktop) {
+        String protocol = determineProtocol();
+        desktop.setProtocol(protocol);
+        if (usesEncryptedJson()) {
+            return;
+        }
+
+        String connectionId = Optional.ofNullable(desktop.getConnectionId())
+                .or(() -> previousConnectionId(desktop))
+                .or(() -> guacamoleClient.getConnectionMirror().findByName(connectionName(desktop))
+                        .map(ConnectionResponse::getIdentifier))
+                .filter(id -> update(id, desktop, desktop.getVmIpAddress()))
+                .orElseGet(() -> create(desktop));
+
+        desktop.setConnectionId(connectionId);
+        desktop.setConnectionUrl(guacamoleClient.generateClientUrl(connectionId));
+    }
+
+    /**
+     * Repoints the desktop's connection after its IP changed.
+     */
+    public void repoint(Desktop desktop) {
+        if (usesEncryptedJson()) {
+            return; // The next connect URL is built from the new address
+        }
+        log.info("Repointing connection {} of desktop {} to {}", desktop.getConnectionId(), desktop.getId(),
+                desktop.getVmIpAddress());
+        attach(desktop);
+    }
+
+    /**
+     * Parks the desktop's connection so it can be reused by the user's next
+     * desktop. Failures are logged, not thrown; the next attach overwrites the
+     * record anyway.
+     */
+    public void detach(Desktop desktop) {
+        if (usesEncryptedJson() || desktop.getConnectionId() == null) {
+            return;
+        }
+        try {
+            update(desktop.getConnectionId(), desktop, PARKED_HOSTNAME);
+        } catch (Exception e) {
+            log.warn("Failed to park Guacamole connection {}", desktop.getConnectionId(), e);
+        }
+    }
+
+    /**
+     * The URL the user opens to reach the desktop. Stored at provisioning in
+     * API mode; freshly minted (and short-lived) in ENCRYPTED_JSON mode.
+     */
+    public String clientUrl(Desktop desktop) {
+        if (!usesEncryptedJson()) {
+            return desktop.getConnectionUrl();
+        }
+        String protocol = desktop.getProtocol() != null ? desktop.getProtocol() : determineProtocol();
+        Map<String, String> parameters = new HashMap<>(parameters(protocol));
+        parameters.put("hostname", desktop.getVmIpAddress());
+        parameters.put("port", String.valueOf(port(protocol, desktop.getVmId())));
+        return guacamoleClient.generateEncryptedJsonUrl(desktop.getUserId(), connectionName(desktop),
+                protocol.toLowerCase(), parameters);
+    }
+
+    private boolean usesEncryptedJson() {
+        return guacamoleProperties.getConnectionMode() == GuacamoleProperties.ConnectionMode.ENCRYPTED_JSON;
+    }
+
+    private Optional<String> previousConnectionId(Desktop desktop) {
+        return desktopRepository
+                .findFirstByUserIdAndConnectionIdIsNotNullOrderByCreatedAtDesc(desktop.getUserId())
+                .map(Desktop::getConnectionId);
+    }
+
+    /**
+     * @return false if the connection no longer exists in Guacamole
+     */
+    private boolean update(String connectionId, Desktop desktop, String hostname) {
+        String protocol = desktop.getProtocol() != null ? desktop.getProtocol() : determineProtocol();
+        try {
+            guacamoleClient.updateConnection(connectionId, connectionName(desktop), protocol.toLowerCase(),
+                    hostname, port(protocol, desktop.getVmId()), parameters(protocol));
+            log.info("Updated Guacamole connection {} for desktop {}", connectionId, desktop.getId());
+            return true;
+        } catch (ConnectionNotFoundException e) {
+            log.info("Guacamole connection {} is gone, creating a new one", connectionId);
+            return false;
+        }
+    }
+
+    private String create(Desktop desktop) {
+        String protocol = desktop.getProtocol();
+        String guacamoleProtocol = "spice".equalsIgnoreCase(protocol) || "vnc".equalsIgnoreCase(protocol)
+                ? protocol.toLowerCase()
+                : "rdp"; // Default to RDP
+        String ipAddress = desktop.getVmIpAddress();
+
+        log.info("Creating Guacamole connection for VM {} at {}", desktop.getVmId(), ipAddress);
+        String connectionId;
+        try {
+            connectionId = mutationBatcher.addConnection(connectionName(desktop), guacamoleProtocol, ipAddress,
+                    port(protocol, desktop.getVmId()), parameters(protocol)).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        if (connectionId == null) {
+            throw new GuacamoleException("Guacamole did not return an identifier for connection "
+                    + connectionName(desktop));
+        }
+        return connectionId;
+    }
+
+    private static String connectionName(Desktop desktop) {
+        return "desktop-" + desktop.getUserId();
+    }
+
+    private static Map<String, String> parameters(String protocol) {
+        if ("spice".equalsIgnoreCase(protocol) || "vnc".equalsIgnoreCase(protocol)) {
+            return GuacamoleClient.defaultParameters(protocol, null, null);
+        }
+        return GuacamoleClient.defaultParameters("rdp", "user", "password"); // Placeholder creds
+    }
+
+    private static Integer port(String protocol, Integer vmId) {
+        if ("spice".equalsIgnoreCase(protocol)) {
+            // Placeholder convention for the POC: 61000 + (vmId % 1000). Proxmox assigns
+            // SPICE ports dynamically; the proper source is the spiceproxy API.
+            return 61000 + (vmId % 1000);
+        } else if ("vnc".equalsIgnoreCase(protocol)) {
+            return 5900;
+        }
+        return 3389;
+    }
+
+    private String determineProtocol() {
+        String defaultProtocol = guacamoleProperties.getDefaultProtocol();
+        return defaultProtocol != null ? defaultProtocol : "spice";
+    }
+}
@@ -0,0 +1,129 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.config.DesktopProperties;
+import com.xstream.clouddesktop.repository.DesktopEventRepository;
+import com.xstream.clouddesktop.service.event.DesktopStatusChangedEvent;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes status transitions to the desktop_events table off the request
+ * path.
+ *
+ * Events are picked up once the transition has committed and put in a
+ * bounded in-memory buffer, which a background thread drains in JDBC
+ * batches every desktop.events.flush-interval, or as soon as a full batch is
+ * waiting. The log is for analytics only: when the buffer is full, or a
+ * batch cannot be written, events are dropped and counted rather than
+ * slowing down or failing the lifecycle operation.
+ */
+@Slf4j
+@Component
+public class DesktopEventRecorder implements MeterBinder {
+
+    private final DesktopEventRepository eventRepository;
+    private final BlockingQueue<DesktopStatusChangedEvent> buffer;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+    private final Object flushLock = new Object();
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public DesktopEventRecorder(DesktopEventRepository eventRepository, DesktopProperties properties) {
+        DesktopProperties.Events config = properties.getEvents();
+        this.eventRepository = eventRepository;
+        this.buffer = new ArrayBlockingQueue<>(config.getBufferCapacity());
+        this.batchSize = Math.max(1, config.getBatchSize());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "desktop-event-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = config.getFlushInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStatusChanged(DesktopStatusChangedEvent event) {
+        if (!buffer.offer(event)) {
+            if (dropped.getAndIncrement() % 1000 == 0) {
+                log.warn("Desktop event buffer is full; dropping events ({} so far)", dropped.get());
+            }
+            return;
+        }
+        if (buffer.size() == batchSize) {
+            scheduler.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Writes everything buffered so far on the calling thread.
+     *
+     * @return number of events written
+     */
+    public int flush() {
+        synchronized (flushLock) {
+            int written = 0;
+            List<DesktopStatusChangedEvent> batch = new ArrayList<>(batchSize);
+            for (; buffer.drainTo(batch, batchSize) > 0; batch = new ArrayList<>(batchSize)) {
+                try {
+                    eventRepository.insertAll(batch);
+                    written += batch.size();
+                    recorded.addAndGet(batch.size());
+                } catch (RuntimeException e) {
+                    failed.addAndGet(batch.size());
+                    log.warn("Failed to write {} desktop events: {}", batch.size(), e.getMessage());
+                }
+            }
+            return written;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindCounter(registry, "recorded", recorded, "Events written to desktop_events");
+        bindCounter(registry, "dropped", dropped, "Events dropped because the buffer was full");
+        bindCounter(registry, "failed", failed, "Events lost because their batch could not be written");
+        Gauge.builder("desktop.events.buffered", buffer, BlockingQueue::size)
+                .description("Events waiting to be written")
+                .register(registry);
+    }
+
+    private void bindCounter(MeterRegistry registry, String outcome, AtomicLong counter, String description) {
+        FunctionCounter.builder("desktop.events", counter, AtomicLong::get)
+                .description(description)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Unexpected error flushing desktop events", e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.service.exception.DesktopBusyException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The lifecycle operation running on each desktop, at most one per desktop.
+ *
+ * A second operation on a busy desktop is refused up front with a
+ * {@link DesktopBusyException}, before it reads the desktop or calls
+ * Proxmox, instead of interleaving with the first. Operations on different
+ * desktops never wait for each other.
+ *
+ * Across instances an operation also claims the desktop's lease, so the
+ * same desktop is refused on every other instance while it runs. If the
+ * instance dies the lease expires, and the reconciler fails the desktop
+ * once it has been stuck long enough.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DesktopOperations {
+
+    private final LeaseManager leaseManager;
+    private final Map<Long, Operation> running = new ConcurrentHashMap<>();
+
+    /**
+     * @param operation name of the operation, e.g. STOP, for messages
+     * @return handle that ends the operation when closed
+     * @throws DesktopBusyException if another operation is running on the desktop
+     */
+    public Operation begin(Long desktopId, String operation) {
+        Operation started = new Operation(desktopId, operation);
+        Operation other = running.putIfAbsent(desktopId, started);
+        if (other != null) {
+            throw new DesktopBusyException(desktopId, operation, other.name);
+        }
+        boolean claimed;
+        try {
+            claimed = leaseManager.tryAcquire(lease(desktopId));
+        } catch (RuntimeException e) {
+            running.remove(desktopId, started);
+            throw e;
+        }
+        if (!claimed) {
+            running.remove(desktopId, started);
+            throw new DesktopBusyException(desktopId, operation, "an operation on another instance");
+        }
+        return started;
+    }
+
+    /**
+     * @return the operation running on the desktop, or null
+     */
+    public String running(Long desktopId) {
+        Operation operation = running.get(desktopId);
+        return operation != null ? operation.name : null;
+    }
+
+    /**
+     * Whether an operation is running on the desktop, here or, going by the
+     * desktop's lease, on another instance.
+     */
+    public boolean isBusy(Long desktopId) {
+        return running.containsKey(desktopId) || leaseManager.getOwner(lease(desktopId)).isPresent();
+    }
+
+    static String lease(Long desktopId) {
+        return "desktop:" + desktopId;
+    }
+
+    public final class Operation implements AutoCloseable {
+        private final Long desktopId;
+        private final String name;
+
+        private Operation(Long desktopId, String name) {
+            this.desktopId = desktopId;
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            if (!running.remove(desktopId, this)) {
+                return;
+            }
+            try {
+                leaseManager.release(lease(desktopId));
+            } catch (RuntimeException e) {
+                // The lease expires on its own
+                log.warn("Failed to release lease of desktop {}: {}", desktopId, e.getMessage());
+            }
+        }
+    }
+}
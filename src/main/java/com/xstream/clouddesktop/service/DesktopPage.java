@@ -0,0 +1,15 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.model.DesktopSummary;
+
+import java.util.List;
+
+/**
+ * One page of the desktop list.
+ *
+ * @param nextCursor where the next page starts, or null if this is the last
+ * @param total      desktops matching the filter on all pages, or null if the
+ *                   filter is not backed by a counter
+ */
+public record DesktopPage(List<DesktopSummary> desktops, String nextCursor, Long total) {
+}
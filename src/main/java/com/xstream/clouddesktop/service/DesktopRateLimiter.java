@@ -0,0 +1,169 @@
+package com.xstream.clouddesktop.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.xstream.clouddesktop.config.DesktopProperties;
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.service.exception.RateLimitExceededException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets that cap how often a user, and optionally a tenant, may call
+ * the lifecycle endpoints, so a script looping over start and stop cannot
+ * keep Proxmox busy cloning and booting.
+ *
+ * A user's bucket follows the limit of the desktop's plan; plans without a
+ * configured limit are not limited. A request with a tenant also takes a
+ * token from the tenant's bucket, shared by all of its users. Idle buckets
+ * are dropped, which is the same as refilling them.
+ *
+ * Buckets are per instance, so behind a load balancer each instance allows
+ * the full rate. Rejections are counted as desktop.rate_limit.rejected.
+ */
+@Slf4j
+@Component
+public class DesktopRateLimiter implements MeterBinder {
+
+    private final DesktopProperties.RateLimits config;
+    private final LongSupplier nanoTime;
+    private final Cache<String, TokenBucket> buckets;
+
+    private final Map<DesktopPlan, AtomicLong> rejectedUsers = new EnumMap<>(DesktopPlan.class);
+    private final AtomicLong rejectedTenants = new AtomicLong();
+
+    @Autowired
+    public DesktopRateLimiter(DesktopProperties properties) {
+        this(properties, System::nanoTime);
+    }
+
+    DesktopRateLimiter(DesktopProperties properties, LongSupplier nanoTime) {
+        this.config = properties.getRateLimits();
+        this.nanoTime = nanoTime;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(config.getMaximumBuckets())
+                .expireAfterAccess(config.getIdleAfter())
+                .build();
+        for (DesktopPlan plan : DesktopPlan.values()) {
+            rejectedUsers.put(plan, new AtomicLong());
+        }
+    }
+
+    /**
+     * Takes a token for a request on an existing desktop.
+     *
+     * @throws RateLimitExceededException if the desktop's user or the tenant
+     *                                    has none left
+     */
+    public void acquire(Desktop desktop, String tenantId) {
+        acquire(desktop.getUserId(), desktop.getPlan(), tenantId);
+    }
+
+    /**
+     * @param tenantId may be null, in which case only the user is limited
+     * @throws RateLimitExceededException if the user or the tenant has no
+     *                                    token left
+     */
+    public void acquire(String userId, DesktopPlan plan, String tenantId) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        long now = nanoTime.getAsLong();
+        DesktopProperties.Limit userLimit = plan != null ? config.getPlans().get(plan) : null;
+        TokenBucket user = null;
+        if (userLimit != null) {
+            user = buckets.get("user:" + userId, key -> new TokenBucket(userLimit, now));
+            long waitNanos = user.tryConsume(userLimit, now);
+            if (waitNanos > 0) {
+                rejectedUsers.get(plan).incrementAndGet();
+                log.warn("Rate limit of user {} ({} plan) exceeded", userId, plan);
+                throw new RateLimitExceededException("user " + userId, retryAfter(waitNanos), userId);
+            }
+        }
+
+        DesktopProperties.Limit tenantLimit = config.getTenant();
+        if (tenantId != null && tenantLimit != null) {
+            TokenBucket tenant = buckets.get("tenant:" + tenantId, key -> new TokenBucket(tenantLimit, now));
+            long waitNanos = tenant.tryConsume(tenantLimit, now);
+            if (waitNanos > 0) {
+                if (user != null) {
+                    user.refund(userLimit); // The request was not made, so it does not count for the user
+                }
+                rejectedTenants.incrementAndGet();
+                log.warn("Rate limit of tenant {} exceeded by user {}", tenantId, userId);
+                throw new RateLimitExceededException("tenant " + tenantId, retryAfter(waitNanos), userId);
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        rejectedUsers.forEach((plan, counter) -> bindRejected(registry, counter, "user", plan.name()));
+        bindRejected(registry, rejectedTenants, "tenant", "none");
+        Gauge.builder("desktop.rate_limit.buckets", buckets, Cache::estimatedSize)
+                .description("Users and tenants with a token bucket")
+                .register(registry);
+    }
+
+    private static void bindRejected(MeterRegistry registry, AtomicLong counter, String scope, String plan) {
+        FunctionCounter.builder("desktop.rate_limit.rejected", counter, AtomicLong::get)
+                .description("Lifecycle requests rejected with 429")
+                .tag("scope", scope)
+                .tag("plan", plan)
+                .register(registry);
+    }
+
+    /**
+     * Whole seconds, rounded up, as Retry-After takes them.
+     */
+    private static Duration retryAfter(long waitNanos) {
+        return Duration.ofSeconds(Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)
+                / TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /**
+     * Holds up to capacity tokens and gains one every refill interval. The
+     * limit is passed on every call, so a changed limit applies at once.
+     */
+    static class TokenBucket {
+        private double tokens;
+        private long refilledAt;
+
+        TokenBucket(DesktopProperties.Limit limit, long now) {
+            this.tokens = limit.getCapacity();
+            this.refilledAt = now;
+        }
+
+        /**
+         * @return 0 if a token was taken, otherwise the nanoseconds until
+         *         one is available
+         */
+        synchronized long tryConsume(DesktopProperties.Limit limit, long now) {
+            long intervalNanos = Math.max(1, limit.getRefillInterval().toNanos());
+            tokens = Math.min(limit.getCapacity(), tokens + (double) (now - refilledAt) / intervalNanos);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens--;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) * intervalNanos);
+        }
+
+        synchronized void refund(DesktopProperties.Limit limit) {
+            tokens = Math.min(limit.getCapacity(), tokens + 1);
+        }
+    }
+}
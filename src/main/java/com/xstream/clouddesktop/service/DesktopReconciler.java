@@ -0,0 +1,123 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.config.DesktopProperties;
+import com.xstream.clouddesktop.config.ProxmoxProperties;
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.repository.DesktopCounterRepository;
+import com.xstream.clouddesktop.repository.DesktopRepository;
+import com.xstream.clouddesktop.repository.DesktopRepositoryCustom.StatusTransition;
+import com.xstream.clouddesktop.service.event.DesktopStatusChangedEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Fails desktops that have sat in a transitional status for longer than any
+ * operation takes, typically because the application restarted in the middle
+ * of provisioning, starting, stopping or deleting them.
+ *
+ * All stuck desktops of a sweep are failed in one JDBC batch. Each update is
+ * guarded by the status the sweep read, so a desktop whose operation finished
+ * in the meantime keeps its new status.
+ *
+ * On startup it also rebuilds the desktop counters, which only drift if rows
+ * were changed outside the application.
+ *
+ * With several instances only the holder of the reconciler lease sweeps, and
+ * only an instance that gets the lease at startup recounts.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DesktopReconciler {
+
+    static final Set<DesktopStatus> TRANSITIONAL = EnumSet.of(DesktopStatus.PENDING, DesktopStatus.PROVISIONING,
+            DesktopStatus.STARTING, DesktopStatus.WAITING_FOR_IP, DesktopStatus.CONFIGURING,
+            DesktopStatus.STOPPING, DesktopStatus.DELETING);
+
+    static final String LEASE = "job:desktop-reconciler";
+
+    private final DesktopRepository desktopRepository;
+    private final DesktopCounterRepository desktopCounters;
+    private final TransactionTemplate transactionTemplate;
+    private final DesktopProperties desktopProperties;
+    private final ProxmoxProperties proxmoxProperties;
+    private final ApplicationEventPublisher eventPublisher;
+    private final LeaseManager leaseManager;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recountDesktops() {
+        try {
+            if (leaseManager.tryAcquire(LEASE)) {
+                desktopCounters.recount();
+            }
+        } catch (Exception e) {
+            log.warn("Desktop recount failed: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${desktop.reconciler.interval:PT1M}")
+    public void sweep() {
+        try {
+            if (!leaseManager.tryAcquire(LEASE)) {
+                return;
+            }
+            int failed = failStuckDesktops();
+            if (failed > 0) {
+                log.warn("Marked {} stuck desktops as FAILED", failed);
+            }
+        } catch (Exception e) {
+            log.warn("Desktop reconciliation failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return number of desktops marked FAILED
+     */
+    int failStuckDesktops() {
+        Instant cutoff = Instant.now().minus(desktopProperties.getReconciler().getStuckAfter());
+        List<Desktop> stuck = desktopRepository.findAllByStatusInAndUpdatedAtBefore(TRANSITIONAL, cutoff);
+        if (stuck.isEmpty()) {
+            return 0;
+        }
+
+        List<StatusTransition> transitions = stuck.stream()
+                .map(desktop -> new StatusTransition(desktop.getId(), desktop.getStatus()))
+                .toList();
+        Set<Long> failed = transactionTemplate.execute(tx -> {
+            Set<Long> transitioned = Set.copyOf(desktopRepository.transitionAll(transitions, DesktopStatus.FAILED,
+                    DesktopService.getStatusMessage(DesktopStatus.FAILED),
+                    "Operation did not complete within " + desktopProperties.getReconciler().getStuckAfter()));
+            for (Desktop desktop : stuck) {
+                if (transitioned.contains(desktop.getId())) {
+                    desktopCounters.move(desktop.getPlan(), desktop.getStatus(), DesktopStatus.FAILED);
+                }
+            }
+            return transitioned;
+        });
+        Instant now = Instant.now();
+        for (Desktop desktop : stuck) {
+            if (failed.contains(desktop.getId())) {
+                log.warn("Desktop {} was stuck in {} since {}", desktop.getId(), desktop.getStatus(),
+                        desktop.getUpdatedAt());
+                DesktopStatus previous = desktop.getStatus();
+                desktop.setStatus(DesktopStatus.FAILED);
+                desktop.setStatusMessage(DesktopService.getStatusMessage(DesktopStatus.FAILED));
+                eventPublisher.publishEvent(DesktopStatusChangedEvent.of(desktop, previous, desktop.getUpdatedAt(),
+                        now, desktop.getNode() != null ? desktop.getNode() : proxmoxProperties.getNode(), null));
+            }
+        }
+        return failed.size();
+    }
+}
@@ -0,0 +1,116 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.config.DesktopProperties;
+import com.xstream.clouddesktop.repository.LeaseRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This instance's side of the leases in the database, which let several
+ * instances share one database without doing the same work twice.
+ *
+ * A singleton background job runs only on the instance that holds its lease
+ * ({@link #tryAcquire} at the start of every run). Leases held here are
+ * renewed by a heartbeat, so the holder keeps them as long as it is alive;
+ * if it dies, they expire after desktop.leases.ttl and the next instance to
+ * ask takes over.
+ *
+ * Lease times come from each instance's clock, so the TTL must be well above
+ * the clock skew between instances.
+ */
+@Slf4j
+@Component
+public class LeaseManager {
+
+    private final LeaseRepository leaseRepository;
+    private final Duration ttl;
+    private final String owner;
+    private final Set<String> held = ConcurrentHashMap.newKeySet();
+
+    public LeaseManager(LeaseRepository leaseRepository, DesktopProperties properties) {
+        DesktopProperties.Leases config = properties.getLeases();
+        this.leaseRepository = leaseRepository;
+        this.ttl = config.getTtl();
+        this.owner = config.getInstanceId() != null && !config.getInstanceId().isBlank() ? config.getInstanceId()
+                : defaultInstanceId();
+    }
+
+    /**
+     * Takes the lease, or keeps it if this instance already holds it.
+     *
+     * @return true if this instance holds the lease
+     */
+    public boolean tryAcquire(String name) {
+        boolean acquired = leaseRepository.tryAcquire(name, owner, Instant.now(), ttl);
+        if (acquired) {
+            if (held.add(name)) {
+                log.debug("Acquired lease {}", name);
+            }
+        } else {
+            held.remove(name);
+        }
+        return acquired;
+    }
+
+    public void release(String name) {
+        held.remove(name);
+        leaseRepository.release(name, owner);
+    }
+
+    @Scheduled(fixedDelayString = "${desktop.leases.heartbeat-interval:PT10S}")
+    public void heartbeat() {
+        for (String name : List.copyOf(held)) {
+            try {
+                if (!leaseRepository.renew(name, owner, Instant.now(), ttl)) {
+                    held.remove(name);
+                    log.warn("Lost lease {}", name);
+                }
+            } catch (Exception e) {
+                log.warn("Failed to renew lease {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Hands every lease back on shutdown, so other instances take over
+     * without waiting for them to expire.
+     */
+    @PreDestroy
+    public void releaseAll() {
+        for (String name : List.copyOf(held)) {
+            try {
+                release(name);
+            } catch (Exception e) {
+                log.debug("Failed to release lease {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the instance holding the lease, or empty if it is free or expired
+     */
+    public Optional<String> getOwner(String name) {
+        return leaseRepository.findOwner(name, Instant.now());
+    }
+
+    private static String defaultInstanceId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "instance";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
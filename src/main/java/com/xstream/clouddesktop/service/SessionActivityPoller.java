@@ -0,0 +1,166 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.client.guacamole.GuacamoleClient;
+import com.xstream.clouddesktop.client.guacamole.dto.ActiveConnection;
+import com.xstream.clouddesktop.client.guacamole.dto.ConnectionHistoryEntry;
+import com.xstream.clouddesktop.config.GuacamoleProperties;
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.repository.DesktopRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Feeds real session activity from Guacamole into the desktops table.
+ *
+ * Each cycle reads the open sessions and the connection history, keeps only
+ * history entries newer than the high-water mark of the previous cycle, and
+ * writes lastAccessedAt and the session counters of every affected desktop
+ * in a single JDBC batch instead of one update per desktop.
+ *
+ * The mark lives in memory and starts at the latest lastAccessedAt in the
+ * database, so a restart neither recounts old sessions nor skips many new
+ * ones. Only API connection mode is covered; encrypted-JSON sessions are not
+ * tied to stored connections.
+ *
+ * With several instances only the holder of the poller lease polls; the
+ * session counters are additive, so two pollers would count every session
+ * twice. An instance that takes the lease over reloads the mark from the
+ * database, where the previous holder left it.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SessionActivityPoller {
+
+    static final String LEASE = "job:session-activity-poller";
+
+    static final String UPDATE_ACTIVITY_SQL = "UPDATE desktops SET last_accessed_at = ?,"
+            + " session_count = COALESCE(session_count, 0) + ?, active_sessions = ? WHERE id = ?";
+
+    private final GuacamoleClient guacamoleClient;
+    private final DesktopRepository desktopRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final GuacamoleProperties guacamoleProperties;
+    private final LeaseManager leaseManager;
+
+    private Instant highWaterMark;
+    private boolean leading;
+
+    @Scheduled(fixedDelayString = "${guacamole.activity.poll-interval:PT1M}")
+    public void poll() {
+        if (guacamoleProperties.getConnectionMode() == GuacamoleProperties.ConnectionMode.ENCRYPTED_JSON) {
+            return;
+        }
+        try {
+            if (!leaseManager.tryAcquire(LEASE)) {
+                leading = false;
+                return;
+            }
+            if (!leading) {
+                resetHighWaterMark();
+                leading = true;
+            }
+            int updated = pollOnce();
+            if (updated > 0) {
+                log.info("Recorded session activity for {} desktops", updated);
+            }
+        } catch (Exception e) {
+            log.warn("Session activity poll failed: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void resetHighWaterMark() {
+        highWaterMark = null;
+    }
+
+    /**
+     * @return number of desktops updated
+     */
+    synchronized int pollOnce() {
+        Instant now = Instant.now();
+        if (highWaterMark == null) {
+            highWaterMark = desktopRepository.findLatestAccess().orElse(Instant.EPOCH);
+        }
+
+        Map<String, ConnectionActivity> activity = new HashMap<>();
+        for (ActiveConnection active : guacamoleClient.listActiveConnections().values()) {
+            ConnectionActivity connection = activity.computeIfAbsent(active.getConnectionIdentifier(),
+                    id -> new ConnectionActivity());
+            connection.activeSessions++;
+            connection.touch(now);
+        }
+
+        Instant newMark = highWaterMark;
+        for (ConnectionHistoryEntry entry : guacamoleClient.listConnectionHistory()) {
+            if (entry.getStartDate() == null) {
+                continue;
+            }
+            Instant started = Instant.ofEpochMilli(entry.getStartDate());
+            if (!started.isAfter(highWaterMark)) {
+                break; // Newest first, so everything from here on was seen in an earlier cycle
+            }
+            ConnectionActivity connection = activity.computeIfAbsent(entry.getConnectionIdentifier(),
+                    id -> new ConnectionActivity());
+            connection.newSessions++;
+            connection.touch(entry.getEndDate() != null ? Instant.ofEpochMilli(entry.getEndDate()) : now);
+            if (started.isAfter(newMark)) {
+                newMark = started;
+            }
+        }
+
+        List<Object[]> batch = new ArrayList<>();
+        Set<Long> written = new HashSet<>();
+        if (!activity.isEmpty()) {
+            for (Desktop desktop : desktopRepository.findAllByConnectionIdInAndStatusNot(activity.keySet(),
+                    DesktopStatus.DELETED)) {
+                ConnectionActivity connection = activity.get(desktop.getConnectionId());
+                Instant lastAccessed = desktop.getLastAccessedAt() != null
+                        && desktop.getLastAccessedAt().isAfter(connection.lastAccessed)
+                                ? desktop.getLastAccessedAt()
+                                : connection.lastAccessed;
+                batch.add(new Object[] { Timestamp.from(lastAccessed), connection.newSessions,
+                        connection.activeSessions, desktop.getId() });
+                written.add(desktop.getId());
+            }
+        }
+
+        // Desktops whose sessions all closed since the last cycle
+        for (Desktop desktop : desktopRepository.findAllByActiveSessionsGreaterThan(0)) {
+            if (!written.contains(desktop.getId())) {
+                Instant lastAccessed = desktop.getLastAccessedAt() != null ? desktop.getLastAccessedAt() : now;
+                batch.add(new Object[] { Timestamp.from(lastAccessed), 0, 0, desktop.getId() });
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPDATE_ACTIVITY_SQL, batch);
+        }
+        highWaterMark = newMark;
+        return batch.size();
+    }
+
+    private static class ConnectionActivity {
+        private int activeSessions;
+        private int newSessions;
+        private Instant lastAccessed = Instant.EPOCH;
+
+        private void touch(Instant at) {
+            if (at.isAfter(lastAccessed)) {
+                lastAccessed = at;
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.xstream.clouddesktop.service.event;
+
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Published after a desktop's status was written.
+ *
+ * @param previousStatus null when the desktop was just created
+ * @param statusMessage  the message written with the new status
+ * @param stageDuration  time spent in {@code previousStatus}, if known
+ * @param node           Proxmox node the desktop lives on
+ * @param upid           Proxmox task that completed the stage, if any
+ */
+public record DesktopStatusChangedEvent(Long desktopId, String userId, DesktopPlan plan,
+        DesktopStatus previousStatus, DesktopStatus status, String statusMessage, Instant occurredAt,
+        Duration stageDuration, String node, String upid) {
+
+    /**
+     * @param desktop    already carrying the new status and status message
+     * @param stageStart when the desktop entered {@code previousStatus}
+     */
+    public static DesktopStatusChangedEvent of(Desktop desktop, DesktopStatus previousStatus, Instant stageStart,
+            Instant occurredAt, String node, String upid) {
+        Duration stageDuration = stageStart != null ? Duration.between(stageStart, occurredAt) : null;
+        return new DesktopStatusChangedEvent(desktop.getId(), desktop.getUserId(), desktop.getPlan(), previousStatus,
+                desktop.getStatus(), desktop.getStatusMessage(), occurredAt, stageDuration, node, upid);
+    }
+}
@@ -0,0 +1,11 @@
+package com.xstream.clouddesktop.service.exception;
+
+/**
+ * Another operation on the desktop is still running.
+ */
+public class DesktopBusyException extends DesktopException {
+    public DesktopBusyException(Long desktopId, String operation, String running) {
+        super("Cannot " + operation + " desktop " + desktopId + " while " + running + " is in progress", desktopId,
+                null);
+    }
+}
@@ -0,0 +1,13 @@
+package com.xstream.clouddesktop.service.exception;
+
+import com.xstream.clouddesktop.model.DesktopStatus;
+
+/**
+ * The desktop left the status an operation expected while the operation was
+ * running, e.g. it was deleted or failed by the reconciler meanwhile.
+ */
+public class DesktopStatusChangedException extends DesktopException {
+    public DesktopStatusChangedException(Long desktopId, DesktopStatus expected, DesktopStatus target) {
+        super("Desktop " + desktopId + " is no longer " + expected + "; not moving it to " + target, desktopId, null);
+    }
+}
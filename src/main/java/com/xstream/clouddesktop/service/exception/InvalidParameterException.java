@@ -0,0 +1,10 @@
+package com.xstream.clouddesktop.service.exception;
+
+/**
+ * A request parameter has a value the operation cannot use.
+ */
+public class InvalidParameterException extends DesktopException {
+    public InvalidParameterException(String parameter, String value) {
+        super("Invalid value for " + parameter + ": " + value);
+    }
+}
@@ -0,0 +1,18 @@
+package com.xstream.clouddesktop.service.exception;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * A user or tenant made more lifecycle requests than its rate limit allows.
+ */
+@Getter
+public class RateLimitExceededException extends DesktopException {
+    private final Duration retryAfter;
+
+    public RateLimitExceededException(String limited, Duration retryAfter, String userId) {
+        super("Too many requests for " + limited + "; retry in " + retryAfter.toSeconds() + " s", null, userId);
+        this.retryAfter = retryAfter;
+    }
+}
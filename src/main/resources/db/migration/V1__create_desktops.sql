@@ -0,0 +1,26 @@
+-- Baseline: the desktops table as Hibernate used to generate it
+CREATE TABLE desktops (
+    id               BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    user_id          VARCHAR(255)  NOT NULL,
+    name             VARCHAR(255)  NOT NULL,
+    vm_id            INTEGER,
+    vm_ip_address    VARCHAR(255),
+    connection_id    VARCHAR(255),
+    connection_url   VARCHAR(1024),
+    protocol         VARCHAR(255),
+    status           VARCHAR(255)  NOT NULL CHECK (status IN ('PENDING', 'PROVISIONING', 'STARTING',
+                         'WAITING_FOR_IP', 'CONFIGURING', 'RUNNING', 'STOPPING', 'STOPPED', 'DELETING',
+                         'DELETED', 'FAILED')),
+    status_message   VARCHAR(255),
+    plan             VARCHAR(255)  NOT NULL CHECK (plan IN ('BASIC', 'STANDARD', 'PREMIUM')),
+    cpu_cores        INTEGER,
+    memory_mb        INTEGER,
+    created_at       TIMESTAMP(6) WITH TIME ZONE,
+    updated_at       TIMESTAMP(6) WITH TIME ZONE,
+    last_accessed_at TIMESTAMP(6) WITH TIME ZONE,
+    session_count    INTEGER,
+    active_sessions  INTEGER,
+    expires_at       TIMESTAMP(6) WITH TIME ZONE,
+    error_message    VARCHAR(2048),
+    PRIMARY KEY (id)
+);
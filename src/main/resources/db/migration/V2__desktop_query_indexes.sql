@@ -0,0 +1,25 @@
+-- Indexes for the DesktopRepository access paths
+
+-- findByUserIdAndStatusNot, findByUserIdAndStatus
+CREATE INDEX idx_desktops_user_status ON desktops (user_id, status);
+
+-- findAllByUserIdOrderByCreatedAtDesc, findFirstByUserIdAndConnectionIdIsNotNullOrderByCreatedAtDesc
+CREATE INDEX idx_desktops_user_created ON desktops (user_id, created_at);
+
+-- findAllByStatus, findAllByStatusIn
+CREATE INDEX idx_desktops_status ON desktops (status);
+
+-- findByVmId
+CREATE INDEX idx_desktops_vm_id ON desktops (vm_id);
+
+-- findFirstByConnectionIdOrderByCreatedAtDesc, findAllByConnectionIdInAndStatusNot
+CREATE INDEX idx_desktops_connection_created ON desktops (connection_id, created_at);
+
+-- findAllByExpiresAtBeforeAndStatusNot
+CREATE INDEX idx_desktops_expires_at ON desktops (expires_at);
+
+-- findAllByActiveSessionsGreaterThan; almost every row is 0 or NULL
+CREATE INDEX idx_desktops_active_sessions ON desktops (active_sessions);
+
+-- findLatestAccess
+CREATE INDEX idx_desktops_last_accessed ON desktops (last_accessed_at);
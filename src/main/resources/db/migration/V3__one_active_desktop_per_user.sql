@@ -0,0 +1,11 @@
+-- At most one desktop per user that is not DELETED.
+--
+-- H2 has no partial indexes, so the constraint is a unique index on a
+-- generated column that holds the user id while the desktop is live and NULL
+-- once it is DELETED (unique indexes accept any number of NULLs). On
+-- PostgreSQL the equivalent is:
+--   CREATE UNIQUE INDEX uk_desktops_active_user ON desktops (user_id) WHERE status <> 'DELETED';
+ALTER TABLE desktops ADD COLUMN active_user_id VARCHAR(255)
+    GENERATED ALWAYS AS (CASE WHEN status <> 'DELETED' THEN user_id END);
+
+CREATE UNIQUE INDEX uk_desktops_active_user ON desktops (active_user_id);
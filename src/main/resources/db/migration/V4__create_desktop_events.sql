@@ -0,0 +1,23 @@
+-- Append-only log of desktop status transitions, for stage latency analytics.
+-- Rows are only ever inserted (in batches) and never updated; there is no
+-- foreign key to desktops so inserts take no lock on the desktop row.
+CREATE TABLE desktop_events (
+    id                BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    desktop_id        BIGINT        NOT NULL,
+    user_id           VARCHAR(255)  NOT NULL,
+    plan              VARCHAR(32),
+    from_status       VARCHAR(32),
+    to_status         VARCHAR(32)   NOT NULL,
+    occurred_at       TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+    -- Time spent in from_status
+    stage_duration_ms BIGINT,
+    node              VARCHAR(255),
+    upid              VARCHAR(255),
+    PRIMARY KEY (id)
+);
+
+-- History of one desktop
+CREATE INDEX idx_desktop_events_desktop ON desktop_events (desktop_id, occurred_at);
+
+-- Stage percentiles over a time window
+CREATE INDEX idx_desktop_events_occurred ON desktop_events (occurred_at, from_status, plan);
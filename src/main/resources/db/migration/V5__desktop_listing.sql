@@ -0,0 +1,26 @@
+-- Keyset pagination of the desktop list and the counters behind its totals
+
+ALTER TABLE desktops ADD COLUMN node VARCHAR(255);
+
+-- Unfiltered pages, newest or oldest first
+CREATE INDEX idx_desktops_created_id ON desktops (created_at, id);
+
+-- Pages filtered by status; also serves every lookup idx_desktops_status did
+CREATE INDEX idx_desktops_status_created_id ON desktops (status, created_at, id);
+DROP INDEX idx_desktops_status;
+
+-- Number of desktops per status and plan, kept current by the application in
+-- the same transaction as each insert and status change. One row per
+-- combination exists up front, so maintaining a count is a single UPDATE.
+CREATE TABLE desktop_counters (
+    status   VARCHAR(32) NOT NULL,
+    plan     VARCHAR(32) NOT NULL,
+    desktops BIGINT      NOT NULL,
+    PRIMARY KEY (status, plan)
+);
+
+INSERT INTO desktop_counters (status, plan, desktops)
+SELECT s.status, p.plan, (SELECT COUNT(*) FROM desktops d WHERE d.status = s.status AND d.plan = p.plan)
+FROM (VALUES ('PENDING'), ('PROVISIONING'), ('STARTING'), ('WAITING_FOR_IP'), ('CONFIGURING'), ('RUNNING'),
+             ('STOPPING'), ('STOPPED'), ('DELETING'), ('DELETED'), ('FAILED')) AS s (status)
+CROSS JOIN (VALUES ('BASIC'), ('STANDARD'), ('PREMIUM')) AS p (plan);
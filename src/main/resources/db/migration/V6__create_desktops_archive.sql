@@ -0,0 +1,31 @@
+-- Cold storage for desktops that are gone for good: DELETED ones and ones
+-- that stayed FAILED. The archiver moves them here in batches so that the
+-- desktops table only holds the live fleet. Same columns, no constraints
+-- beyond the key; rows are inserted once and then only read by id or user.
+CREATE TABLE desktops_archive (
+    id               BIGINT        NOT NULL,
+    user_id          VARCHAR(255)  NOT NULL,
+    name             VARCHAR(255)  NOT NULL,
+    vm_id            INTEGER,
+    node             VARCHAR(255),
+    vm_ip_address    VARCHAR(255),
+    connection_id    VARCHAR(255),
+    connection_url   VARCHAR(1024),
+    protocol         VARCHAR(255),
+    status           VARCHAR(255)  NOT NULL,
+    status_message   VARCHAR(255),
+    plan             VARCHAR(255)  NOT NULL,
+    cpu_cores        INTEGER,
+    memory_mb        INTEGER,
+    created_at       TIMESTAMP(6) WITH TIME ZONE,
+    updated_at       TIMESTAMP(6) WITH TIME ZONE,
+    last_accessed_at TIMESTAMP(6) WITH TIME ZONE,
+    session_count    INTEGER,
+    active_sessions  INTEGER,
+    expires_at       TIMESTAMP(6) WITH TIME ZONE,
+    error_message    VARCHAR(2048),
+    archived_at      TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX idx_desktops_archive_user_created ON desktops_archive (user_id, created_at);
@@ -0,0 +1,2 @@
+-- Optimistic locking: bumped by every write to a desktop's lifecycle state
+ALTER TABLE desktops ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
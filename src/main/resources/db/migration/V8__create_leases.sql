@@ -0,0 +1,11 @@
+-- Time-limited claims that coordinate instances sharing this database: the
+-- leader of each singleton background job, and the instance running an
+-- operation on a desktop. A lease is held by owner until expires_at; the
+-- owner renews it by heartbeat, and anyone may take it over once expired.
+CREATE TABLE leases (
+    name        VARCHAR(255) NOT NULL,
+    owner       VARCHAR(255) NOT NULL,
+    acquired_at TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+    expires_at  TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+    PRIMARY KEY (name)
+);
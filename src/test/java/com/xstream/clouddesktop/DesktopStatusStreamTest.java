@@ -0,0 +1,126 @@
+package com.xstream.clouddesktop;
+
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.repository.DesktopRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Follows a provision through GET /api/v1/desktops/{id}/events against the
+ * mock clients, as the bundled UI does.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:status-stream;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "logging.level.com.xstream.clouddesktop=WARN",
+        "logging.level.org.hibernate.SQL=WARN",
+        "desktop.streams.heartbeat-interval=200ms",
+        "mock.vm.clone-delay-min=1000",
+        "mock.vm.clone-delay-max=1000",
+        "mock.vm.start-delay-min=300",
+        "mock.vm.start-delay-max=300",
+        "mock.vm.ip-delay-min=300",
+        "mock.vm.ip-delay-max=300",
+        "mock.connection.create-delay=100"
+})
+@ActiveProfiles("mock")
+class DesktopStatusStreamTest {
+
+    private static final Pattern STATUS = Pattern.compile("\"status\":\"(\\w+)\"");
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private DesktopRepository desktopRepository;
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    @Test
+    void streamsEveryTransitionOfAProvision() throws Exception {
+        CompletableFuture<HttpResponse<String>> provision = http.sendAsync(
+                HttpRequest.newBuilder(uri("/api/v1/desktops"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"userId\":\"streamer\"}"))
+                        .build(), HttpResponse.BodyHandlers.ofString());
+        Long desktopId = awaitDesktop("streamer");
+
+        HttpResponse<Stream<String>> stream = http.send(HttpRequest.newBuilder(uri("/api/v1/desktops/" + desktopId
+                + "/events")).header("Accept", "text/event-stream").build(), HttpResponse.BodyHandlers.ofLines());
+        assertEquals(200, stream.statusCode());
+        assertTrue(stream.headers().firstValue("Content-Type").orElse("").startsWith("text/event-stream"));
+
+        List<String> statuses = new ArrayList<>();
+        String lastEvent = null;
+        boolean heartbeat = false;
+        try (Stream<String> lines = stream.body()) {
+            Iterator<String> iterator = lines.iterator();
+            while (!statuses.contains("RUNNING") && iterator.hasNext()) {
+                String line = iterator.next();
+                heartbeat |= line.startsWith(":");
+                Matcher status = STATUS.matcher(line);
+                if (line.startsWith("data:") && status.find()) {
+                    statuses.add(status.group(1));
+                    lastEvent = line;
+                }
+            }
+        }
+
+        assertEquals(201, provision.get(1, TimeUnit.MINUTES).statusCode());
+        assertEquals("RUNNING", statuses.get(statuses.size() - 1), statuses.toString());
+        assertTrue(statuses.containsAll(List.of("WAITING_FOR_IP", "CONFIGURING")), statuses.toString());
+        // Pushed transitions carry the message the initial event does
+        assertTrue(lastEvent.contains("\"statusMessage\":\"Desktop is ready\""), lastEvent);
+        assertTrue(heartbeat, "no heartbeat during the provision");
+    }
+
+    @Test
+    void unknownDesktopIsRefusedBeforeStreaming() throws Exception {
+        HttpResponse<String> response = http.send(HttpRequest.newBuilder(uri("/api/v1/desktops/999999/events"))
+                .header("Accept", "text/event-stream").build(), HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(404, response.statusCode());
+    }
+
+    private Long awaitDesktop(String userId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            Optional<Long> id = desktopRepository.findAll().stream()
+                    .filter(desktop -> desktop.getUserId().equals(userId))
+                    .map(Desktop::getId)
+                    .findFirst();
+            if (id.isPresent()) {
+                return id.get();
+            }
+            Thread.sleep(20);
+        }
+        return fail("desktop was not created");
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
@@ -0,0 +1,77 @@
+package com.xstream.clouddesktop;
+
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.repository.DesktopRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.system.CapturedOutput;
+import org.springframework.boot.test.system.OutputCaptureExtension;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A status stream that reaches desktop.streams.timeout ends quietly; clients
+ * simply reconnect.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:status-stream-timeout;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "logging.level.com.xstream.clouddesktop=WARN",
+        "logging.level.org.hibernate.SQL=WARN",
+        "desktop.streams.timeout=1s"
+})
+@ActiveProfiles("mock")
+@ExtendWith(OutputCaptureExtension.class)
+class DesktopStatusStreamTimeoutTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private DesktopRepository desktopRepository;
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    @Test
+    void streamEndsAtItsTimeout_withoutLoggingAnError(CapturedOutput output) throws Exception {
+        Desktop desktop = desktopRepository.save(Desktop.builder()
+                .userId("idle-watcher")
+                .name("idle")
+                .status(DesktopStatus.RUNNING)
+                .plan(DesktopPlan.BASIC)
+                .build());
+
+        HttpResponse<Stream<String>> stream = http.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port
+                        + "/api/v1/desktops/" + desktop.getId() + "/events"))
+                .header("Accept", "text/event-stream")
+                .timeout(Duration.ofSeconds(10))
+                .build(), HttpResponse.BodyHandlers.ofLines());
+        assertEquals(200, stream.statusCode());
+        List<String> lines;
+        try (Stream<String> body = stream.body()) {
+            lines = body.toList(); // Returns once the server ends the stream
+        }
+
+        assertTrue(lines.stream().anyMatch(line -> line.contains("\"status\":\"RUNNING\"")), lines.toString());
+        Thread.sleep(200); // Let the container finish the request
+        assertFalse(output.getAll().contains("AsyncRequestTimeoutException"), output.getAll());
+        assertFalse(output.getAll().contains("Unhandled exception"), output.getAll());
+    }
+}
@@ -0,0 +1,139 @@
+package com.xstream.clouddesktop;
+
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.repository.DesktopRepository;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Read endpoints must not be blocked by provisions waiting on Proxmox.
+ *
+ * Starts 100 provisions against the mock clients, ten times the connection
+ * pool, and reads a desktop while they run. A provision that held its
+ * connection through the clone and boot waits would exhaust the pool: the
+ * pool would never drain while they run and the reads would time out on it.
+ * Read latency itself is measured by the benchmarks, not here.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:provisioning-load;DB_CLOSE_DELAY=-1",
+        "spring.datasource.hikari.maximum-pool-size=10",
+        "spring.datasource.hikari.connection-timeout=2000",
+        "spring.jpa.show-sql=false",
+        "logging.level.com.xstream.clouddesktop=WARN",
+        "logging.level.org.hibernate.SQL=WARN",
+        "mock.vm.clone-delay-min=3000",
+        "mock.vm.clone-delay-max=4000",
+        "mock.vm.start-delay-min=1000",
+        "mock.vm.start-delay-max=2000",
+        "mock.vm.ip-delay-min=1000",
+        "mock.vm.ip-delay-max=2000",
+        "mock.connection.create-delay=100"
+})
+@ActiveProfiles("mock")
+class ProvisioningLoadTest {
+
+    private static final int PROVISIONS = 100;
+    private static final int READS = 200;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private DesktopRepository desktopRepository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    @Test
+    void readsAreNotBlockedWhileProvisionsRun() throws Exception {
+        HikariPoolMXBean pool = dataSource.unwrap(HikariDataSource.class).getHikariPoolMXBean();
+        Desktop existing = desktopRepository.save(Desktop.builder()
+                .userId("reader")
+                .name("existing")
+                .status(DesktopStatus.RUNNING)
+                .plan(DesktopPlan.BASIC)
+                .build());
+
+        List<CompletableFuture<HttpResponse<String>>> provisions = new ArrayList<>();
+        for (int i = 0; i < PROVISIONS; i++) {
+            provisions.add(http.sendAsync(HttpRequest.newBuilder(uri("/api/v1/desktops"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"userId\":\"load-" + i + "\"}"))
+                    .build(), HttpResponse.BodyHandlers.ofString()));
+        }
+        awaitInFlight(PROVISIONS);
+
+        awaitIdlePool(pool);
+        assertTrue(inFlight() > 0, "provisions finished before the pool drained; the test checked nothing");
+
+        for (int i = 0; i < READS; i++) {
+            String path = i % 2 == 0 ? "/api/v1/desktops/" + existing.getId() : "/api/v1/desktops?userId=reader";
+            HttpResponse<String> response = http.send(HttpRequest.newBuilder(uri(path))
+                    .timeout(Duration.ofSeconds(10)).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode(), response.body());
+        }
+        assertTrue(inFlight() > 0, "provisions finished before the reads; the test checked nothing");
+
+        for (CompletableFuture<HttpResponse<String>> provision : provisions) {
+            HttpResponse<String> response = provision.get(2, TimeUnit.MINUTES);
+            assertEquals(201, response.statusCode(), response.body());
+        }
+        assertEquals(0, inFlight());
+    }
+
+    private void awaitInFlight(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (inFlight() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(expected, inFlight(), "provisions did not all start");
+    }
+
+    /**
+     * Waits until no pooled connection is checked out. Provisions only ever
+     * leave the pool idle if they release it around their Proxmox calls.
+     */
+    private void awaitIdlePool(HikariPoolMXBean pool) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (pool.getActiveConnections() > 0) {
+            assertTrue(System.nanoTime() < deadline, "provisions kept pool connections checked out");
+            Thread.sleep(10);
+        }
+    }
+
+    private long inFlight() {
+        return desktopRepository.findAll().stream()
+                .filter(desktop -> desktop.getUserId().startsWith("load-"))
+                .filter(desktop -> desktop.getStatus() != DesktopStatus.RUNNING)
+                .count();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
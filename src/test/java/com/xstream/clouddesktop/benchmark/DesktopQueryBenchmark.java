@@ -0,0 +1,157 @@
+package com.xstream.clouddesktop.benchmark;
+
+import com.xstream.clouddesktop.CloudDesktopApplication;
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.repository.DesktopRepository;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the hot {@link DesktopRepository} queries on a seeded desktops table,
+ * with the primary key only and with the query indexes of the migrations.
+ *
+ * Both cases run on the full schema, which the entity and the scheduled jobs
+ * need; the baseline then drops every secondary index of desktops.
+ *
+ * Each user has a few DELETED desktops and one live one, which is the shape
+ * the table takes after some months of create/delete cycles.
+ *
+ * Run with:
+ * <pre>
+ * ./mvnw test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test \
+ *     -Dexec.args="-cp %classpath com.xstream.clouddesktop.benchmark.DesktopQueryBenchmark"
+ * </pre>
+ * JMH options go after the class name, e.g. "-p rows=10000 -wi 1 -i 1" for
+ * a quick run. (exec:java cannot be used: the forked benchmark JVMs would not
+ * get the test classpath.)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 5) // Hibernate takes a while to warm up; shorter runs mostly measure the JIT
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DesktopQueryBenchmark {
+
+    private static final int DESKTOPS_PER_USER = 4;
+    private static final int SEED_BATCH_SIZE = 10_000;
+
+    /**
+     * primary-key-only drops the query indexes the migrations create
+     */
+    @Param({"primary-key-only", "indexed"})
+    private String indexes;
+
+    @Param({"1000000"})
+    private int rows;
+
+    private ConfigurableApplicationContext context;
+    private DesktopRepository desktopRepository;
+    private int users;
+
+    @Setup
+    public void seed() {
+        context = new SpringApplicationBuilder(CloudDesktopApplication.class)
+                .profiles("mock")
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.datasource.url=jdbc:h2:mem:desktop-bench;DB_CLOSE_DELAY=-1",
+                        "spring.jpa.show-sql=false",
+                        "scheduling.enabled=false", // The archiver would move the seeded DELETED rows
+                        "logging.level.root=WARN",
+                        "logging.level.com.xstream.clouddesktop=WARN")
+                .run();
+        desktopRepository = context.getBean(DesktopRepository.class);
+        users = rows / DESKTOPS_PER_USER;
+
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        if ("primary-key-only".equals(indexes)) {
+            dropSecondaryIndexes(jdbcTemplate);
+        }
+        Instant start = Instant.now().minusSeconds(rows);
+        List<Object[]> batch = new ArrayList<>(SEED_BATCH_SIZE);
+        for (int i = 0; i < rows; i++) {
+            int user = i % users;
+            boolean live = i / users == DESKTOPS_PER_USER - 1;
+            DesktopStatus status = !live ? DesktopStatus.DELETED
+                    : user % 1000 == 0 ? DesktopStatus.FAILED
+                            : user % 3 == 0 ? DesktopStatus.STOPPED : DesktopStatus.RUNNING;
+            batch.add(new Object[] { "user" + user, "desktop", 10_000 + i, "c" + user, status.name(), "BASIC",
+                    Timestamp.from(start.plusSeconds(i)) });
+            if (batch.size() == SEED_BATCH_SIZE || i == rows - 1) {
+                jdbcTemplate.batchUpdate("INSERT INTO desktops (user_id, name, vm_id, connection_id, status, plan,"
+                        + " created_at) VALUES (?, ?, ?, ?, ?, ?, ?)", batch);
+                batch.clear();
+            }
+        }
+        jdbcTemplate.execute("ANALYZE TABLE desktops");
+    }
+
+    private static void dropSecondaryIndexes(JdbcTemplate jdbcTemplate) {
+        List<String> names = jdbcTemplate.queryForList("SELECT INDEX_NAME FROM INFORMATION_SCHEMA.INDEXES"
+                + " WHERE TABLE_NAME = 'DESKTOPS' AND INDEX_TYPE_NAME <> 'PRIMARY KEY'", String.class);
+        names.forEach(name -> jdbcTemplate.execute("DROP INDEX " + name));
+    }
+
+    @TearDown
+    public void close() {
+        context.getBean(JdbcTemplate.class).execute("DROP ALL OBJECTS");
+        context.close();
+    }
+
+    @Benchmark
+    public Optional<Desktop> findByUserIdAndStatusNot() {
+        return desktopRepository.findByUserIdAndStatusNot(randomUser(), DesktopStatus.DELETED);
+    }
+
+    @Benchmark
+    public List<Desktop> findAllByUserIdOrderByCreatedAtDesc() {
+        return desktopRepository.findAllByUserIdOrderByCreatedAtDesc(randomUser());
+    }
+
+    @Benchmark
+    public Optional<Desktop> findByVmId() {
+        return desktopRepository.findByVmId(10_000 + ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    @Benchmark
+    public Optional<Desktop> findFirstByConnectionIdOrderByCreatedAtDesc() {
+        return desktopRepository.findFirstByConnectionIdOrderByCreatedAtDesc(
+                "c" + ThreadLocalRandom.current().nextInt(users));
+    }
+
+    @Benchmark
+    public List<Desktop> findAllByStatus() {
+        return desktopRepository.findAllByStatus(DesktopStatus.FAILED);
+    }
+
+    private String randomUser() {
+        return "user" + ThreadLocalRandom.current().nextInt(users);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(DesktopQueryBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
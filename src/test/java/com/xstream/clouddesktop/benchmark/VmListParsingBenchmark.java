@@ -0,0 +1,113 @@
+package com.xstream.clouddesktop.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xstream.clouddesktop.client.proxmox.VmListParser;
+import com.xstream.clouddesktop.client.proxmox.dto.ProxmoxResponse;
+import com.xstream.clouddesktop.client.proxmox.dto.VmInfo;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old {@code ProxmoxResponse<List<VmInfo>>} binding of the qemu
+ * listing with the streaming {@link VmListParser} path.
+ *
+ * ProxmoxClient uses the unfiltered parse for listVMs and the count for the
+ * readiness probe. streamingDesktopsOnly measures the parser's name filter,
+ * which no client method uses yet.
+ *
+ * Run with (allocation rates are reported by the GC profiler as
+ * gc.alloc.rate.norm):
+ * <pre>
+ * ./mvnw test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test \
+ *     -Dexec.args="-cp %classpath com.xstream.clouddesktop.benchmark.VmListParsingBenchmark"
+ * </pre>
+ * JMH options go after the class name, e.g. "-p vmCount=2000" for one size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VmListParsingBenchmark {
+
+    /**
+     * Number of VMs and templates on the node.
+     */
+    @Param({"100", "2000", "10000"})
+    private int vmCount;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private byte[] listing;
+
+    @Setup
+    public void generateListing() {
+        StringBuilder json = new StringBuilder("{\"data\":[");
+        for (int i = 0; i < vmCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            // Roughly a fifth desktops, the rest templates and unrelated VMs, with the full field set PVE returns
+            String name = i % 5 == 0 ? "desktop-user" + i + "-" + i : "infra-vm-" + i;
+            json.append("{\"vmid\":").append(1000 + i)
+                    .append(",\"name\":\"").append(name)
+                    .append("\",\"status\":\"").append(i % 3 == 0 ? "stopped" : "running")
+                    .append("\",\"cpus\":4,\"maxmem\":8589934592,\"mem\":4294967296,\"maxdisk\":34359738368")
+                    .append(",\"disk\":0,\"uptime\":").append(i * 37)
+                    .append(",\"netin\":123456789,\"netout\":987654321,\"diskread\":0,\"diskwrite\":0")
+                    .append(",\"cpu\":0.0123,\"pid\":").append(20000 + i)
+                    .append(",\"template\":").append(i % 10 == 1 ? 1 : 0)
+                    .append(",\"tags\":\"daas;pool-a\"}");
+        }
+        listing = json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<VmInfo> databind() throws IOException {
+        ProxmoxResponse<List<VmInfo>> response = objectMapper.readValue(listing,
+                new TypeReference<ProxmoxResponse<List<VmInfo>>>() {
+                });
+        return response.getData();
+    }
+
+    @Benchmark
+    public List<VmInfo> streamingAll() throws IOException {
+        return VmListParser.parse(new ByteArrayInputStream(listing), VmListParser.ALL);
+    }
+
+    @Benchmark
+    public List<VmInfo> streamingDesktopsOnly() throws IOException {
+        return VmListParser.parse(new ByteArrayInputStream(listing),
+                name -> name != null && name.startsWith("desktop-"));
+    }
+
+    @Benchmark
+    public int streamingCountOnly() throws IOException {
+        return VmListParser.count(new ByteArrayInputStream(listing));
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(VmListParsingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
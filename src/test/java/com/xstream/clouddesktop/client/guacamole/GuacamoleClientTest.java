@@ -1,8 +1,12 @@
 package com.xstream.clouddesktop.client.guacamole;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.xstream.clouddesktop.client.guacamole.dto.*;
 import com.xstream.clouddesktop.client.guacamole.exception.GuacamoleAuthException;
+import com.xstream.clouddesktop.client.support.UpstreamGuard;
 import com.xstream.clouddesktop.config.GuacamoleProperties;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -14,9 +18,20 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.HexFormat;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -41,7 +56,12 @@ class GuacamoleClientTest {
         lenient().when(properties.getPassword()).thenReturn("guacadmin");
         lenient().when(properties.getDataSource()).thenReturn("mysql");
 
-        guacamoleClient = new GuacamoleClient(restTemplate, properties);
+        guacamoleClient = new GuacamoleClient(restTemplate, properties, UpstreamGuard.unguarded("guacamole"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        guacamoleClient.shutdown();
     }
 
     @Test
@@ -135,6 +155,61 @@ class GuacamoleClientTest {
         assertTrue(result.containsKey("1"));
     }
 
+    @Test
+    void listConnections_shouldLogInAgainOnce_whenTokenIsRejected() {
+        AuthResponse first = new AuthResponse();
+        first.setAuthToken("stale-token");
+        AuthResponse second = new AuthResponse();
+        second.setAuthToken("fresh-token");
+        when(restTemplate.exchange(
+                eq("http://guacamole:8080/guacamole/api/tokens"),
+                eq(HttpMethod.POST),
+                any(HttpEntity.class),
+                eq(AuthResponse.class)))
+                .thenReturn(new ResponseEntity<>(first, HttpStatus.OK))
+                .thenReturn(new ResponseEntity<>(second, HttpStatus.OK));
+
+        when(restTemplate.exchange(
+                contains("/connections?token=stale-token"),
+                eq(HttpMethod.GET),
+                isNull(),
+                ArgumentMatchers.<ParameterizedTypeReference<Map<String, ConnectionResponse>>>any()))
+                .thenThrow(HttpClientErrorException.create(HttpStatus.FORBIDDEN, "Forbidden", null, null, null));
+        when(restTemplate.exchange(
+                contains("/connections?token=fresh-token"),
+                eq(HttpMethod.GET),
+                isNull(),
+                ArgumentMatchers.<ParameterizedTypeReference<Map<String, ConnectionResponse>>>any()))
+                .thenReturn(new ResponseEntity<>(Collections.emptyMap(), HttpStatus.OK));
+
+        assertTrue(guacamoleClient.listConnections().isEmpty());
+        verify(restTemplate, times(2)).exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class),
+                eq(AuthResponse.class));
+    }
+
+    @Test
+    void checkGuacamoleHealth_shouldReuseTheSharedToken() {
+        AuthResponse authResponse = new AuthResponse();
+        authResponse.setAuthToken("test-token");
+        when(restTemplate.exchange(
+                eq("http://guacamole:8080/guacamole/api/tokens"),
+                eq(HttpMethod.POST),
+                any(HttpEntity.class),
+                eq(AuthResponse.class))).thenReturn(new ResponseEntity<>(authResponse, HttpStatus.OK));
+        when(restTemplate.exchange(
+                eq("http://guacamole:8080/guacamole/api/session/data/mysql/self?token=test-token"),
+                eq(HttpMethod.GET),
+                isNull(),
+                eq(Map.class))).thenReturn(new ResponseEntity<>(Collections.emptyMap(), HttpStatus.OK));
+
+        guacamoleClient.checkGuacamoleHealth();
+        guacamoleClient.checkGuacamoleHealth();
+        guacamoleClient.checkGuacamoleHealth();
+
+        verify(restTemplate, times(1)).exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class),
+                eq(AuthResponse.class));
+    }
+
     @Test
     void generateClientUrl_shouldEncodeCorrectly() {
         // Connection ID: "42"
@@ -145,4 +220,34 @@ class GuacamoleClientTest {
 
         assertEquals("http://guacamole:8080/guacamole/#/client/NDIAYwBteXNxbA==", url);
     }
+
+    @Test
+    void generateEncryptedJsonUrl_shouldSignAndEncryptDescriptor() throws Exception {
+        String key = "4c0b569e4c96df157eee1b65dd0e4d41";
+        when(properties.getJsonSecretKey()).thenReturn(key);
+        when(properties.getJsonTokenTtl()).thenReturn(Duration.ofMinutes(5));
+
+        String url = guacamoleClient.generateEncryptedJsonUrl("user1", "desktop-user1", "vnc",
+                Map.of("hostname", "10.0.0.5", "port", "5900"));
+
+        // "desktop-user1\0c\0json"
+        assertTrue(url.startsWith("http://guacamole:8080/guacamole/#/client/ZGVza3RvcC11c2VyMQBjAGpzb24=?data="));
+        String data = URLDecoder.decode(url.substring(url.indexOf("?data=") + 6), StandardCharsets.UTF_8);
+
+        SecretKeySpec secret = new SecretKeySpec(HexFormat.of().parseHex(key), "AES");
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE, secret, new IvParameterSpec(new byte[16]));
+        byte[] signed = cipher.doFinal(Base64.getDecoder().decode(data));
+        byte[] json = Arrays.copyOfRange(signed, 32, signed.length);
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(HexFormat.of().parseHex(key), "HmacSHA256"));
+        assertArrayEquals(mac.doFinal(json), Arrays.copyOfRange(signed, 0, 32));
+
+        JsonNode descriptor = new ObjectMapper().readTree(json);
+        assertEquals("user1", descriptor.get("username").asText());
+        assertTrue(descriptor.get("expires").asLong() > System.currentTimeMillis());
+        assertEquals("10.0.0.5", descriptor.at("/connections/desktop-user1/parameters/hostname").asText());
+        assertEquals("vnc", descriptor.at("/connections/desktop-user1/protocol").asText());
+    }
 }
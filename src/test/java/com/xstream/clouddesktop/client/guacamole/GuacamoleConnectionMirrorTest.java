@@ -0,0 +1,100 @@
+package com.xstream.clouddesktop.client.guacamole;
+
+import com.xstream.clouddesktop.client.guacamole.dto.ConnectionResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GuacamoleConnectionMirrorTest {
+
+    private static ConnectionResponse listed(String id, String name) {
+        ConnectionResponse connection = new ConnectionResponse();
+        connection.setIdentifier(id);
+        connection.setName(name);
+        connection.setProtocol("vnc");
+        return connection;
+    }
+
+    private static Map<String, ConnectionResponse> listing(ConnectionResponse... connections) {
+        Map<String, ConnectionResponse> listing = new HashMap<>();
+        for (ConnectionResponse connection : connections) {
+            listing.put(connection.getIdentifier(), connection);
+        }
+        return listing;
+    }
+
+    @Test
+    void refresh_shouldIndexAndOnlyLoadParametersOfNewOrChangedConnections() {
+        GuacamoleConnectionMirror mirror = new GuacamoleConnectionMirror();
+        AtomicInteger parameterLoads = new AtomicInteger();
+
+        mirror.refresh(() -> listing(listed("1", "desktop-alice"), listed("2", "desktop-bob")), id -> {
+            parameterLoads.incrementAndGet();
+            return Map.of("hostname", "10.0.0." + id);
+        });
+
+        assertEquals(2, parameterLoads.get());
+        assertEquals("1", mirror.findByName("desktop-alice").orElseThrow().getIdentifier());
+        assertEquals("2", mirror.findByHostname("10.0.0.2").get(0).getIdentifier());
+
+        // Second pass: bob renamed, alice unchanged, carol new, nothing removed yet
+        mirror.refresh(() -> listing(listed("1", "desktop-alice"), listed("2", "desktop-robert"),
+                listed("3", "desktop-carol")), id -> {
+                    parameterLoads.incrementAndGet();
+                    return Map.of("hostname", "10.0.0." + id);
+                });
+
+        assertEquals(4, parameterLoads.get());
+        assertFalse(mirror.containsName("desktop-bob"));
+        assertTrue(mirror.containsName("desktop-robert"));
+        assertEquals("10.0.0.1", mirror.findById("1").orElseThrow().getParameters().get("hostname"));
+
+        mirror.refresh(() -> listing(listed("3", "desktop-carol")), id -> Map.of());
+
+        assertEquals(1, mirror.size());
+        assertTrue(mirror.findByHostname("10.0.0.1").isEmpty());
+        assertEquals(List.of("3"), mirror.findUnreferenced(List.of("7")).stream()
+                .map(ConnectionResponse::getIdentifier).toList());
+    }
+
+    @Test
+    void refresh_shouldNotUndoWritesNewerThanTheListing() {
+        GuacamoleConnectionMirror mirror = new GuacamoleConnectionMirror();
+        mirror.refresh(() -> listing(listed("1", "desktop-alice")), id -> Map.of());
+
+        // Both writes land while the listing request is in flight
+        mirror.refresh(() -> {
+            Map<String, ConnectionResponse> stale = listing(listed("1", "desktop-alice"));
+            mirror.remove("1");
+            mirror.put(listed("2", "desktop-bob"));
+            return stale;
+        }, id -> Map.of());
+
+        assertTrue(mirror.findById("1").isEmpty());
+        assertTrue(mirror.findById("2").isPresent());
+    }
+
+    @Test
+    void fullResync_shouldPickUpAHostnameChangedOutsideTheService() {
+        GuacamoleConnectionMirror mirror = new GuacamoleConnectionMirror();
+        Map<String, String> hostnames = new HashMap<>(Map.of("1", "10.0.0.1"));
+        mirror.refresh(() -> listing(listed("1", "desktop-alice")), id -> Map.of("hostname", hostnames.get(id)));
+
+        hostnames.put("1", "10.0.0.9"); // Edited in the admin UI; the listing looks the same
+        mirror.refresh(() -> listing(listed("1", "desktop-alice")), id -> Map.of("hostname", hostnames.get(id)));
+        assertEquals("1", mirror.findByHostname("10.0.0.1").get(0).getIdentifier());
+        assertNull(mirror.getLastFullResync());
+
+        mirror.refresh(() -> listing(listed("1", "desktop-alice")), id -> Map.of("hostname", hostnames.get(id)),
+                true);
+
+        assertTrue(mirror.findByHostname("10.0.0.1").isEmpty());
+        assertEquals("1", mirror.findByHostname("10.0.0.9").get(0).getIdentifier());
+        assertNotNull(mirror.getLastFullResync());
+    }
+}
@@ -0,0 +1,116 @@
+package com.xstream.clouddesktop.client.guacamole;
+
+import com.xstream.clouddesktop.client.guacamole.dto.PatchOperation;
+import com.xstream.clouddesktop.client.guacamole.dto.PatchResponse;
+import com.xstream.clouddesktop.client.guacamole.exception.GuacamoleException;
+import com.xstream.clouddesktop.client.guacamole.exception.GuacamolePatchException;
+import com.xstream.clouddesktop.config.GuacamoleProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class GuacamoleMutationBatcherTest {
+
+    @Mock
+    private GuacamoleClient guacamoleClient;
+
+    private GuacamoleMutationBatcher batcher;
+
+    @BeforeEach
+    void setUp() {
+        GuacamoleProperties properties = new GuacamoleProperties();
+        properties.getBatch().setMaxSize(3);
+        properties.getBatch().setFlushInterval(Duration.ofMillis(50));
+        batcher = new GuacamoleMutationBatcher(guacamoleClient, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        batcher.shutdown();
+    }
+
+    private static PatchResponse.Outcome outcome(String identifier, String error) {
+        PatchResponse.Outcome outcome = new PatchResponse.Outcome();
+        outcome.setIdentifier(identifier);
+        if (error != null) {
+            PatchResponse.Error patchError = new PatchResponse.Error();
+            patchError.setMessage(error);
+            outcome.setError(patchError);
+        }
+        return outcome;
+    }
+
+    private static PatchResponse response(PatchResponse.Outcome... outcomes) {
+        PatchResponse response = new PatchResponse();
+        response.setPatches(List.of(outcomes));
+        return response;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void fullBatch_shouldBeSentAsOnePatch() throws Exception {
+        when(guacamoleClient.patchConnections(anyList()))
+                .thenReturn(response(outcome("1", null), outcome("2", null), outcome("42", null)));
+
+        CompletableFuture<String> first = batcher.addConnection("a", "vnc", "10.0.0.1", 5900, null);
+        CompletableFuture<String> second = batcher.addConnection("b", "vnc", "10.0.0.2", 5900, null);
+        CompletableFuture<String> third = batcher.addConnection("c", "rdp", "10.0.0.3", 3389, null);
+
+        assertEquals("1", first.get(1, TimeUnit.SECONDS));
+        assertEquals("2", second.get(1, TimeUnit.SECONDS));
+        assertEquals("42", third.get(1, TimeUnit.SECONDS));
+
+        ArgumentCaptor<List<PatchOperation>> patch = ArgumentCaptor.forClass(List.class);
+        verify(guacamoleClient, times(1)).patchConnections(patch.capture());
+        assertEquals(List.of("add", "add", "add"), patch.getValue().stream().map(PatchOperation::getOp).toList());
+        assertEquals("/", patch.getValue().get(2).getPath());
+    }
+
+    @Test
+    void partialBatch_shouldBeSentAfterFlushInterval() throws Exception {
+        when(guacamoleClient.patchConnections(anyList()))
+                .thenReturn(response(outcome("7", null)));
+
+        CompletableFuture<String> added = batcher.addConnection("a", "vnc", "10.0.0.1", 5900, null);
+
+        assertEquals("7", added.get(2, TimeUnit.SECONDS));
+        verify(guacamoleClient, times(1)).patchConnections(anyList());
+    }
+
+    @Test
+    void rejectedOperation_shouldFailAlone_andRestShouldBeResubmitted() throws Exception {
+        when(guacamoleClient.patchConnections(anyList()))
+                .thenThrow(new GuacamolePatchException("rejected",
+                        response(outcome(null, null), outcome(null, "Connection name already in use"),
+                                outcome(null, null)),
+                        null))
+                .thenReturn(response(outcome("1", null), outcome("3", null)));
+
+        CompletableFuture<String> first = batcher.addConnection("a", "vnc", "10.0.0.1", 5900, null);
+        CompletableFuture<String> duplicate = batcher.addConnection("a", "vnc", "10.0.0.2", 5900, null);
+        CompletableFuture<String> third = batcher.addConnection("c", "vnc", "10.0.0.3", 5900, null);
+
+        assertEquals("1", first.get(1, TimeUnit.SECONDS));
+        assertEquals("3", third.get(1, TimeUnit.SECONDS));
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> duplicate.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(GuacamoleException.class, failure.getCause());
+        assertTrue(failure.getCause().getMessage().contains("already in use"));
+        verify(guacamoleClient, times(2)).patchConnections(anyList());
+    }
+}
@@ -0,0 +1,125 @@
+package com.xstream.clouddesktop.client.guacamole;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GuacamoleTokenManagerTest {
+
+    @Test
+    void getToken_shouldLogInOnce_whenManyCallersFindNoToken() throws Exception {
+        AtomicInteger logins = new AtomicInteger();
+        CountDownLatch loginStarted = new CountDownLatch(1);
+        GuacamoleTokenManager tokens = new GuacamoleTokenManager(() -> {
+            loginStarted.countDown();
+            sleep(100);
+            return "token-" + logins.incrementAndGet();
+        }, Duration.ofHours(1), Duration.ofMinutes(5), Clock.systemUTC());
+
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(callers.submit(tokens::getToken));
+            }
+            assertTrue(loginStarted.await(5, TimeUnit.SECONDS));
+            for (Future<String> result : results) {
+                assertEquals("token-1", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            callers.shutdownNow();
+            tokens.shutdown();
+        }
+        assertEquals(1, logins.get());
+    }
+
+    @Test
+    void getToken_shouldLogInAgain_onceTokenIsAboutToExpire() {
+        MutableClock clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+        AtomicInteger logins = new AtomicInteger();
+        GuacamoleTokenManager tokens = new GuacamoleTokenManager(() -> "token-" + logins.incrementAndGet(),
+                Duration.ofHours(1), Duration.ofMinutes(5), clock);
+
+        try {
+            assertEquals("token-1", tokens.getToken());
+            clock.advance(Duration.ofMinutes(50));
+            assertEquals("token-1", tokens.getToken());
+            clock.advance(Duration.ofMinutes(6));
+            assertEquals("token-2", tokens.getToken());
+        } finally {
+            tokens.shutdown();
+        }
+    }
+
+    @Test
+    void backgroundRefresh_shouldStop_onceTokenGoesUnused() {
+        AtomicInteger logins = new AtomicInteger();
+        GuacamoleTokenManager tokens = new GuacamoleTokenManager(() -> "token-" + logins.incrementAndGet(),
+                Duration.ofMillis(300), Duration.ofMillis(200), Clock.systemUTC());
+
+        try {
+            assertEquals("token-1", tokens.getToken());
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (logins.get() < 2 && System.currentTimeMillis() < deadline) {
+                sleep(10);
+            }
+            assertEquals(2, logins.get(), "a used token should be renewed in the background");
+
+            sleep(500);
+            assertEquals(2, logins.get(), "a token nobody used should be left to expire");
+            assertEquals("token-3", tokens.getToken());
+        } finally {
+            tokens.shutdown();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package com.xstream.clouddesktop.client.proxmox;
 
 import com.xstream.clouddesktop.client.proxmox.dto.*;
+import com.xstream.clouddesktop.client.proxmox.exception.GuestAgentNotAvailableException;
+import com.xstream.clouddesktop.client.proxmox.exception.ProxmoxException;
 import com.xstream.clouddesktop.client.proxmox.exception.ProxmoxTaskTimeoutException;
+import com.xstream.clouddesktop.client.support.UpstreamGuard;
 import com.xstream.clouddesktop.config.ProxmoxProperties;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -11,11 +19,19 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
@@ -41,31 +57,45 @@ class ProxmoxClientTest {
     void setUp() {
         when(properties.getUrl()).thenReturn("https://proxmox.example.com:8006");
         when(properties.getNode()).thenReturn("pve");
-        proxmoxClient = new ProxmoxClient(restTemplate, properties);
+        proxmoxClient = new ProxmoxClient(restTemplate, properties, UpstreamGuard.unguarded("proxmox"));
     }
 
     @Test
     void listVMs_shouldReturnListOfVms() {
-        VmInfo vm1 = new VmInfo();
-        vm1.setVmid(100);
-        vm1.setName("vm1");
-
-        ProxmoxResponse<List<VmInfo>> response = new ProxmoxResponse<>();
-        response.setData(Collections.singletonList(vm1));
-
-        when(restTemplate.exchange(
-                anyString(),
-                eq(HttpMethod.GET),
-                isNull(),
-                ArgumentMatchers.<ParameterizedTypeReference<ProxmoxResponse<List<VmInfo>>>>any()))
-                .thenReturn(new ResponseEntity<>(response, HttpStatus.OK));
+        stubQemuListing("{\"data\":[{\"vmid\":100,\"name\":\"vm1\",\"status\":\"running\",\"cpus\":4,"
+                + "\"maxmem\":2147483648,\"mem\":1073741824,\"maxdisk\":34359738368,\"uptime\":3600,"
+                + "\"netin\":\"1234\",\"netout\":5678,\"tags\":\"daas\",\"lock\":{\"nested\":[1,2]}},"
+                + "{\"vmid\":\"101\",\"status\":\"stopped\"}]}");
 
         List<VmInfo> vms = proxmoxClient.listVMs();
 
         assertNotNull(vms);
-        assertEquals(1, vms.size());
-        assertEquals(100, vms.get(0).getVmid());
-        assertEquals("vm1", vms.get(0).getName());
+        assertEquals(2, vms.size());
+        VmInfo vm = vms.get(0);
+        assertEquals(100, vm.getVmid());
+        assertEquals("vm1", vm.getName());
+        assertEquals("running", vm.getStatus());
+        assertEquals(4, vm.getCpus());
+        assertEquals(2147483648L, vm.getMaxmem());
+        assertEquals(34359738368L, vm.getMaxdisk());
+        assertEquals(3600L, vm.getUptime());
+        assertEquals(1234L, vm.getNetin());
+        assertEquals(5678L, vm.getNetout());
+        assertEquals(101, vms.get(1).getVmid());
+        assertNull(vms.get(1).getName());
+        assertNull(vms.get(1).getCpus());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubQemuListing(String json) {
+        when(restTemplate.execute(
+                eq(URI.create("https://proxmox.example.com:8006/api2/json/nodes/pve/qemu")),
+                eq(HttpMethod.GET),
+                any(RequestCallback.class),
+                any(ResponseExtractor.class)))
+                .thenAnswer(invocation -> invocation.<ResponseExtractor<Object>>getArgument(3)
+                        .extractData(new MockClientHttpResponse(json.getBytes(StandardCharsets.UTF_8),
+                                HttpStatus.OK)));
     }
 
     @Test
@@ -195,4 +225,68 @@ class ProxmoxClientTest {
             proxmoxClient.waitForVmIp(100, Duration.ofMillis(100));
         });
     }
+
+    @Test
+    void waitForTask_shouldSurviveOneRejectedPoll() {
+        TaskStatus stoppedStatus = new TaskStatus();
+        stoppedStatus.setStatus("stopped");
+        stoppedStatus.setExitstatus("OK");
+        ProxmoxResponse<TaskStatus> stoppedResponse = new ProxmoxResponse<>();
+        stoppedResponse.setData(stoppedStatus);
+
+        when(restTemplate.exchange(
+                anyString(),
+                eq(HttpMethod.GET),
+                isNull(),
+                ArgumentMatchers.<ParameterizedTypeReference<ProxmoxResponse<TaskStatus>>>any()))
+                .thenThrow(BulkheadFullException.createBulkheadFullException(Bulkhead.ofDefaults("proxmox")))
+                .thenReturn(new ResponseEntity<>(stoppedResponse, HttpStatus.OK));
+
+        TaskStatus result = proxmoxClient.waitForTask("UPID:...", Duration.ofSeconds(5));
+
+        assertEquals("OK", result.getExitstatus());
+    }
+
+    @Test
+    void waitForTask_shouldFailOnTwoRejectedPollsInARow() {
+        CallNotPermittedException rejected = CallNotPermittedException
+                .createCallNotPermittedException(CircuitBreaker.ofDefaults("proxmox"));
+        when(restTemplate.exchange(
+                anyString(),
+                eq(HttpMethod.GET),
+                isNull(),
+                ArgumentMatchers.<ParameterizedTypeReference<ProxmoxResponse<TaskStatus>>>any()))
+                .thenThrow(rejected)
+                .thenThrow(rejected);
+
+        ProxmoxException thrown = assertThrows(ProxmoxException.class,
+                () -> proxmoxClient.waitForTask("UPID:...", Duration.ofSeconds(5)));
+
+        assertSame(rejected, thrown.getCause());
+    }
+
+    @Test
+    void getVmNetworkInterfaces_agentErrorsShouldNotOpenTheBreaker() {
+        CircuitBreaker circuitBreaker = CircuitBreaker.of("proxmox", CircuitBreakerConfig.custom()
+                .slidingWindowSize(4)
+                .minimumNumberOfCalls(4)
+                .ignoreExceptions(HttpClientErrorException.class, GuestAgentNotAvailableException.class)
+                .build());
+        proxmoxClient = new ProxmoxClient(restTemplate, properties,
+                new UpstreamGuard("proxmox", circuitBreaker, null, Collections.emptyMap(), null));
+        when(restTemplate.exchange(
+                anyString(),
+                eq(HttpMethod.GET),
+                isNull(),
+                ArgumentMatchers
+                        .<ParameterizedTypeReference<ProxmoxResponse<Map<String, List<VmNetworkInterface>>>>>any()))
+                .thenThrow(HttpServerErrorException.create(HttpStatus.INTERNAL_SERVER_ERROR,
+                        "QEMU guest agent is not running", HttpHeaders.EMPTY, null, null));
+
+        for (int i = 0; i < 10; i++) {
+            assertThrows(GuestAgentNotAvailableException.class, () -> proxmoxClient.getVmNetworkInterfaces(100));
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
 }
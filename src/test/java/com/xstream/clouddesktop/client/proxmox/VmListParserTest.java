@@ -0,0 +1,70 @@
+package com.xstream.clouddesktop.client.proxmox;
+
+import com.xstream.clouddesktop.client.proxmox.dto.VmInfo;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VmListParserTest {
+
+    private static final String LISTING = "{\"data\":["
+            + "{\"cpus\":2,\"maxmem\":1024,\"name\":\"infra-1\",\"netin\":7,\"status\":\"running\",\"vmid\":100},"
+            + "{\"cpus\":4,\"name\":\"desktop-a\",\"lock\":{\"nested\":[1,2]},\"status\":\"stopped\",\"vmid\":101},"
+            + "{\"vmid\":102,\"status\":\"running\",\"uptime\":60,\"name\":\"desktop-b\"},"
+            + "{\"vmid\":103,\"status\":\"running\"}"
+            + "],\"total\":4}";
+
+    private static InputStream listing() {
+        return new ByteArrayInputStream(LISTING.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void parse_shouldKeepOnlyEntriesWhoseNamePassesTheFilter() throws IOException {
+        List<VmInfo> vms = VmListParser.parse(listing(), name -> name != null && name.startsWith("desktop-"));
+
+        assertEquals(2, vms.size());
+        VmInfo first = vms.get(0);
+        assertEquals(101, first.getVmid());
+        assertEquals("desktop-a", first.getName());
+        assertEquals("stopped", first.getStatus());
+        assertEquals(4, first.getCpus());
+        // Nothing carried over from the rejected entry before it
+        assertNull(first.getMaxmem());
+        assertNull(first.getNetin());
+
+        VmInfo second = vms.get(1);
+        assertEquals(102, second.getVmid());
+        assertEquals("running", second.getStatus());
+        assertEquals(60L, second.getUptime());
+        assertNull(second.getCpus());
+    }
+
+    @Test
+    void parse_allShouldKeepNamelessEntries() throws IOException {
+        List<VmInfo> vms = VmListParser.parse(listing(), VmListParser.ALL);
+
+        assertEquals(4, vms.size());
+        assertEquals(1024L, vms.get(0).getMaxmem());
+        assertNull(vms.get(3).getName());
+        assertEquals(103, vms.get(3).getVmid());
+    }
+
+    @Test
+    void count_shouldCountEveryEntry() throws IOException {
+        assertEquals(4, VmListParser.count(listing()));
+    }
+
+    @Test
+    void count_shouldRejectATruncatedListing() {
+        InputStream truncated = new ByteArrayInputStream("{\"data\":[{\"vmid\":100},{\"vm"
+                .getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IOException.class, () -> VmListParser.count(truncated));
+    }
+}
@@ -0,0 +1,89 @@
+package com.xstream.clouddesktop.client.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    @Test
+    void execute_shouldShareOneCallAmongConcurrentCallers() throws Exception {
+        SingleFlight singleFlight = new SingleFlight("test");
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int callers = 20;
+
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> singleFlight.execute("status/100", () -> {
+                    upstreamCalls.incrementAndGet();
+                    await(release);
+                    return "running";
+                })));
+            }
+
+            // Wait until every follower has joined the leader's flight before releasing it
+            long deadline = System.currentTimeMillis() + 5000;
+            while (singleFlight.getCollapsedCalls() < callers - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("running", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(1, singleFlight.getExecutedCalls());
+        assertEquals(callers - 1, singleFlight.getCollapsedCalls());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    void execute_shouldPropagateLeaderFailureAndNotCacheIt() {
+        SingleFlight singleFlight = new SingleFlight("test");
+
+        IllegalStateException failure = assertThrows(IllegalStateException.class,
+                () -> singleFlight.execute("key", () -> {
+                    throw new IllegalStateException("upstream down");
+                }));
+        assertEquals("upstream down", failure.getMessage());
+
+        // The failed flight is gone, so the next caller goes upstream again
+        assertEquals("ok", singleFlight.execute("key", () -> "ok"));
+        assertEquals(2, singleFlight.getExecutedCalls());
+    }
+
+    @Test
+    void execute_shouldNotCoalesceDifferentKeys() {
+        SingleFlight singleFlight = new SingleFlight("test");
+
+        assertEquals(1, singleFlight.execute("a", () -> 1));
+        assertEquals(2, singleFlight.execute("b", () -> 2));
+
+        assertEquals(2, singleFlight.getExecutedCalls());
+        assertEquals(0, singleFlight.getCollapsedCalls());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
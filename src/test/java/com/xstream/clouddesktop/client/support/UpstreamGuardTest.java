@@ -0,0 +1,186 @@
+package com.xstream.clouddesktop.client.support;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpstreamGuardTest {
+
+    private static CircuitBreaker circuitBreaker() {
+        return CircuitBreaker.of("test", CircuitBreakerConfig.custom()
+                .slidingWindowSize(4)
+                .minimumNumberOfCalls(4)
+                .failureRateThreshold(50)
+                .waitDurationInOpenState(Duration.ofMinutes(1))
+                .ignoreExceptions(HttpClientErrorException.class)
+                .build());
+    }
+
+    @Test
+    void call_shouldFailFastOnceCircuitOpens() {
+        UpstreamGuard guard = new UpstreamGuard("test", circuitBreaker(), Bulkhead.ofDefaults("test"),
+                Collections.emptyMap(), null);
+        AtomicInteger upstreamCalls = new AtomicInteger();
+
+        for (int i = 0; i < 4; i++) {
+            assertThrows(HttpServerErrorException.class, () -> guard.call("op", CallType.IDEMPOTENT, () -> {
+                upstreamCalls.incrementAndGet();
+                throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+            }));
+        }
+
+        assertTrue(guard.isOpen());
+        assertThrows(CallNotPermittedException.class, () -> guard.call("op", CallType.IDEMPOTENT, () -> {
+            upstreamCalls.incrementAndGet();
+            return "never";
+        }));
+        assertEquals(4, upstreamCalls.get());
+    }
+
+    @Test
+    void call_shouldNotCountClientErrorsAsFailures() {
+        UpstreamGuard guard = new UpstreamGuard("test", circuitBreaker(), Bulkhead.ofDefaults("test"),
+                Collections.emptyMap(), null);
+
+        for (int i = 0; i < 10; i++) {
+            assertThrows(HttpClientErrorException.class, () -> guard.call("op", CallType.IDEMPOTENT, () -> {
+                throw new HttpClientErrorException(HttpStatus.NOT_FOUND);
+            }));
+        }
+
+        assertFalse(guard.isOpen());
+        assertEquals("CLOSED", guard.getState());
+    }
+
+    @Test
+    void call_shouldRejectWhenBulkheadIsFull() throws Exception {
+        Bulkhead bulkhead = Bulkhead.of("test", BulkheadConfig.custom()
+                .maxConcurrentCalls(1)
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+        UpstreamGuard guard = new UpstreamGuard("test", null, bulkhead, Collections.emptyMap(), null);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread holder = new Thread(() -> guard.run("op", CallType.IDEMPOTENT, () -> {
+            entered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        holder.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        assertThrows(BulkheadFullException.class, () -> guard.call("op", CallType.IDEMPOTENT, () -> "second"));
+
+        release.countDown();
+        holder.join(5000);
+        assertEquals("third", guard.call("op", CallType.IDEMPOTENT, () -> "third"));
+    }
+
+    @Test
+    void unguarded_shouldPassCallsThrough() {
+        UpstreamGuard guard = UpstreamGuard.unguarded("test");
+
+        assertEquals("ok", guard.call("op", CallType.IDEMPOTENT, () -> "ok"));
+        assertFalse(guard.isOpen());
+        assertEquals("DISABLED", guard.getState());
+    }
+
+    private static UpstreamGuard retryingGuard(SimpleMeterRegistry registry) {
+        Map<CallType, RetryPolicy> policies = new EnumMap<>(CallType.class);
+        RetryPolicy fast = RetryPolicy.builder()
+                .maxAttempts(3)
+                .initialBackoff(Duration.ofMillis(1))
+                .maxBackoff(Duration.ofMillis(5))
+                .deadline(Duration.ofSeconds(5))
+                .build();
+        policies.put(CallType.TASK_POLL, fast);
+        policies.put(CallType.NON_IDEMPOTENT, fast);
+        return new UpstreamGuard("test", null, null, policies, registry);
+    }
+
+    @Test
+    void call_shouldRetryTransientFailuresOfSafeCalls() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UpstreamGuard guard = retryingGuard(registry);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = guard.call("getTaskStatus", CallType.TASK_POLL, () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+            }
+            return "stopped";
+        });
+
+        assertEquals("stopped", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2.0, registry.counter("upstream.retry.attempts",
+                "upstream", "test", "endpoint", "getTaskStatus").count());
+    }
+
+    @Test
+    void call_shouldNotRetryNonIdempotentCallsThatReachedTheUpstream() {
+        UpstreamGuard guard = retryingGuard(new SimpleMeterRegistry());
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(HttpServerErrorException.class, () -> guard.call("cloneVm", CallType.NON_IDEMPOTENT, () -> {
+            attempts.incrementAndGet();
+            throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+        }));
+        assertEquals(1, attempts.get());
+
+        // A refused connection means the request was never sent, so it is safe to repeat
+        attempts.set(0);
+        assertThrows(ResourceAccessException.class, () -> guard.call("cloneVm", CallType.NON_IDEMPOTENT, () -> {
+            attempts.incrementAndGet();
+            throw new ResourceAccessException("refused", new ConnectException("Connection refused"));
+        }));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void call_shouldGiveUpWhenBackoffWouldExceedDeadline() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Map<CallType, RetryPolicy> policies = new EnumMap<>(CallType.class);
+        policies.put(CallType.IDEMPOTENT, RetryPolicy.builder()
+                .maxAttempts(10)
+                .initialBackoff(Duration.ofSeconds(10))
+                .maxBackoff(Duration.ofSeconds(10))
+                .deadline(Duration.ZERO)
+                .build());
+        UpstreamGuard guard = new UpstreamGuard("test", null, null, policies, registry);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(HttpServerErrorException.class, () -> guard.call("listVMs", CallType.IDEMPOTENT, () -> {
+            attempts.incrementAndGet();
+            throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+        }));
+
+        assertEquals(1, attempts.get());
+        assertEquals(1.0, registry.counter("upstream.retry.exhausted",
+                "upstream", "test", "endpoint", "listVMs").count());
+    }
+}
@@ -0,0 +1,52 @@
+package com.xstream.clouddesktop.controller;
+
+import com.xstream.clouddesktop.controller.advice.GlobalExceptionHandler;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.model.StageLatency;
+import com.xstream.clouddesktop.repository.DesktopEventRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(controllers = AnalyticsController.class)
+@Import(GlobalExceptionHandler.class)
+class AnalyticsControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private DesktopEventRepository eventRepository;
+
+    @Test
+    void getStageLatencies_shouldReturnPercentiles() throws Exception {
+        when(eventRepository.findStageLatencies(any(), eq(DesktopPlan.BASIC), isNull())).thenReturn(List.of(
+                new StageLatency(DesktopStatus.PROVISIONING, DesktopPlan.BASIC, 42, 31_000, 44_000, 58_500, 61_000)));
+
+        mockMvc.perform(get("/api/v1/analytics/stage-latencies").param("window", "PT24H").param("plan", "BASIC"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data[0].stage").value("PROVISIONING"))
+                .andExpect(jsonPath("$.data[0].plan").value("BASIC"))
+                .andExpect(jsonPath("$.data[0].count").value(42))
+                .andExpect(jsonPath("$.data[0].p99Ms").value(58_500.0));
+
+        Instant expectedSince = Instant.now().minus(Duration.ofHours(24));
+        verify(eventRepository).findStageLatencies(
+                argThat(since -> Math.abs(Duration.between(expectedSince, since).toSeconds()) < 5),
+                eq(DesktopPlan.BASIC), isNull());
+    }
+}
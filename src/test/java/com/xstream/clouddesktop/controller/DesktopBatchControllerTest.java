@@ -0,0 +1,77 @@
+package com.xstream.clouddesktop.controller;
+
+import com.xstream.clouddesktop.controller.advice.GlobalExceptionHandler;
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.service.DesktopService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(controllers = DesktopBatchController.class)
+@Import(GlobalExceptionHandler.class)
+class DesktopBatchControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private DesktopService desktopService;
+
+    @Test
+    void batchGet_shouldAnswerEveryIdInOrder_withMissingOnesInline() throws Exception {
+        when(desktopService.getDesktops(Set.of(3L, 1L, 2L))).thenReturn(Map.of(
+                1L, desktop(1L, DesktopStatus.RUNNING),
+                3L, desktop(3L, DesktopStatus.STOPPED)));
+
+        mockMvc.perform(post("/api/v1/desktops:batchGet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ids\":[3,1,2,1]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.desktops.length()").value(3))
+                .andExpect(jsonPath("$.data.desktops[0].id").value(3))
+                .andExpect(jsonPath("$.data.desktops[0].desktop.status").value("STOPPED"))
+                .andExpect(jsonPath("$.data.desktops[1].desktop.status").value("RUNNING"))
+                .andExpect(jsonPath("$.data.desktops[2].id").value(2))
+                .andExpect(jsonPath("$.data.desktops[2].error").value("DESKTOP_NOT_FOUND"))
+                .andExpect(jsonPath("$.data.desktops[2].desktop").doesNotExist());
+    }
+
+    @Test
+    void batchGet_shouldReturn400_withoutIds() throws Exception {
+        mockMvc.perform(post("/api/v1/desktops:batchGet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ids\":[]}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("VALIDATION_ERROR"));
+        verify(desktopService, never()).getDesktops(any());
+    }
+
+    private static Desktop desktop(Long id, DesktopStatus status) {
+        return Desktop.builder()
+                .id(id)
+                .userId("user" + id)
+                .name("test-desktop")
+                .plan(DesktopPlan.BASIC)
+                .status(status)
+                .createdAt(Instant.now())
+                .updatedAt(Instant.now())
+                .build();
+    }
+}
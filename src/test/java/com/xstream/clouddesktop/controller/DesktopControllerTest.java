@@ -4,22 +4,46 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.xstream.clouddesktop.dto.request.CreateDesktopRequest;
 import com.xstream.clouddesktop.model.Desktop;
 import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopRevision;
 import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.model.DesktopStatusView;
+import com.xstream.clouddesktop.model.DesktopSummary;
+import com.xstream.clouddesktop.repository.DesktopFilter;
+import com.xstream.clouddesktop.service.DesktopPage;
+import com.xstream.clouddesktop.service.DesktopRateLimiter;
 import com.xstream.clouddesktop.service.DesktopService;
+import com.xstream.clouddesktop.service.exception.DesktopBusyException;
 import com.xstream.clouddesktop.service.exception.DesktopNotFoundException;
 import com.xstream.clouddesktop.service.exception.InvalidDesktopStateException;
+import com.xstream.clouddesktop.service.exception.InvalidParameterException;
+import com.xstream.clouddesktop.service.exception.RateLimitExceededException;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import com.xstream.clouddesktop.controller.advice.GlobalExceptionHandler;
 import com.xstream.clouddesktop.controller.advice.RequestLoggingFilter;
@@ -30,7 +54,7 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @WebMvcTest(controllers = DesktopController.class)
-@Import({GlobalExceptionHandler.class, RequestLoggingFilter.class})
+@Import({GlobalExceptionHandler.class, RequestLoggingFilter.class, DesktopStatusWaits.class})
 class DesktopControllerTest {
 
     @Autowired
@@ -42,6 +66,12 @@ class DesktopControllerTest {
     @MockBean
     private DesktopService desktopService;
 
+    @MockBean
+    private DesktopStatusStreams statusStreams;
+
+    @MockBean
+    private DesktopRateLimiter rateLimiter;
+
     private Desktop createTestDesktop(Long id, String userId, DesktopStatus status) {
         return Desktop.builder()
                 .id(id)
@@ -97,6 +127,32 @@ class DesktopControllerTest {
                 .andExpect(jsonPath("$.data.id").value(1L));
     }
 
+    @Test
+    void getDesktopById_shouldReturn304_fromTheRevisionAlone_whenUnchanged() throws Exception {
+        Desktop desktop = createTestDesktop(1L, "test-user", DesktopStatus.RUNNING);
+        desktop.setVersion(3L);
+        when(desktopService.getDesktop(1L)).thenReturn(desktop);
+        String etag = mockMvc.perform(get("/api/v1/desktops/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "no-cache"))
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotNull(etag);
+        when(desktopService.findDesktopRevision(1L)).thenReturn(Optional.of(DesktopRevision.of(desktop)));
+
+        mockMvc.perform(get("/api/v1/desktops/1").header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        verify(desktopService, times(1)).getDesktop(1L);
+
+        desktop.setVersion(4L);
+        when(desktopService.findDesktopRevision(1L)).thenReturn(Optional.of(DesktopRevision.of(desktop)));
+        when(desktopService.getDesktop(1L, DesktopRevision.of(desktop))).thenReturn(desktop);
+        mockMvc.perform(get("/api/v1/desktops/1").header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", not(etag)));
+        verify(desktopService).getDesktop(1L, DesktopRevision.of(desktop));
+    }
+
     @Test
     void getDesktopById_shouldReturn404_whenDesktopNotFound() throws Exception {
         when(desktopService.getDesktop(99L)).thenThrow(new DesktopNotFoundException(99L));
@@ -107,6 +163,16 @@ class DesktopControllerTest {
                 .andExpect(jsonPath("$.error").value("DESKTOP_NOT_FOUND"));
     }
 
+    @Test
+    void streamDesktopEvents_shouldReturn404_beforeOpeningAStream() throws Exception {
+        when(desktopService.getDesktopStatusView(99L)).thenThrow(new DesktopNotFoundException(99L));
+
+        mockMvc.perform(get("/api/v1/desktops/99/events").accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.error").value("DESKTOP_NOT_FOUND"));
+        verifyNoInteractions(statusStreams);
+    }
+
     @Test
     void getDesktopConnection_shouldReturn200_whenDesktopIsRunning() throws Exception {
         Desktop desktop = createTestDesktop(1L, "test-user", DesktopStatus.RUNNING);
@@ -150,6 +216,33 @@ class DesktopControllerTest {
                 .andExpect(jsonPath("$.error").value("INVALID_STATE"));
     }
 
+    @Test
+    void startDesktop_shouldReturn429WithRetryAfter_whenRateLimited() throws Exception {
+        Desktop desktop = createTestDesktop(1L, "test-user", DesktopStatus.STOPPED);
+        when(desktopService.getDesktop(1L)).thenReturn(desktop);
+        doThrow(new RateLimitExceededException("tenant acme", Duration.ofSeconds(4), "test-user"))
+                .when(rateLimiter).acquire(desktop, "acme");
+
+        mockMvc.perform(post("/api/v1/desktops/1/start").header("X-Tenant-ID", "acme"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "4"))
+                .andExpect(jsonPath("$.error").value("RATE_LIMITED"));
+        verify(desktopService, never()).startDesktop(anyLong());
+    }
+
+    @Test
+    void createDesktop_shouldBeLimitedByTheRequestedPlan() throws Exception {
+        doThrow(new RateLimitExceededException("user test-user", Duration.ofSeconds(6), "test-user"))
+                .when(rateLimiter).acquire("test-user", DesktopPlan.PREMIUM, null);
+
+        mockMvc.perform(post("/api/v1/desktops")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"userId\":\"test-user\",\"plan\":\"PREMIUM\"}"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "6"));
+        verify(desktopService, never()).createDesktop(any(), any(), any());
+    }
+
     @Test
     void stopDesktop_shouldReturn200_whenSuccessful() throws Exception {
         Desktop desktop = createTestDesktop(1L, "test-user", DesktopStatus.STOPPED);
@@ -170,4 +263,128 @@ class DesktopControllerTest {
                 .andExpect(jsonPath("$.success").value(true))
                 .andExpect(jsonPath("$.message").value("Desktop deleted successfully."));
     }
+
+    @Test
+    void listDesktops_shouldPassFiltersAndReturnCursor() throws Exception {
+        DesktopSummary desktop = new DesktopSummary(1L, 0L, "test-user", "test-desktop", DesktopStatus.RUNNING,
+                "Desktop is ready", DesktopPlan.BASIC, 2, 2048, "pve1", "10.0.0.5", Instant.now(), Instant.now(), null,
+                0, 0);
+        DesktopFilter filter = new DesktopFilter(Set.of(DesktopStatus.RUNNING, DesktopStatus.STOPPED),
+                DesktopPlan.BASIC, "pve1", null);
+        when(desktopService.findDesktops(filter, "abc", true, 1))
+                .thenReturn(new DesktopPage(List.of(desktop), "next", 7L));
+
+        mockMvc.perform(get("/api/v1/desktops")
+                        .param("status", "running,STOPPED")
+                        .param("plan", "basic")
+                        .param("node", "pve1")
+                        .param("cursor", "abc")
+                        .param("limit", "1")
+                        .param("order", "asc"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.desktops[0].id").value(1L))
+                .andExpect(jsonPath("$.data.nextCursor").value("next"))
+                .andExpect(jsonPath("$.data.total").value(7));
+    }
+
+    @Test
+    void listDesktops_shouldReturn400_forInvalidParameters() throws Exception {
+        mockMvc.perform(get("/api/v1/desktops").param("status", "BOOTING"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("INVALID_PARAMETER"));
+        mockMvc.perform(get("/api/v1/desktops").param("order", "sideways"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/desktops").param("limit", "501"))
+                .andExpect(status().isBadRequest());
+
+        when(desktopService.findDesktops(any(), eq("garbage"), anyBoolean(), anyInt()))
+                .thenThrow(new InvalidParameterException("cursor", "garbage"));
+        mockMvc.perform(get("/api/v1/desktops").param("cursor", "garbage"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("INVALID_PARAMETER"));
+    }
+
+    @Test
+    void getDesktopStatus_shouldReadTheStatusView() throws Exception {
+        when(desktopService.getDesktopStatusView(1L))
+                .thenReturn(new DesktopStatusView(1L, DesktopStatus.RUNNING, "Desktop is ready"));
+
+        mockMvc.perform(get("/api/v1/desktops/1/status"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.status").value("RUNNING"))
+                .andExpect(jsonPath("$.data.ready").value(true));
+        verify(desktopService, never()).getDesktop(anyLong());
+    }
+
+    @Test
+    void waitForDesktopStatus_shouldAnswerAtOnce_whenTheDesktopIsAlreadyThere() throws Exception {
+        when(desktopService.getDesktopStatusView(1L))
+                .thenReturn(new DesktopStatusView(1L, DesktopStatus.RUNNING, "Desktop is ready"));
+
+        MvcResult result = mockMvc.perform(get("/api/v1/desktops/1/status?waitFor=running&timeout=60s"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.status").value("RUNNING"));
+    }
+
+    @Test
+    void waitForDesktopStatus_shouldReturn400_forATimeoutAboveTheMaximum() throws Exception {
+        mockMvc.perform(get("/api/v1/desktops/1/status?waitFor=RUNNING&timeout=1h"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("INVALID_PARAMETER"));
+        verify(desktopService, never()).getDesktopStatusView(anyLong());
+    }
+
+    @Test
+    void getDesktopStatus_andListDesktops_shouldReturn304_whenUnchanged() throws Exception {
+        when(desktopService.getDesktopStatusView(1L))
+                .thenReturn(new DesktopStatusView(1L, DesktopStatus.STARTING, "Starting"));
+        String statusTag = mockMvc.perform(get("/api/v1/desktops/1/status"))
+                .andReturn().getResponse().getHeader("ETag");
+        mockMvc.perform(get("/api/v1/desktops/1/status").header("If-None-Match", statusTag))
+                .andExpect(status().isNotModified());
+
+        when(desktopService.getDesktopStatusView(1L))
+                .thenReturn(new DesktopStatusView(1L, DesktopStatus.RUNNING, "Desktop is ready"));
+        mockMvc.perform(get("/api/v1/desktops/1/status").header("If-None-Match", statusTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.status").value("RUNNING"));
+
+        when(desktopService.findDesktops(any(), any(), anyBoolean(), anyInt()))
+                .thenReturn(new DesktopPage(List.of(), null, 0L));
+        String pageTag = mockMvc.perform(get("/api/v1/desktops"))
+                .andReturn().getResponse().getHeader("ETag");
+        mockMvc.perform(get("/api/v1/desktops").header("If-None-Match", pageTag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void listDesktops_etagShouldFollowTheVersionsOnThePage() throws Exception {
+        Instant createdAt = Instant.now();
+        DesktopSummary desktop = new DesktopSummary(1L, 3L, "test-user", "test-desktop", DesktopStatus.RUNNING,
+                "Desktop is ready", DesktopPlan.BASIC, 2, 2048, "pve1", "10.0.0.5", createdAt, createdAt, null, 0, 0);
+        when(desktopService.findDesktops(any(), any(), anyBoolean(), anyInt()))
+                .thenReturn(new DesktopPage(List.of(desktop), "next", 1L));
+        String pageTag = mockMvc.perform(get("/api/v1/desktops"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        DesktopSummary changed = new DesktopSummary(1L, 4L, "test-user", "test-desktop", DesktopStatus.RUNNING,
+                "Desktop is ready", DesktopPlan.BASIC, 2, 2048, "pve1", "10.0.0.5", createdAt, createdAt, null, 0, 0);
+        when(desktopService.findDesktops(any(), any(), anyBoolean(), anyInt()))
+                .thenReturn(new DesktopPage(List.of(changed), "next", 1L));
+        mockMvc.perform(get("/api/v1/desktops").header("If-None-Match", pageTag))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", not(pageTag)));
+    }
+
+    @Test
+    void stopDesktop_shouldReturn409_whenAnotherOperationIsRunning() throws Exception {
+        when(desktopService.stopDesktop(1L, false)).thenThrow(new DesktopBusyException(1L, "STOP", "DELETE"));
+
+        mockMvc.perform(post("/api/v1/desktops/1/stop"))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.error").value("DESKTOP_BUSY"));
+    }
 }
@@ -0,0 +1,98 @@
+package com.xstream.clouddesktop.controller;
+
+import com.xstream.clouddesktop.dto.response.ApiResponse;
+import com.xstream.clouddesktop.dto.response.DesktopStatusResponse;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.model.DesktopStatusView;
+import com.xstream.clouddesktop.service.DesktopService;
+import com.xstream.clouddesktop.service.event.DesktopStatusChangedEvent;
+import com.xstream.clouddesktop.service.exception.DesktopNotFoundException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DesktopStatusWaitsTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    @Mock
+    private DesktopService desktopService;
+
+    private DesktopStatusWaits waits;
+
+    @BeforeEach
+    void setUp() {
+        waits = new DesktopStatusWaits(desktopService);
+    }
+
+    @Test
+    void completesAtOnce_whenTheDesktopIsAlreadyThere() {
+        status(DesktopStatus.RUNNING, "Desktop is ready");
+
+        DeferredResult<ApiResponse<DesktopStatusResponse>> result = waits.await(1L, DesktopStatus.RUNNING, TIMEOUT);
+
+        assertEquals("RUNNING", statusOf(result).getStatus());
+    }
+
+    @Test
+    void completesOnTheWantedTransitionOnly() {
+        status(DesktopStatus.PROVISIONING, null);
+        DeferredResult<ApiResponse<DesktopStatusResponse>> result = waits.await(1L, DesktopStatus.RUNNING, TIMEOUT);
+        assertFalse(result.hasResult());
+        assertEquals(1, waits.size());
+
+        waits.onStatusChanged(event(1L, DesktopStatus.STARTING));
+        waits.onStatusChanged(event(2L, DesktopStatus.RUNNING));
+        assertFalse(result.hasResult());
+
+        status(DesktopStatus.RUNNING, "Desktop is ready");
+        waits.onStatusChanged(event(1L, DesktopStatus.RUNNING));
+        assertEquals("RUNNING", statusOf(result).getStatus());
+        assertEquals("Desktop is ready", statusOf(result).getStatusMessage()); // Read fresh, not from the event
+    }
+
+    @Test
+    void aFailedDesktopEndsTheWait() {
+        status(DesktopStatus.PROVISIONING, null);
+        DeferredResult<ApiResponse<DesktopStatusResponse>> result = waits.await(1L, DesktopStatus.RUNNING, TIMEOUT);
+
+        status(DesktopStatus.FAILED, "Clone failed");
+        waits.onStatusChanged(event(1L, DesktopStatus.FAILED));
+
+        assertEquals("FAILED", statusOf(result).getStatus());
+    }
+
+    @Test
+    void anUnknownDesktopIsNotParked() {
+        when(desktopService.getDesktopStatusView(9L)).thenThrow(new DesktopNotFoundException(9L));
+
+        assertThrows(DesktopNotFoundException.class, () -> waits.await(9L, DesktopStatus.RUNNING, TIMEOUT));
+        assertEquals(0, waits.size());
+    }
+
+    private void status(DesktopStatus status, String message) {
+        when(desktopService.getDesktopStatusView(1L)).thenReturn(new DesktopStatusView(1L, status, message));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DesktopStatusResponse statusOf(DeferredResult<ApiResponse<DesktopStatusResponse>> result) {
+        assertTrue(result.hasResult());
+        return ((ApiResponse<DesktopStatusResponse>) result.getResult()).getData();
+    }
+
+    private static DesktopStatusChangedEvent event(Long desktopId, DesktopStatus status) {
+        return new DesktopStatusChangedEvent(desktopId, "user", DesktopPlan.BASIC, null, status, null, Instant.now(),
+                null, "node", null);
+    }
+}
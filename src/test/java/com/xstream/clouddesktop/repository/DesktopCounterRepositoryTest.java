@@ -0,0 +1,118 @@
+package com.xstream.clouddesktop.repository;
+
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@Import(DesktopCounterRepository.class)
+class DesktopCounterRepositoryTest {
+
+    @Autowired
+    private DesktopCounterRepository desktopCounters;
+    @Autowired
+    private DesktopRepository desktopRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void incrementAndMove_adjustTheCounts() {
+        desktopCounters.increment(DesktopStatus.PENDING, DesktopPlan.BASIC);
+        desktopCounters.increment(DesktopStatus.PENDING, DesktopPlan.BASIC);
+        desktopCounters.increment(DesktopStatus.PENDING, DesktopPlan.PREMIUM);
+        desktopCounters.move(DesktopPlan.BASIC, DesktopStatus.PENDING, DesktopStatus.RUNNING);
+
+        assertEquals(1, desktopCounters.count(Set.of(DesktopStatus.PENDING), DesktopPlan.BASIC));
+        assertEquals(2, desktopCounters.count(Set.of(DesktopStatus.PENDING), null));
+        assertEquals(2, desktopCounters.count(Set.of(DesktopStatus.PENDING, DesktopStatus.RUNNING),
+                DesktopPlan.BASIC));
+        assertEquals(3, desktopCounters.count(Set.of(), null));
+    }
+
+    @Test
+    void recount_matchesTheTable() {
+        desktopCounters.increment(DesktopStatus.FAILED, DesktopPlan.STANDARD); // drift with no row behind it
+        for (String userId : List.of("user1", "user2")) {
+            desktopRepository.saveAndFlush(Desktop.builder()
+                    .userId(userId)
+                    .name("test")
+                    .status(DesktopStatus.RUNNING)
+                    .plan(DesktopPlan.BASIC)
+                    .build());
+        }
+
+        desktopCounters.recount();
+
+        assertEquals(2, desktopCounters.count(Set.of(DesktopStatus.RUNNING), DesktopPlan.BASIC));
+        assertEquals(0, desktopCounters.count(Set.of(DesktopStatus.FAILED), null));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED) // Both sides must really commit
+    void recount_waitsForAMoveInFlight_andCountsItOnce() throws Exception {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        Long id = desktopRepository.saveAndFlush(Desktop.builder()
+                .userId("mover")
+                .name("test")
+                .status(DesktopStatus.RUNNING)
+                .plan(DesktopPlan.PREMIUM)
+                .build()).getId();
+        desktopCounters.recount();
+        CountDownLatch moved = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // A stop on another instance: status and counters changed, not yet committed
+            Future<?> stop = executor.submit(() -> transactionTemplate.executeWithoutResult(tx -> {
+                jdbcTemplate.update("UPDATE desktops SET status = 'STOPPED' WHERE id = ?", id);
+                desktopCounters.move(DesktopPlan.PREMIUM, DesktopStatus.RUNNING, DesktopStatus.STOPPED);
+                moved.countDown();
+                await(commit);
+            }));
+            assertTrue(moved.await(5, TimeUnit.SECONDS));
+            Future<?> recount = executor.submit(desktopCounters::recount);
+            Thread.sleep(200);
+            assertFalse(recount.isDone(), "recount did not wait for the move");
+            commit.countDown();
+            stop.get(5, TimeUnit.SECONDS);
+            recount.get(5, TimeUnit.SECONDS);
+
+            assertEquals(0, desktopCounters.count(Set.of(DesktopStatus.RUNNING), DesktopPlan.PREMIUM));
+            assertEquals(1, desktopCounters.count(Set.of(DesktopStatus.STOPPED), DesktopPlan.PREMIUM));
+        } finally {
+            commit.countDown();
+            executor.shutdownNow();
+            desktopRepository.deleteById(id);
+            desktopCounters.recount();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.xstream.clouddesktop.repository;
+
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.model.StageLatency;
+import com.xstream.clouddesktop.service.event.DesktopStatusChangedEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@Import(DesktopEventRepository.class)
+class DesktopEventRepositoryTest {
+
+    @Autowired
+    private DesktopEventRepository eventRepository;
+
+    @Test
+    void stageLatencies_arePerStageAndPlan() {
+        Instant now = Instant.now();
+        List<DesktopStatusChangedEvent> events = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            // Clones of BASIC desktops take 1..100 s, of PREMIUM ones always 5 s
+            events.add(event(i, DesktopPlan.BASIC, DesktopStatus.PROVISIONING, DesktopStatus.STARTING, now,
+                    Duration.ofSeconds(i)));
+            events.add(event(1000 + i, DesktopPlan.PREMIUM, DesktopStatus.PROVISIONING, DesktopStatus.STARTING, now,
+                    Duration.ofSeconds(5)));
+        }
+        events.add(event(1, DesktopPlan.BASIC, null, DesktopStatus.PENDING, now, null));
+        events.add(event(2, DesktopPlan.BASIC, DesktopStatus.STARTING, DesktopStatus.WAITING_FOR_IP,
+                now.minus(Duration.ofDays(30)), Duration.ofSeconds(1)));
+        eventRepository.insertAll(events);
+
+        List<StageLatency> latencies = eventRepository.findStageLatencies(now.minus(Duration.ofDays(1)), null, null);
+
+        assertEquals(2, latencies.size(), latencies::toString);
+        StageLatency basic = latencies.get(0);
+        assertEquals(DesktopStatus.PROVISIONING, basic.stage());
+        assertEquals(DesktopPlan.BASIC, basic.plan());
+        assertEquals(100, basic.count());
+        assertEquals(50_500, basic.p50(), 1);
+        assertEquals(90_100, basic.p90(), 1);
+        assertEquals(99_010, basic.p99(), 1);
+        assertEquals(100_000, basic.max());
+        assertEquals(5_000, latencies.get(1).p99(), 1);
+    }
+
+    @Test
+    void stageLatencies_canBeFilteredByPlanAndStage() {
+        Instant now = Instant.now();
+        eventRepository.insertAll(List.of(
+                event(1, DesktopPlan.BASIC, DesktopStatus.PROVISIONING, DesktopStatus.STARTING, now,
+                        Duration.ofSeconds(30)),
+                event(1, DesktopPlan.BASIC, DesktopStatus.STARTING, DesktopStatus.WAITING_FOR_IP, now,
+                        Duration.ofSeconds(10)),
+                event(2, DesktopPlan.PREMIUM, DesktopStatus.STARTING, DesktopStatus.WAITING_FOR_IP, now,
+                        Duration.ofSeconds(20))));
+
+        List<StageLatency> latencies = eventRepository.findStageLatencies(now.minusSeconds(60), DesktopPlan.BASIC,
+                DesktopStatus.STARTING);
+
+        assertEquals(1, latencies.size());
+        assertEquals(10_000, latencies.get(0).max());
+    }
+
+    private static DesktopStatusChangedEvent event(long desktopId, DesktopPlan plan, DesktopStatus from,
+            DesktopStatus to, Instant at, Duration duration) {
+        return new DesktopStatusChangedEvent(desktopId, "user" + desktopId, plan, from, to, null, at, duration, "pve",
+                "UPID:pve:" + desktopId);
+    }
+}
@@ -0,0 +1,216 @@
+package com.xstream.clouddesktop.repository;
+
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopRevision;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.model.DesktopStatusView;
+import com.xstream.clouddesktop.model.DesktopSummary;
+import com.xstream.clouddesktop.repository.DesktopRepositoryCustom.StatusTransition;
+import org.hibernate.Session;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs against the schema built by the Flyway migrations.
+ */
+@DataJpaTest
+class DesktopRepositoryTest {
+
+    @Autowired
+    private DesktopRepository desktopRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Test
+    void migrationsCreateQueryIndexes() {
+        List<String> indexes = jdbcTemplate.queryForList(
+                "SELECT index_name FROM information_schema.indexes WHERE table_name = 'DESKTOPS'", String.class);
+
+        assertTrue(indexes.containsAll(List.of("IDX_DESKTOPS_USER_STATUS", "IDX_DESKTOPS_USER_CREATED",
+                "IDX_DESKTOPS_STATUS_CREATED_ID", "IDX_DESKTOPS_VM_ID", "IDX_DESKTOPS_CONNECTION_CREATED",
+                "UK_DESKTOPS_ACTIVE_USER")), indexes::toString);
+    }
+
+    @Test
+    void secondLiveDesktopForUser_isRejected() {
+        desktopRepository.saveAndFlush(desktop("user1", DesktopStatus.RUNNING));
+
+        assertThrows(DataIntegrityViolationException.class,
+                () -> desktopRepository.saveAndFlush(desktop("user1", DesktopStatus.PENDING)));
+    }
+
+    @Test
+    void deletedDesktops_doNotCountTowardsTheLimit() {
+        desktopRepository.saveAndFlush(desktop("user1", DesktopStatus.DELETED));
+        desktopRepository.saveAndFlush(desktop("user1", DesktopStatus.DELETED));
+        Desktop live = desktopRepository.saveAndFlush(desktop("user1", DesktopStatus.RUNNING));
+        desktopRepository.saveAndFlush(desktop("user2", DesktopStatus.RUNNING));
+
+        assertEquals(live.getId(),
+                desktopRepository.findByUserIdAndStatusNot("user1", DesktopStatus.DELETED).orElseThrow().getId());
+    }
+
+    @Test
+    void deletingFreesTheSlot() {
+        Desktop first = desktopRepository.saveAndFlush(desktop("user1", DesktopStatus.RUNNING));
+        first.setStatus(DesktopStatus.DELETED);
+        desktopRepository.saveAndFlush(first);
+
+        assertDoesNotThrow(() -> desktopRepository.saveAndFlush(desktop("user1", DesktopStatus.PENDING)));
+    }
+
+    @Test
+    void updateStatus_onlyAppliesInExpectedStatus() {
+        Long id = desktopRepository.saveAndFlush(desktop("user1", DesktopStatus.STOPPED)).getId();
+
+        assertEquals(0, desktopRepository.updateStatus(id, DesktopStatus.RUNNING, DesktopStatus.STOPPING, "Stopping",
+                Instant.now()));
+        assertEquals(1, desktopRepository.updateStatus(id, DesktopStatus.STOPPED, DesktopStatus.STARTING, "Starting",
+                Instant.now()));
+        assertEquals("STARTING", status(id));
+        assertEquals(1L, jdbcTemplate.queryForObject("SELECT version FROM desktops WHERE id = ?", Long.class, id));
+    }
+
+    @Test
+    void staleEntitySave_isRejected() {
+        Desktop desktop = desktopRepository.saveAndFlush(desktop("user1", DesktopStatus.STOPPED));
+        desktopRepository.updateStatus(desktop.getId(), DesktopStatus.STOPPED, DesktopStatus.STARTING, "Starting",
+                Instant.now());
+
+        desktop.setName("renamed");
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> desktopRepository.saveAndFlush(desktop));
+    }
+
+    @Test
+    void transitionAll_skipsDesktopsThatMovedOn() {
+        Long stuck = desktopRepository.saveAndFlush(desktop("user1", DesktopStatus.PROVISIONING)).getId();
+        Long finished = desktopRepository.saveAndFlush(desktop("user2", DesktopStatus.RUNNING)).getId();
+
+        List<Long> changed = desktopRepository.transitionAll(List.of(
+                new StatusTransition(stuck, DesktopStatus.PROVISIONING),
+                new StatusTransition(finished, DesktopStatus.CONFIGURING)), DesktopStatus.FAILED, "Failed", "Stuck");
+
+        assertEquals(List.of(stuck), changed);
+        assertEquals("FAILED", status(stuck));
+        assertEquals("RUNNING", status(finished));
+    }
+
+    @Test
+    void findPage_walksTiesOnCreatedAtWithoutGapsOrRepeats() {
+        Instant createdAt = Instant.parse("2024-01-01T00:00:00Z");
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            Long id = desktopRepository.saveAndFlush(desktop("user" + i, DesktopStatus.RUNNING)).getId();
+            // Pairs of desktops share a creation time, so only the id tells them apart
+            jdbcTemplate.update("UPDATE desktops SET created_at = ? WHERE id = ?",
+                    Timestamp.from(createdAt.plusSeconds(i / 2)), id);
+            ids.add(id);
+        }
+        entityManager.clear(); // Drop the cached creation times
+        DesktopFilter all = new DesktopFilter(Set.of(), null, null, null);
+
+        List<Long> newestFirst = new ArrayList<>();
+        DesktopCursor cursor = null;
+        List<DesktopSummary> page;
+        do {
+            page = desktopRepository.findPage(all, cursor, false, 3);
+            page.forEach(desktop -> newestFirst.add(desktop.id()));
+            cursor = page.isEmpty() ? null : DesktopCursor.of(page.get(page.size() - 1));
+        } while (page.size() == 3 && newestFirst.size() <= ids.size());
+
+        Collections.reverse(ids);
+        assertEquals(ids, newestFirst);
+    }
+
+    @Test
+    void findPage_appliesEveryFilter() {
+        Desktop running = desktop("user1", DesktopStatus.RUNNING);
+        running.setNode("pve1");
+        Long match = desktopRepository.saveAndFlush(running).getId();
+        Desktop otherNode = desktop("user2", DesktopStatus.RUNNING);
+        otherNode.setNode("pve2");
+        desktopRepository.saveAndFlush(otherNode);
+        Desktop stopped = desktop("user3", DesktopStatus.STOPPED);
+        stopped.setNode("pve1");
+        Long alsoMatch = desktopRepository.saveAndFlush(stopped).getId();
+        desktopRepository.saveAndFlush(desktop("user4", DesktopStatus.FAILED));
+
+        DesktopFilter filter = new DesktopFilter(Set.of(DesktopStatus.RUNNING, DesktopStatus.STOPPED),
+                DesktopPlan.BASIC, "pve1", null);
+        assertEquals(List.of(match, alsoMatch),
+                desktopRepository.findPage(filter, null, true, 10).stream().map(DesktopSummary::id).toList());
+        assertEquals(List.of(alsoMatch), desktopRepository.findPage(
+                new DesktopFilter(Set.of(), null, null, "user3"), null, true, 10).stream().map(DesktopSummary::id)
+                .toList());
+    }
+
+    @Test
+    void cursor_roundTrips_andRejectsGarbage() {
+        DesktopCursor cursor = new DesktopCursor(Instant.parse("2024-01-01T00:00:00.123456Z"), 42L);
+
+        assertEquals(cursor, DesktopCursor.decode(cursor.encode()));
+        assertThrows(IllegalArgumentException.class, () -> DesktopCursor.decode("not-a-cursor"));
+    }
+
+    @Test
+    void projections_readOnlyTheirColumns_withoutManagingEntities() {
+        Desktop saved = desktop("user1", DesktopStatus.RUNNING);
+        saved.setStatusMessage("Desktop is ready");
+        saved.setConnectionUrl("http://guac/#/client/conn1");
+        Long id = desktopRepository.saveAndFlush(saved).getId();
+        entityManager.clear();
+
+        assertEquals(new DesktopStatusView(id, DesktopStatus.RUNNING, "Desktop is ready"),
+                desktopRepository.findStatusById(id).orElseThrow());
+        List<DesktopSummary> summaries = desktopRepository.findSummariesByUserId("user1");
+        assertEquals(1, summaries.size());
+        assertEquals(DesktopPlan.BASIC, summaries.get(0).plan());
+        assertEquals(0, entityManager.getEntityManager().unwrap(Session.class).getStatistics().getEntityCount());
+    }
+
+    @Test
+    void revision_changesWithLifecycleWritesAndSessionActivity() {
+        Desktop saved = desktopRepository.saveAndFlush(desktop("user1", DesktopStatus.STOPPED));
+        DesktopRevision initial = desktopRepository.findRevisionById(saved.getId()).orElseThrow();
+        assertEquals(DesktopRevision.of(saved), initial);
+
+        desktopRepository.updateStatus(saved.getId(), DesktopStatus.STOPPED, DesktopStatus.STARTING, "Starting",
+                Instant.now());
+        DesktopRevision started = desktopRepository.findRevisionById(saved.getId()).orElseThrow();
+        assertNotEquals(initial, started);
+
+        // Written in bulk by the activity poller, without a version bump
+        jdbcTemplate.update("UPDATE desktops SET active_sessions = 1 WHERE id = ?", saved.getId());
+        assertNotEquals(started, desktopRepository.findRevisionById(saved.getId()).orElseThrow());
+    }
+
+    private String status(Long id) {
+        return jdbcTemplate.queryForObject("SELECT status FROM desktops WHERE id = ?", String.class, id);
+    }
+
+    private static Desktop desktop(String userId, DesktopStatus status) {
+        return Desktop.builder()
+                .userId(userId)
+                .name("test")
+                .status(status)
+                .plan(DesktopPlan.BASIC)
+                .build();
+    }
+}
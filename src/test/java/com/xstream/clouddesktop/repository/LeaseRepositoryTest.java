@@ -0,0 +1,69 @@
+package com.xstream.clouddesktop.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Two instances, "a" and "b", competing for the same lease.
+ */
+@DataJpaTest
+@Import(LeaseRepository.class)
+class LeaseRepositoryTest {
+
+    private static final Duration TTL = Duration.ofSeconds(30);
+    private static final Instant NOW = Instant.parse("2024-05-01T10:00:00Z");
+
+    @Autowired
+    private LeaseRepository leases;
+
+    @Test
+    void onlyOneInstanceHoldsALease() {
+        assertTrue(leases.tryAcquire("job", "a", NOW, TTL));
+        assertFalse(leases.tryAcquire("job", "b", NOW.plusSeconds(1), TTL));
+        assertTrue(leases.tryAcquire("job", "a", NOW.plusSeconds(1), TTL)); // Re-acquiring extends it
+        assertTrue(leases.tryAcquire("other-job", "b", NOW, TTL));
+
+        assertEquals(Optional.of("a"), leases.findOwner("job", NOW.plusSeconds(2)));
+    }
+
+    @Test
+    void anExpiredLeaseIsTakenOver() {
+        leases.tryAcquire("job", "a", NOW, TTL);
+
+        assertFalse(leases.tryAcquire("job", "b", NOW.plusSeconds(29), TTL));
+        assertTrue(leases.tryAcquire("job", "b", NOW.plusSeconds(31), TTL));
+
+        // The previous holder finds out at its next heartbeat
+        assertFalse(leases.renew("job", "a", NOW.plusSeconds(32), TTL));
+        assertEquals(Optional.of("b"), leases.findOwner("job", NOW.plusSeconds(32)));
+    }
+
+    @Test
+    void renewingKeepsTheLeaseAlive() {
+        leases.tryAcquire("job", "a", NOW, TTL);
+
+        assertTrue(leases.renew("job", "a", NOW.plusSeconds(20), TTL));
+        assertFalse(leases.tryAcquire("job", "b", NOW.plusSeconds(40), TTL));
+        assertFalse(leases.renew("job", "b", NOW.plusSeconds(40), TTL));
+    }
+
+    @Test
+    void releaseFreesTheLeaseOnlyForItsOwner() {
+        leases.tryAcquire("job", "a", NOW, TTL);
+
+        leases.release("job", "b");
+        assertFalse(leases.tryAcquire("job", "b", NOW.plusSeconds(1), TTL));
+
+        leases.release("job", "a");
+        assertEquals(Optional.empty(), leases.findOwner("job", NOW.plusSeconds(1)));
+        assertTrue(leases.tryAcquire("job", "b", NOW.plusSeconds(1), TTL));
+    }
+}
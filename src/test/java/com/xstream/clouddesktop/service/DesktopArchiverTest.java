@@ -0,0 +1,120 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.config.DesktopProperties;
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.repository.DesktopArchiveRepository;
+import com.xstream.clouddesktop.repository.DesktopCounterRepository;
+import com.xstream.clouddesktop.repository.DesktopRepository;
+import com.xstream.clouddesktop.repository.LeaseRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs against the schema built by the Flyway migrations.
+ */
+@DataJpaTest
+@Import({ DesktopArchiveRepository.class, DesktopCounterRepository.class, LeaseRepository.class })
+class DesktopArchiverTest {
+
+    @Autowired
+    private DesktopRepository desktopRepository;
+    @Autowired
+    private DesktopArchiveRepository desktopArchive;
+    @Autowired
+    private DesktopCounterRepository desktopCounters;
+    @Autowired
+    private LeaseRepository leaseRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final DesktopProperties desktopProperties = new DesktopProperties();
+    private DesktopArchiver archiver;
+
+    @BeforeEach
+    void setUp() {
+        archiver = new DesktopArchiver(desktopArchive, desktopCounters, new TransactionTemplate(transactionManager),
+                desktopProperties, new LeaseManager(leaseRepository, desktopProperties));
+    }
+
+    @Test
+    void movesOnlyFinishedDesktopsPastTheirGracePeriod() {
+        Long oldDeleted = desktop("user1", DesktopStatus.DELETED, Duration.ofDays(2));
+        Long newDeleted = desktop("user1", DesktopStatus.DELETED, Duration.ofHours(1));
+        Long oldFailed = desktop("user2", DesktopStatus.FAILED, Duration.ofDays(8));
+        Long newFailed = desktop("user3", DesktopStatus.FAILED, Duration.ofDays(2));
+        Long running = desktop("user1", DesktopStatus.RUNNING, Duration.ofDays(30));
+        Long failedWithVm = desktop("user4", DesktopStatus.FAILED, Duration.ofDays(30));
+        jdbcTemplate.update("UPDATE desktops SET vm_id = 100 WHERE id = ?", failedWithVm);
+        desktopCounters.recount();
+
+        assertEquals(2, archiver.archiveBatch());
+
+        assertFalse(desktopRepository.existsById(oldDeleted));
+        assertFalse(desktopRepository.existsById(oldFailed));
+        assertTrue(desktopRepository.existsById(newDeleted));
+        assertTrue(desktopRepository.existsById(newFailed));
+        assertTrue(desktopRepository.existsById(running));
+        // Its VM is only destroyed when the user deletes it
+        assertTrue(desktopRepository.existsById(failedWithVm));
+        Desktop archived = desktopArchive.findById(oldFailed).orElseThrow();
+        assertEquals("user2", archived.getUserId());
+        assertEquals(DesktopStatus.FAILED, archived.getStatus());
+        assertEquals("Clone failed", archived.getErrorMessage());
+        // Counters follow the rows out of the table
+        assertEquals(1, desktopCounters.count(Set.of(DesktopStatus.DELETED), null));
+        assertEquals(2, desktopCounters.count(Set.of(DesktopStatus.FAILED), null));
+    }
+
+    @Test
+    void archivesInBatches() {
+        desktopProperties.getArchiver().setBatchSize(2);
+        for (int i = 0; i < 5; i++) {
+            desktop("user" + i, DesktopStatus.DELETED, Duration.ofDays(2));
+        }
+
+        archiver.archive();
+
+        assertEquals(0, desktopRepository.count());
+        assertEquals(5, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM desktops_archive", Integer.class));
+    }
+
+    @Test
+    void leavesArchivingToTheLeaseHolder() {
+        leaseRepository.tryAcquire(DesktopArchiver.LEASE, "other-instance", Instant.now(), Duration.ofMinutes(1));
+        desktop("user1", DesktopStatus.DELETED, Duration.ofDays(2));
+
+        archiver.archive();
+
+        assertEquals(1, desktopRepository.count());
+    }
+
+    private Long desktop(String userId, DesktopStatus status, Duration age) {
+        Long id = desktopRepository.saveAndFlush(Desktop.builder()
+                .userId(userId)
+                .name("test")
+                .status(status)
+                .plan(DesktopPlan.BASIC)
+                .errorMessage(status == DesktopStatus.FAILED ? "Clone failed" : null)
+                .build()).getId();
+        jdbcTemplate.update("UPDATE desktops SET updated_at = ? WHERE id = ?",
+                Timestamp.from(Instant.now().minus(age)), id);
+        return id;
+    }
+}
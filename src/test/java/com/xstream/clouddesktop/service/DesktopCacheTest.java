@@ -0,0 +1,113 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.config.DesktopProperties;
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.service.event.DesktopStatusChangedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DesktopCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicInteger loads = new AtomicInteger();
+    private DesktopCache cache;
+    private Desktop stored;
+
+    @BeforeEach
+    void setUp() {
+        cache = new DesktopCache(new DesktopProperties());
+        cache.bindTo(registry);
+        stored = Desktop.builder()
+                .id(1L)
+                .userId("user1")
+                .name("test")
+                .status(DesktopStatus.RUNNING)
+                .plan(DesktopPlan.BASIC)
+                .build();
+    }
+
+    @Test
+    void servesRepeatedReadsFromMemory() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(DesktopStatus.RUNNING, get().orElseThrow().getStatus());
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(2, registry.get("cache.gets").tags("cache", "desktops.by-id", "result", "hit")
+                .functionCounter().count());
+        assertEquals(1, registry.get("cache.gets").tags("cache", "desktops.by-id", "result", "miss")
+                .functionCounter().count());
+    }
+
+    @Test
+    void statusChangeEvictsTheDesktop() {
+        get();
+        cache.getByUserId("user1", userId -> Optional.of(stored.toBuilder().build()));
+        stored.setStatus(DesktopStatus.STOPPING);
+
+        cache.onStatusChanged(new DesktopStatusChangedEvent(1L, "user1", DesktopPlan.BASIC, DesktopStatus.RUNNING,
+                DesktopStatus.STOPPING, null, Instant.now(), null, null, null));
+
+        assertEquals(DesktopStatus.STOPPING, get().orElseThrow().getStatus());
+        assertEquals(DesktopStatus.STOPPING, cache.getByUserId("user1", userId -> Optional.of(stored.toBuilder().build()))
+                .orElseThrow().getStatus());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void callersCannotChangeTheCachedDesktop() {
+        get().orElseThrow().setConnectionUrl("changed");
+
+        assertNull(get().orElseThrow().getConnectionUrl());
+    }
+
+    @Test
+    void missesAreNotCached() {
+        assertTrue(cache.getById(2L, id -> {
+            loads.incrementAndGet();
+            return Optional.empty();
+        }).isEmpty());
+        assertTrue(cache.getById(2L, id -> {
+            loads.incrementAndGet();
+            return Optional.empty();
+        }).isEmpty());
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void batchReadsLoadOnlyWhatIsMissing_inOneCall() {
+        get();
+        List<Set<Long>> batches = new ArrayList<>();
+
+        Map<Long, Desktop> desktops = cache.getAllById(List.of(1L, 2L, 3L), missing -> {
+            batches.add(missing);
+            return Map.of(2L, stored.toBuilder().id(2L).build());
+        });
+
+        assertEquals(Set.of(1L, 2L), desktops.keySet());
+        assertEquals(List.of(Set.of(2L, 3L)), batches);
+        desktops.get(1L).setStatus(DesktopStatus.DELETED);
+        assertEquals(DesktopStatus.RUNNING, get().orElseThrow().getStatus()); // A copy, as for single reads
+    }
+
+    private Optional<Desktop> get() {
+        return cache.getById(1L, id -> {
+            loads.incrementAndGet();
+            return Optional.of(stored.toBuilder().build());
+        });
+    }
+}
@@ -0,0 +1,151 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.client.guacamole.GuacamoleClient;
+import com.xstream.clouddesktop.client.guacamole.GuacamoleConnectionMirror;
+import com.xstream.clouddesktop.client.guacamole.GuacamoleMutationBatcher;
+import com.xstream.clouddesktop.client.guacamole.dto.ConnectionResponse;
+import com.xstream.clouddesktop.client.guacamole.exception.ConnectionNotFoundException;
+import com.xstream.clouddesktop.client.guacamole.exception.GuacamoleException;
+import com.xstream.clouddesktop.config.GuacamoleProperties;
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.repository.DesktopRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DesktopConnectionManagerTest {
+
+    @Mock
+    private GuacamoleClient guacamoleClient;
+    @Mock
+    private GuacamoleMutationBatcher mutationBatcher;
+    @Mock
+    private DesktopRepository desktopRepository;
+    @Mock
+    private GuacamoleProperties guacamoleProperties;
+
+    private final GuacamoleConnectionMirror mirror = new GuacamoleConnectionMirror();
+
+    private DesktopConnectionManager connectionManager;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(guacamoleProperties.getDefaultProtocol()).thenReturn("spice");
+        lenient().when(guacamoleClient.getConnectionMirror()).thenReturn(mirror);
+        lenient().when(guacamoleClient.generateClientUrl(anyString()))
+                .thenAnswer(i -> "http://guac/#/client/" + i.getArgument(0));
+
+        connectionManager = new DesktopConnectionManager(guacamoleClient, mutationBatcher, desktopRepository,
+                guacamoleProperties);
+    }
+
+    private static Desktop desktop(String ipAddress) {
+        Desktop desktop = new Desktop();
+        desktop.setId(2L);
+        desktop.setUserId("user1");
+        desktop.setVmId(101);
+        desktop.setVmIpAddress(ipAddress);
+        return desktop;
+    }
+
+    @Test
+    void attach_shouldReuseConnectionOfPreviousDesktop() {
+        Desktop previous = desktop("192.168.1.100");
+        previous.setConnectionId("conn1");
+        when(desktopRepository.findFirstByUserIdAndConnectionIdIsNotNullOrderByCreatedAtDesc("user1"))
+                .thenReturn(Optional.of(previous));
+
+        Desktop desktop = desktop("192.168.1.200");
+        connectionManager.attach(desktop);
+
+        assertEquals("conn1", desktop.getConnectionId());
+        assertEquals("http://guac/#/client/conn1", desktop.getConnectionUrl());
+        verify(guacamoleClient).updateConnection(eq("conn1"), eq("desktop-user1"), eq("spice"),
+                eq("192.168.1.200"), eq(61101), anyMap());
+        verify(mutationBatcher, never()).addConnection(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void attach_shouldCreateConnection_whenPreviousOneWasRemoved() {
+        Desktop previous = desktop("192.168.1.100");
+        previous.setConnectionId("conn1");
+        when(desktopRepository.findFirstByUserIdAndConnectionIdIsNotNullOrderByCreatedAtDesc("user1"))
+                .thenReturn(Optional.of(previous));
+        doThrow(new ConnectionNotFoundException("conn1", "mysql")).when(guacamoleClient)
+                .updateConnection(eq("conn1"), anyString(), anyString(), anyString(), anyInt(), anyMap());
+        when(mutationBatcher.addConnection(eq("desktop-user1"), eq("spice"), eq("192.168.1.200"), eq(61101),
+                anyMap())).thenReturn(CompletableFuture.completedFuture("conn2"));
+
+        Desktop desktop = desktop("192.168.1.200");
+        connectionManager.attach(desktop);
+
+        assertEquals("conn2", desktop.getConnectionId());
+    }
+
+    @Test
+    void attach_shouldRethrowTheErrorGuacamoleReportedForTheCreate() {
+        when(mutationBatcher.addConnection(any(), any(), any(), any(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new GuacamoleException("rejected")));
+
+        GuacamoleException thrown = assertThrows(GuacamoleException.class,
+                () -> connectionManager.attach(desktop("192.168.1.200")));
+
+        assertEquals("rejected", thrown.getMessage());
+    }
+
+    @Test
+    void attach_shouldAdoptExistingConnectionWithSameName() {
+        ConnectionResponse existing = new ConnectionResponse();
+        existing.setIdentifier("conn9");
+        existing.setName("desktop-user1");
+        mirror.put(existing);
+
+        Desktop desktop = desktop("192.168.1.200");
+        connectionManager.attach(desktop);
+
+        assertEquals("conn9", desktop.getConnectionId());
+        verify(mutationBatcher, never()).addConnection(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void detach_shouldParkConnectionInsteadOfDeletingIt() {
+        Desktop desktop = desktop("192.168.1.100");
+        desktop.setConnectionId("conn1");
+        desktop.setProtocol("SPICE");
+
+        connectionManager.detach(desktop);
+
+        verify(guacamoleClient).updateConnection(eq("conn1"), anyString(), eq("spice"),
+                eq(DesktopConnectionManager.PARKED_HOSTNAME), anyInt(), anyMap());
+        verify(guacamoleClient, never()).deleteConnection(anyString());
+    }
+
+    @Test
+    void encryptedJsonMode_shouldMintUrlAtConnectTimeWithoutStoredConnection() {
+        when(guacamoleProperties.getConnectionMode()).thenReturn(GuacamoleProperties.ConnectionMode.ENCRYPTED_JSON);
+        when(guacamoleClient.generateEncryptedJsonUrl(eq("user1"), eq("desktop-user1"), eq("spice"), anyMap()))
+                .thenReturn("http://guac/#/client/x?data=sealed");
+
+        Desktop desktop = desktop("192.168.1.200");
+        connectionManager.attach(desktop);
+
+        assertNull(desktop.getConnectionId());
+        verifyNoMoreInteractions(desktopRepository);
+        verify(guacamoleClient, never()).updateConnection(any(), any(), any(), any(), any(), any());
+
+        assertEquals("http://guac/#/client/x?data=sealed", connectionManager.clientUrl(desktop));
+        verify(guacamoleClient).generateEncryptedJsonUrl(eq("user1"), eq("desktop-user1"), eq("spice"),
+                argThat(parameters -> "192.168.1.200".equals(parameters.get("hostname"))
+                        && "61101".equals(parameters.get("port"))));
+    }
+}
@@ -0,0 +1,103 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.config.DesktopProperties;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.repository.DesktopEventRepository;
+import com.xstream.clouddesktop.service.event.DesktopStatusChangedEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DesktopEventRecorderTest {
+
+    @Mock
+    private DesktopEventRepository eventRepository;
+
+    private DesktopEventRecorder recorder;
+
+    @AfterEach
+    void tearDown() {
+        recorder.shutdown();
+    }
+
+    @Test
+    void flush_writesBufferedEventsInBatches() {
+        recorder = recorder(100, 2, Duration.ofHours(1));
+        List<List<DesktopStatusChangedEvent>> batches = new ArrayList<>();
+        doAnswer(invocation -> batches.add(List.copyOf(invocation.getArgument(0))))
+                .when(eventRepository).insertAll(anyList());
+
+        for (long id = 1; id <= 3; id++) {
+            recorder.onStatusChanged(event(id));
+        }
+        // The first full batch may already be on its way from the flush thread
+        int written = recorder.flush();
+        recorder.shutdown();
+
+        assertEquals(3, batches.stream().mapToInt(List::size).sum());
+        assertTrue(written >= 1);
+        assertTrue(batches.stream().allMatch(batch -> batch.size() <= 2));
+    }
+
+    @Test
+    void eventsBeyondCapacity_areDropped() {
+        recorder = recorder(2, 10, Duration.ofHours(1));
+
+        for (long id = 1; id <= 5; id++) {
+            recorder.onStatusChanged(event(id));
+        }
+        recorder.flush();
+
+        ArgumentCaptor<List<DesktopStatusChangedEvent>> batch = ArgumentCaptor.captor();
+        verify(eventRepository).insertAll(batch.capture());
+        assertEquals(List.of(1L, 2L), batch.getValue().stream().map(DesktopStatusChangedEvent::desktopId).toList());
+    }
+
+    @Test
+    void failedBatch_doesNotBlockLaterEvents() {
+        recorder = recorder(100, 10, Duration.ofHours(1));
+        doThrow(new RuntimeException("db down")).doNothing().when(eventRepository).insertAll(anyList());
+
+        recorder.onStatusChanged(event(1));
+        assertEquals(0, recorder.flush());
+        recorder.onStatusChanged(event(2));
+        assertEquals(1, recorder.flush());
+    }
+
+    @Test
+    void bufferIsDrainedPeriodically() {
+        recorder = recorder(100, 10, Duration.ofMillis(20));
+
+        recorder.onStatusChanged(event(1));
+
+        verify(eventRepository, timeout(2000)).insertAll(anyList());
+    }
+
+    private DesktopEventRecorder recorder(int capacity, int batchSize, Duration flushInterval) {
+        DesktopProperties properties = new DesktopProperties();
+        properties.getEvents().setBufferCapacity(capacity);
+        properties.getEvents().setBatchSize(batchSize);
+        properties.getEvents().setFlushInterval(flushInterval);
+        return new DesktopEventRecorder(eventRepository, properties);
+    }
+
+    private static DesktopStatusChangedEvent event(long desktopId) {
+        return new DesktopStatusChangedEvent(desktopId, "user" + desktopId, DesktopPlan.BASIC,
+                DesktopStatus.PROVISIONING, DesktopStatus.STARTING, null, Instant.now(), Duration.ofSeconds(30), "pve",
+                null);
+    }
+}
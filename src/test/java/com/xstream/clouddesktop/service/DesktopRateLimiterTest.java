@@ -0,0 +1,87 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.config.DesktopProperties;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.service.exception.RateLimitExceededException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DesktopRateLimiterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final DesktopProperties properties = new DesktopProperties();
+    private DesktopRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        properties.getRateLimits().getPlans().put(DesktopPlan.BASIC, new DesktopProperties.Limit(2, Duration.ofSeconds(5)));
+        properties.getRateLimits().getPlans().remove(DesktopPlan.PREMIUM);
+        properties.getRateLimits().setTenant(new DesktopProperties.Limit(3, Duration.ofSeconds(10)));
+        limiter = new DesktopRateLimiter(properties, nanoTime::get);
+        limiter.bindTo(registry);
+    }
+
+    @Test
+    void allowsABurst_thenOneRequestPerRefillInterval() {
+        limiter.acquire("user1", DesktopPlan.BASIC, null);
+        limiter.acquire("user1", DesktopPlan.BASIC, null);
+
+        RateLimitExceededException e = assertThrows(RateLimitExceededException.class,
+                () -> limiter.acquire("user1", DesktopPlan.BASIC, null));
+        assertEquals(Duration.ofSeconds(5), e.getRetryAfter());
+        limiter.acquire("user2", DesktopPlan.BASIC, null); // Every user has their own bucket
+
+        advance(Duration.ofSeconds(3));
+        e = assertThrows(RateLimitExceededException.class, () -> limiter.acquire("user1", DesktopPlan.BASIC, null));
+        assertEquals(Duration.ofSeconds(2), e.getRetryAfter());
+        advance(Duration.ofSeconds(2));
+        limiter.acquire("user1", DesktopPlan.BASIC, null);
+
+        assertEquals(2, registry.get("desktop.rate_limit.rejected").tags("scope", "user", "plan", "BASIC")
+                .functionCounter().count());
+    }
+
+    @Test
+    void plansWithoutALimit_areNotLimited() {
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire("user1", DesktopPlan.PREMIUM, null);
+        }
+    }
+
+    @Test
+    void tenantBucketIsSharedByItsUsers_andARejectionCostsTheUserNothing() {
+        limiter.acquire("user1", DesktopPlan.BASIC, "acme");
+        limiter.acquire("user2", DesktopPlan.BASIC, "acme");
+        limiter.acquire("user3", DesktopPlan.BASIC, "acme");
+
+        RateLimitExceededException e = assertThrows(RateLimitExceededException.class,
+                () -> limiter.acquire("user1", DesktopPlan.BASIC, "acme"));
+        assertEquals(Duration.ofSeconds(10), e.getRetryAfter());
+        limiter.acquire("user1", DesktopPlan.BASIC, null); // user1 still has the token the tenant refused
+
+        assertEquals(1, registry.get("desktop.rate_limit.rejected").tags("scope", "tenant")
+                .functionCounter().count());
+        assertEquals(0, registry.get("desktop.rate_limit.rejected").tags("scope", "user", "plan", "BASIC")
+                .functionCounter().count());
+    }
+
+    @Test
+    void disabledLimiter_allowsEverything() {
+        properties.getRateLimits().setEnabled(false);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire("user1", DesktopPlan.BASIC, "acme");
+        }
+    }
+
+    private void advance(Duration duration) {
+        nanoTime.addAndGet(duration.toNanos());
+    }
+}
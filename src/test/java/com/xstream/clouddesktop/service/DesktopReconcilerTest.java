@@ -0,0 +1,115 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.config.DesktopProperties;
+import com.xstream.clouddesktop.config.ProxmoxProperties;
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.repository.DesktopCounterRepository;
+import com.xstream.clouddesktop.repository.DesktopRepository;
+import com.xstream.clouddesktop.repository.DesktopRepositoryCustom.StatusTransition;
+import com.xstream.clouddesktop.service.event.DesktopStatusChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DesktopReconcilerTest {
+
+    @Mock
+    private DesktopRepository desktopRepository;
+    @Mock
+    private DesktopCounterRepository desktopCounters;
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    @Mock
+    private LeaseManager leaseManager;
+
+    private DesktopReconciler reconciler;
+
+    @BeforeEach
+    void setUp() {
+        reconciler = new DesktopReconciler(desktopRepository, desktopCounters,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), new DesktopProperties(),
+                new ProxmoxProperties(), eventPublisher, leaseManager);
+    }
+
+    @Test
+    void failsStuckDesktopsInOneBatch() {
+        Desktop provisioning = desktop(1L, DesktopStatus.PROVISIONING);
+        Desktop deleting = desktop(2L, DesktopStatus.DELETING);
+        when(desktopRepository.findAllByStatusInAndUpdatedAtBefore(eq(DesktopReconciler.TRANSITIONAL),
+                any(Instant.class))).thenReturn(List.of(provisioning, deleting));
+        when(desktopRepository.transitionAll(anyCollection(), eq(DesktopStatus.FAILED), anyString(), anyString()))
+                .thenReturn(List.of(1L));
+
+        assertEquals(1, reconciler.failStuckDesktops());
+        verify(desktopRepository).transitionAll(eq(List.of(
+                new StatusTransition(1L, DesktopStatus.PROVISIONING),
+                new StatusTransition(2L, DesktopStatus.DELETING))), eq(DesktopStatus.FAILED), anyString(),
+                anyString());
+        // Only the desktop that was actually failed is reported
+        verify(eventPublisher).publishEvent(argThat((DesktopStatusChangedEvent event) -> event.desktopId() == 1L
+                && event.previousStatus() == DesktopStatus.PROVISIONING && event.status() == DesktopStatus.FAILED));
+        verifyNoMoreInteractions(eventPublisher);
+        verify(desktopCounters).move(DesktopPlan.BASIC, DesktopStatus.PROVISIONING, DesktopStatus.FAILED);
+        verifyNoMoreInteractions(desktopCounters);
+    }
+
+    @Test
+    void onlySweepsOnTheLeaseHolder() {
+        when(leaseManager.tryAcquire(DesktopReconciler.LEASE)).thenReturn(false);
+
+        reconciler.sweep();
+        verifyNoInteractions(desktopRepository);
+    }
+
+    @Test
+    void onlyRecountsOnTheLeaseHolder() {
+        when(leaseManager.tryAcquire(DesktopReconciler.LEASE)).thenReturn(false, true);
+
+        reconciler.recountDesktops();
+        verify(desktopCounters, never()).recount();
+        reconciler.recountDesktops();
+        verify(desktopCounters).recount();
+    }
+
+    @Test
+    void doesNothingWhenNothingIsStuck() {
+        when(desktopRepository.findAllByStatusInAndUpdatedAtBefore(any(), any())).thenReturn(List.of());
+
+        assertEquals(0, reconciler.failStuckDesktops());
+        verify(desktopRepository, never()).transitionAll(any(), any(), any(), any());
+    }
+
+    @Test
+    void lookbackMatchesConfiguredThreshold() {
+        when(desktopRepository.findAllByStatusInAndUpdatedAtBefore(any(), any())).thenReturn(List.of());
+
+        reconciler.failStuckDesktops();
+
+        Instant expected = Instant.now().minus(new DesktopProperties().getReconciler().getStuckAfter());
+        verify(desktopRepository).findAllByStatusInAndUpdatedAtBefore(any(),
+                argThat(cutoff -> Math.abs(cutoff.toEpochMilli() - expected.toEpochMilli()) < 5000));
+    }
+
+    private static Desktop desktop(Long id, DesktopStatus status) {
+        Desktop desktop = new Desktop();
+        desktop.setId(id);
+        desktop.setStatus(status);
+        desktop.setPlan(DesktopPlan.BASIC);
+        return desktop;
+    }
+}
@@ -1,26 +1,40 @@
 package com.xstream.clouddesktop.service;
 
-import com.xstream.clouddesktop.client.guacamole.GuacamoleClient;
-import com.xstream.clouddesktop.client.guacamole.dto.ConnectionResponse;
 import com.xstream.clouddesktop.client.proxmox.ProxmoxClient;
 import com.xstream.clouddesktop.client.proxmox.dto.VmStatus;
-import com.xstream.clouddesktop.config.GuacamoleProperties;
+import com.xstream.clouddesktop.config.DesktopProperties;
 import com.xstream.clouddesktop.config.ProxmoxProperties;
 import com.xstream.clouddesktop.model.Desktop;
 import com.xstream.clouddesktop.model.DesktopPlan;
+import com.xstream.clouddesktop.model.DesktopRevision;
 import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.repository.DesktopArchiveRepository;
+import com.xstream.clouddesktop.repository.DesktopCounterRepository;
 import com.xstream.clouddesktop.repository.DesktopRepository;
+import com.xstream.clouddesktop.service.event.DesktopStatusChangedEvent;
 import com.xstream.clouddesktop.service.exception.DesktopAlreadyExistsException;
+import com.xstream.clouddesktop.service.exception.DesktopBusyException;
+import com.xstream.clouddesktop.service.exception.DesktopNotFoundException;
 import com.xstream.clouddesktop.service.exception.DesktopProvisioningException;
+import com.xstream.clouddesktop.service.exception.DesktopStatusChangedException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -32,27 +46,43 @@ class DesktopServiceTest {
     @Mock
     private DesktopRepository desktopRepository;
     @Mock
+    private DesktopCounterRepository desktopCounters;
+    @Mock
+    private DesktopArchiveRepository desktopArchive;
+    @Mock
     private ProxmoxClient proxmoxClient;
     @Mock
-    private GuacamoleClient guacamoleClient;
+    private DesktopConnectionManager connectionManager;
     @Mock
     private ProxmoxProperties proxmoxProperties;
     @Mock
-    private GuacamoleProperties guacamoleProperties;
+    private ApplicationEventPublisher eventPublisher;
+    @Mock
+    private LeaseManager leaseManager;
 
+    private DesktopOperations desktopOperations;
     private DesktopService desktopService;
 
     @BeforeEach
     void setUp() {
         lenient().when(proxmoxProperties.getTemplateVmId()).thenReturn(9000);
-        lenient().when(guacamoleProperties.getDefaultProtocol()).thenReturn("spice");
+        lenient().when(leaseManager.tryAcquire(anyString())).thenReturn(true);
+        desktopOperations = new DesktopOperations(leaseManager);
+        lenient().when(desktopRepository.updateStatus(any(), any(), any(), any(), any())).thenReturn(1);
+        lenient().when(desktopRepository.updateStatusAndError(any(), any(), any(), any(), any(), any()))
+                .thenReturn(1);
 
         desktopService = new DesktopService(
                 desktopRepository,
+                desktopCounters,
+                desktopArchive,
+                new DesktopCache(new DesktopProperties()),
+                desktopOperations,
                 proxmoxClient,
-                guacamoleClient,
+                connectionManager,
                 proxmoxProperties,
-                guacamoleProperties);
+                new TransactionTemplate(mock(PlatformTransactionManager.class)),
+                eventPublisher);
     }
 
     @Test
@@ -77,11 +107,12 @@ class DesktopServiceTest {
         when(proxmoxClient.startVm(anyInt())).thenReturn("UPID:start");
         when(proxmoxClient.waitForVmIp(anyInt(), any(Duration.class))).thenReturn("192.168.1.100");
 
-        ConnectionResponse connectionResponse = new ConnectionResponse();
-        connectionResponse.setIdentifier("conn1");
-        when(guacamoleClient.createSpiceConnection(anyString(), anyString(), anyInt(), any()))
-                .thenReturn(connectionResponse);
-        when(guacamoleClient.generateClientUrl(anyString())).thenReturn("http://guac/#/client/conn1");
+        doAnswer(invocation -> {
+            Desktop d = invocation.getArgument(0);
+            d.setConnectionId("conn1");
+            d.setConnectionUrl("http://guac/#/client/conn1");
+            return null;
+        }).when(connectionManager).attach(any(Desktop.class));
 
         // Act
         Desktop result = desktopService.createDesktop(userId, desktopName, plan);
@@ -95,7 +126,7 @@ class DesktopServiceTest {
 
         verify(proxmoxClient).cloneVm(eq(9000), eq(100), anyString());
         verify(proxmoxClient).startVm(100);
-        verify(guacamoleClient).createSpiceConnection(anyString(), eq("192.168.1.100"), anyInt(), any());
+        verify(connectionManager).attach(argThat(d -> "192.168.1.100".equals(d.getVmIpAddress())));
     }
 
     @Test
@@ -107,6 +138,18 @@ class DesktopServiceTest {
                 () -> desktopService.createDesktop("user1", "test", DesktopPlan.BASIC));
     }
 
+    @Test
+    void createDesktop_shouldFail_whenConcurrentCreateWins() {
+        when(desktopRepository.findByUserIdAndStatusNot(eq("user1"), eq(DesktopStatus.DELETED)))
+                .thenReturn(Optional.empty());
+        when(desktopRepository.save(any(Desktop.class)))
+                .thenThrow(new DataIntegrityViolationException("uk_desktops_active_user"));
+
+        assertThrows(DesktopAlreadyExistsException.class,
+                () -> desktopService.createDesktop("user1", "test", DesktopPlan.BASIC));
+        verifyNoInteractions(proxmoxClient);
+    }
+
     @Test
     void createDesktop_shouldCleanup_whenProvisioningFails() {
         // Arrange
@@ -125,10 +168,97 @@ class DesktopServiceTest {
 
         // Verify cleanup
         verify(proxmoxClient).deleteVm(100);
+        verify(desktopRepository).updateStatusAndError(eq(1L), eq(DesktopStatus.PROVISIONING),
+                eq(DesktopStatus.FAILED), anyString(), contains("Clone failed"), any());
+    }
+
+    @Test
+    void createDesktop_writesOnlyChangedColumns() {
+        when(desktopRepository.findByUserIdAndStatusNot(anyString(), any())).thenReturn(Optional.empty());
+        when(desktopRepository.save(any(Desktop.class))).thenAnswer(i -> {
+            Desktop d = i.getArgument(0);
+            d.setId(1L);
+            return d;
+        });
+        when(proxmoxClient.getNextAvailableVmId()).thenReturn(100);
+        when(proxmoxClient.cloneVm(anyInt(), anyInt(), anyString())).thenReturn("UPID:clone");
+        when(proxmoxClient.startVm(anyInt())).thenReturn("UPID:start");
+        when(proxmoxClient.waitForVmIp(anyInt(), any(Duration.class))).thenReturn("192.168.1.100");
+        doAnswer(invocation -> {
+            Desktop d = invocation.getArgument(0);
+            d.setProtocol("SPICE");
+            d.setConnectionId("conn1");
+            d.setConnectionUrl("http://guac/#/client/conn1");
+            return null;
+        }).when(connectionManager).attach(any(Desktop.class));
 
-        ArgumentCaptor<Desktop> desktopCaptor = ArgumentCaptor.forClass(Desktop.class);
-        verify(desktopRepository, atLeastOnce()).save(desktopCaptor.capture());
-        assertEquals(DesktopStatus.FAILED, desktopCaptor.getValue().getStatus());
+        desktopService.createDesktop("user1", "test", DesktopPlan.BASIC);
+
+        // Only the initial insert saves the whole entity
+        verify(desktopRepository, times(1)).save(any(Desktop.class));
+        InOrder order = inOrder(desktopRepository);
+        for (DesktopStatus[] step : new DesktopStatus[][] {
+                { DesktopStatus.PENDING, DesktopStatus.PROVISIONING },
+                { DesktopStatus.PROVISIONING, DesktopStatus.STARTING },
+                { DesktopStatus.STARTING, DesktopStatus.WAITING_FOR_IP },
+                { DesktopStatus.WAITING_FOR_IP, DesktopStatus.CONFIGURING },
+                { DesktopStatus.CONFIGURING, DesktopStatus.RUNNING } }) {
+            order.verify(desktopRepository).updateStatus(eq(1L), eq(step[0]), eq(step[1]), anyString(), any());
+            verify(desktopCounters).move(DesktopPlan.BASIC, step[0], step[1]);
+        }
+        verify(desktopCounters).increment(DesktopStatus.PENDING, DesktopPlan.BASIC);
+        verify(desktopRepository).updateVmId(eq(1L), eq(100), any());
+        verify(desktopRepository).updateVmIpAddress(eq(1L), eq("192.168.1.100"), any());
+        verify(desktopRepository).updateConnection(eq(1L), eq("SPICE"), eq("conn1"),
+                eq("http://guac/#/client/conn1"), any());
+    }
+
+    @Test
+    void createDesktop_publishesEveryTransition() {
+        when(desktopRepository.findByUserIdAndStatusNot(anyString(), any())).thenReturn(Optional.empty());
+        when(desktopRepository.save(any(Desktop.class))).thenAnswer(i -> {
+            Desktop d = i.getArgument(0);
+            d.setId(1L);
+            d.setUpdatedAt(Instant.now());
+            return d;
+        });
+        when(proxmoxProperties.getNode()).thenReturn("pve");
+        when(proxmoxClient.getNextAvailableVmId()).thenReturn(100);
+        when(proxmoxClient.cloneVm(anyInt(), anyInt(), anyString())).thenReturn("UPID:clone");
+        when(proxmoxClient.startVm(anyInt())).thenReturn("UPID:start");
+        when(proxmoxClient.waitForVmIp(anyInt(), any(Duration.class))).thenReturn("192.168.1.100");
+
+        desktopService.createDesktop("user1", "test", DesktopPlan.BASIC);
+
+        ArgumentCaptor<DesktopStatusChangedEvent> events = ArgumentCaptor.forClass(DesktopStatusChangedEvent.class);
+        verify(eventPublisher, times(6)).publishEvent(events.capture());
+        assertEquals(List.of(DesktopStatus.PENDING, DesktopStatus.PROVISIONING, DesktopStatus.STARTING,
+                DesktopStatus.WAITING_FOR_IP, DesktopStatus.CONFIGURING, DesktopStatus.RUNNING),
+                events.getAllValues().stream().map(DesktopStatusChangedEvent::status).toList());
+
+        DesktopStatusChangedEvent cloned = events.getAllValues().get(2);
+        assertEquals(DesktopStatus.PROVISIONING, cloned.previousStatus());
+        assertEquals("UPID:clone", cloned.upid());
+        assertEquals("pve", cloned.node());
+        assertEquals(DesktopPlan.BASIC, cloned.plan());
+        assertNotNull(cloned.stageDuration());
+        assertNull(events.getAllValues().get(0).previousStatus());
+    }
+
+    @Test
+    void stopDesktop_shouldFail_whenDesktopChangedConcurrently() {
+        Desktop desktop = new Desktop();
+        desktop.setId(1L);
+        desktop.setVmId(100);
+        desktop.setStatus(DesktopStatus.RUNNING);
+
+        when(desktopRepository.findById(1L)).thenReturn(Optional.of(desktop));
+        when(desktopRepository.updateStatus(eq(1L), eq(DesktopStatus.RUNNING), eq(DesktopStatus.STOPPING), any(),
+                any())).thenReturn(0);
+
+        assertThrows(DesktopStatusChangedException.class, () -> desktopService.stopDesktop(1L, false));
+        verifyNoInteractions(proxmoxClient);
+        verifyNoInteractions(desktopCounters);
     }
 
     @Test
@@ -161,7 +291,171 @@ class DesktopServiceTest {
         desktopService.deleteDesktop(1L);
 
         assertEquals(DesktopStatus.DELETED, desktop.getStatus());
-        verify(guacamoleClient).deleteConnection("conn1");
+        verify(connectionManager).detach(desktop);
         verify(proxmoxClient).deleteVm(100);
     }
+
+    @Test
+    void startDesktop_shouldRepointConnection_whenIpChanged() {
+        Desktop desktop = new Desktop();
+        desktop.setId(1L);
+        desktop.setVmId(100);
+        desktop.setVmIpAddress("192.168.1.100");
+        desktop.setConnectionId("conn1");
+        desktop.setStatus(DesktopStatus.STOPPED);
+
+        when(desktopRepository.findById(1L)).thenReturn(Optional.of(desktop));
+        when(proxmoxClient.startVm(100)).thenReturn("UPID:start");
+        when(proxmoxClient.waitForVmIp(eq(100), any(Duration.class))).thenReturn("192.168.1.200");
+
+        desktopService.startDesktop(1L);
+
+        assertEquals(DesktopStatus.RUNNING, desktop.getStatus());
+        verify(connectionManager).repoint(argThat(d -> "192.168.1.200".equals(d.getVmIpAddress())));
+    }
+
+    @Test
+    void getDesktop_readsThroughToTheArchive() {
+        Desktop archived = new Desktop();
+        archived.setId(7L);
+        archived.setStatus(DesktopStatus.DELETED);
+        when(desktopRepository.findById(7L)).thenReturn(Optional.empty());
+        when(desktopArchive.findById(7L)).thenReturn(Optional.of(archived));
+
+        assertEquals(archived, desktopService.getDesktop(7L));
+        assertThrows(DesktopNotFoundException.class, () -> desktopService.getDesktop(8L));
+    }
+
+    @Test
+    void getDesktopAtRevision_rereadsACachedCopyThatIsBehind() {
+        Desktop desktop = Desktop.builder().id(1L).userId("user1").status(DesktopStatus.RUNNING).version(2L)
+                .sessionCount(1).build();
+        when(desktopRepository.findById(1L)).thenReturn(Optional.of(desktop.toBuilder().build()));
+        desktopService.getDesktop(1L); // Cached
+        desktop.setSessionCount(2); // Bulk activity write: no status event, so the cache keeps the old copy
+        when(desktopRepository.findById(1L)).thenReturn(Optional.of(desktop.toBuilder().build()));
+
+        assertEquals(1, desktopService.getDesktop(1L).getSessionCount());
+        assertEquals(2, desktopService.getDesktop(1L, DesktopRevision.of(desktop)).getSessionCount());
+        assertEquals(2, desktopService.getDesktop(1L).getSessionCount());
+        verify(desktopRepository, times(2)).findById(1L);
+    }
+
+    @Test
+    void getDesktops_readsLiveDesktopsInOneQuery_andTheRestFromTheArchive() {
+        Desktop live = new Desktop();
+        live.setId(1L);
+        Desktop archived = new Desktop();
+        archived.setId(7L);
+        when(desktopRepository.findAllById(Set.of(1L, 7L, 8L))).thenReturn(List.of(live));
+        when(desktopArchive.findAllById(Set.of(7L, 8L))).thenReturn(List.of(archived));
+
+        Map<Long, Desktop> desktops = desktopService.getDesktops(List.of(1L, 7L, 8L));
+
+        assertEquals(Set.of(1L, 7L), desktops.keySet());
+        verify(desktopRepository, never()).findById(any());
+    }
+
+    @Test
+    void operationsOnABusyDesktop_areRefusedBeforeAnyWork() {
+        try (DesktopOperations.Operation delete = desktopOperations.begin(1L, "DELETE")) {
+            assertThrows(DesktopBusyException.class, () -> desktopService.stopDesktop(1L, false));
+            assertThrows(DesktopBusyException.class, () -> desktopService.startDesktop(1L));
+            verifyNoInteractions(desktopRepository, proxmoxClient);
+        }
+
+        // Released when the running operation ends; other desktops were never affected
+        Desktop desktop = new Desktop();
+        desktop.setId(1L);
+        desktop.setVmId(100);
+        desktop.setStatus(DesktopStatus.RUNNING);
+        when(desktopRepository.findById(1L)).thenReturn(Optional.of(desktop));
+        when(proxmoxClient.shutdownVm(100)).thenReturn("UPID:stop");
+        assertDoesNotThrow(() -> desktopService.stopDesktop(1L, false));
+        assertNull(desktopOperations.running(1L));
+    }
+
+    @Test
+    void operationsOnADesktopClaimedByAnotherInstance_areRefused() {
+        when(leaseManager.tryAcquire(DesktopOperations.lease(1L))).thenReturn(false);
+
+        assertThrows(DesktopBusyException.class, () -> desktopService.stopDesktop(1L, false));
+        verifyNoInteractions(desktopRepository, proxmoxClient);
+        assertNull(desktopOperations.running(1L));
+        verify(leaseManager, never()).release(any());
+    }
+
+    @Test
+    void refresh_leavesTheStatusToTheRunningOperation() {
+        Desktop desktop = new Desktop();
+        desktop.setId(1L);
+        desktop.setVmId(100);
+        desktop.setStatus(DesktopStatus.STARTING);
+        when(desktopRepository.findById(1L)).thenReturn(Optional.of(desktop));
+
+        try (DesktopOperations.Operation start = desktopOperations.begin(1L, "START")) {
+            assertEquals(DesktopStatus.STARTING, desktopService.refreshDesktopStatus(1L).getStatus());
+        }
+        verifyNoInteractions(proxmoxClient);
+    }
+
+    @Test
+    void refresh_doesNotClaimTheDesktop() {
+        Desktop desktop = new Desktop();
+        desktop.setId(1L);
+        desktop.setVmId(100);
+        desktop.setStatus(DesktopStatus.RUNNING);
+        when(desktopRepository.findById(1L)).thenReturn(Optional.of(desktop));
+        VmStatus vmStatus = new VmStatus();
+        vmStatus.setStatus("running");
+        when(proxmoxClient.getVmStatus(100)).thenReturn(vmStatus);
+
+        assertEquals(DesktopStatus.RUNNING, desktopService.refreshDesktopStatus(1L).getStatus());
+        verify(leaseManager, never()).tryAcquire(any());
+        assertNull(desktopOperations.running(1L));
+    }
+
+    @Test
+    void refresh_leavesTheStatusToAnOperationOnAnotherInstance() {
+        Desktop desktop = new Desktop();
+        desktop.setId(1L);
+        desktop.setVmId(100);
+        desktop.setStatus(DesktopStatus.STOPPED);
+        when(desktopRepository.findById(1L)).thenReturn(Optional.of(desktop));
+        when(leaseManager.getOwner(DesktopOperations.lease(1L))).thenReturn(Optional.of("instance-b"));
+
+        assertEquals(DesktopStatus.STOPPED, desktopService.refreshDesktopStatus(1L).getStatus());
+        verifyNoInteractions(proxmoxClient);
+    }
+
+    @Test
+    void refresh_neverMovesATransitionalStatus() {
+        Desktop desktop = new Desktop();
+        desktop.setId(1L);
+        desktop.setVmId(100);
+        desktop.setStatus(DesktopStatus.WAITING_FOR_IP);
+        when(desktopRepository.findById(1L)).thenReturn(Optional.of(desktop));
+
+        assertEquals(DesktopStatus.WAITING_FOR_IP, desktopService.refreshDesktopStatus(1L).getStatus());
+        verifyNoInteractions(proxmoxClient);
+        verify(desktopRepository, never()).updateStatus(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void refresh_keepsAStatusSetByAnOperationMeanwhile() {
+        Desktop desktop = new Desktop();
+        desktop.setId(1L);
+        desktop.setVmId(100);
+        desktop.setStatus(DesktopStatus.RUNNING);
+        Desktop stopping = desktop.toBuilder().status(DesktopStatus.STOPPING).build();
+        when(desktopRepository.findById(1L)).thenReturn(Optional.of(desktop)).thenReturn(Optional.of(stopping));
+        VmStatus vmStatus = new VmStatus();
+        vmStatus.setStatus("stopped");
+        when(proxmoxClient.getVmStatus(100)).thenReturn(vmStatus);
+        when(desktopRepository.updateStatus(eq(1L), eq(DesktopStatus.RUNNING), eq(DesktopStatus.STOPPED), any(),
+                any())).thenReturn(0);
+
+        assertEquals(DesktopStatus.STOPPING, desktopService.refreshDesktopStatus(1L).getStatus());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
 }
@@ -0,0 +1,122 @@
+package com.xstream.clouddesktop.service;
+
+import com.xstream.clouddesktop.client.guacamole.GuacamoleClient;
+import com.xstream.clouddesktop.client.guacamole.dto.ActiveConnection;
+import com.xstream.clouddesktop.client.guacamole.dto.ConnectionHistoryEntry;
+import com.xstream.clouddesktop.config.GuacamoleProperties;
+import com.xstream.clouddesktop.model.Desktop;
+import com.xstream.clouddesktop.model.DesktopStatus;
+import com.xstream.clouddesktop.repository.DesktopRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SessionActivityPollerTest {
+
+    private static final Instant MARK = Instant.parse("2024-05-01T10:00:00Z");
+
+    @Mock
+    private GuacamoleClient guacamoleClient;
+    @Mock
+    private DesktopRepository desktopRepository;
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private LeaseManager leaseManager;
+
+    private SessionActivityPoller poller;
+
+    @BeforeEach
+    void setUp() {
+        poller = new SessionActivityPoller(guacamoleClient, desktopRepository, jdbcTemplate,
+                new GuacamoleProperties(), leaseManager);
+        when(desktopRepository.findLatestAccess()).thenReturn(Optional.of(MARK));
+    }
+
+    private static Desktop desktop(long id, String connectionId) {
+        Desktop desktop = new Desktop();
+        desktop.setId(id);
+        desktop.setConnectionId(connectionId);
+        return desktop;
+    }
+
+    private static ConnectionHistoryEntry session(String connectionId, Instant start, Instant end) {
+        ConnectionHistoryEntry entry = new ConnectionHistoryEntry();
+        entry.setConnectionIdentifier(connectionId);
+        entry.setStartDate(start.toEpochMilli());
+        entry.setEndDate(end != null ? end.toEpochMilli() : null);
+        return entry;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void pollOnce_shouldWriteAllActivityInOneBatch_andOnlyCountNewSessions() {
+        ActiveConnection active = new ActiveConnection();
+        active.setConnectionIdentifier("c1");
+        when(guacamoleClient.listActiveConnections()).thenReturn(Map.of("a1", active));
+        when(guacamoleClient.listConnectionHistory()).thenReturn(List.of(
+                session("c1", MARK.plusSeconds(300), null),
+                session("c2", MARK.plusSeconds(120), MARK.plusSeconds(240)),
+                session("c2", MARK.plusSeconds(60), MARK.plusSeconds(90)),
+                session("c2", MARK.minusSeconds(600), MARK.minusSeconds(300))));
+        when(desktopRepository.findAllByConnectionIdInAndStatusNot(anyCollection(), eq(DesktopStatus.DELETED)))
+                .thenReturn(List.of(desktop(1L, "c1"), desktop(2L, "c2")));
+        Desktop closed = desktop(3L, "c3");
+        closed.setActiveSessions(1);
+        closed.setLastAccessedAt(MARK);
+        when(desktopRepository.findAllByActiveSessionsGreaterThan(0)).thenReturn(List.of(closed));
+
+        assertEquals(3, poller.pollOnce());
+
+        ArgumentCaptor<List<Object[]>> batch = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(eq(SessionActivityPoller.UPDATE_ACTIVITY_SQL), batch.capture());
+        Map<Object, Object[]> rows = new HashMap<>();
+        batch.getValue().forEach(row -> rows.put(row[3], row));
+
+        assertEquals(1, rows.get(1L)[1]); // one new session
+        assertEquals(1, rows.get(1L)[2]); // still open
+        assertEquals(2, rows.get(2L)[1]); // the pre-mark session is not recounted
+        assertEquals(0, rows.get(2L)[2]);
+        assertEquals(Timestamp.from(MARK.plusSeconds(240)), rows.get(2L)[0]);
+        assertEquals(0, rows.get(3L)[2]);
+
+        // Next cycle: nothing new in history
+        reset(jdbcTemplate);
+        when(desktopRepository.findAllByActiveSessionsGreaterThan(0)).thenReturn(List.of());
+        when(guacamoleClient.listActiveConnections()).thenReturn(Map.of());
+        assertEquals(0, poller.pollOnce());
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void poll_shouldOnlyRunOnTheLeaseHolder_andReloadTheMarkOnTakeover() {
+        when(leaseManager.tryAcquire(SessionActivityPoller.LEASE)).thenReturn(true, false, true);
+        when(guacamoleClient.listActiveConnections()).thenReturn(Map.of());
+        when(guacamoleClient.listConnectionHistory()).thenReturn(List.of());
+        when(desktopRepository.findAllByActiveSessionsGreaterThan(0)).thenReturn(List.of());
+
+        poller.poll();
+        poller.poll(); // Another instance holds the lease
+        poller.poll();
+
+        verify(guacamoleClient, times(2)).listConnectionHistory();
+        // The other instance may have moved the mark while it held the lease
+        verify(desktopRepository, times(2)).findLatestAccess();
+    }
+}